@@ -0,0 +1,48 @@
+package canvas;
+
+import java.nio.charset.StandardCharsets;
+
+/** Synthetic API responses, shaped like the pages GradeCoordinator and CreateRosterForGradescope fetch */
+public class BenchData {
+
+    /**
+     * @param n how many submissions
+     * @param assignments spread the submissions over this many assignments, 8675309 onwards
+     * @return a JSON array of Submissions, where every other assignment is a group assignment with groups of two
+     */
+    public static byte[] submissions(int n, int assignments) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(',');
+            int assignment = i % assignments;
+            int student = i / assignments;
+            String group = 0 == assignment % 2 ? "{\"id\":null,\"name\":null}"
+                    : String.format("{\"id\":%d,\"name\":\"Group %d\"}", 50_000 + student / 2, student / 2);
+            sb.append(String.format("{\"id\":%d,\"user_id\":%d,\"assignment_id\":%d,\"attempt\":%s," +
+                            "\"score\":%s,\"grade\":\"%d\",\"seconds_late\":%d,\"workflow_state\":\"submitted\"," +
+                            "\"submitted_at\":\"2020-02-0%dT12:34:56Z\",\"graded_at\":null,\"late\":false," +
+                            "\"group\":%s," +
+                            "\"submission_comments\":[{\"id\":%d,\"author_id\":1,\"author_name\":\"Grader\"," +
+                            "\"comment\":\"Score: %d/100\",\"created_at\":\"2020-02-03T00:00:00Z\"}]," +
+                            "\"attachments\":[{\"id\":%d,\"display_name\":\"submit.zip\",\"filename\":\"submit.zip\"," +
+                            "\"content-type\":\"application/zip\",\"url\":\"https://example.com/files/%d/download\"," +
+                            "\"size\":%d,\"created_at\":\"2020-02-01T12:34:56Z\",\"locked\":false}]}",
+                    i, 1000 + student, 8675309 + assignment, i % 3 == 0 ? "null" : "1",
+                    i % 5 == 0 ? "null" : (i % 100) + ".5", i % 100, i % 7 * 60, 1 + i % 9, group,
+                    5000 + i, i % 100, 9000 + i, 9000 + i, 1024 * i));
+        }
+        return sb.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** @return a JSON array of n Users */
+    public static byte[] users(int n) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(String.format("{\"id\":%d,\"name\":\"Student %d\",\"sortable_name\":\"%d, Student\"," +
+                    "\"short_name\":\"Student %d\",\"login_id\":\"student%d\",\"email\":\"student%d@example.com\"," +
+                    "\"avatar_url\":\"https://example.com/avatar/%d.png\"}", 1000 + i, i, i, i, i, i, i));
+        }
+        return sb.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,54 @@
+package canvas;
+
+import canvas.apiobjects.Submission;
+import canvas.apiobjects.User;
+import canvas.json.JsonCodecs;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing pages of Submissions and Users into our @Key classes, with google-http-client's reflective parser and with
+ * the generated codecs (see JsonCodecs). NB: if CanvasUtils was built without the codecs module (i.e., not from
+ * ../pom.xml), both modes are reflective.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyParsingBenchmark {
+
+    @Param({"reflective", "generated"})
+    public String parser;
+
+    /** objects per page: the default page size, and the max we ask for */
+    @Param({"10", "100"})
+    public int objects;
+
+    private byte[] submissions, users;
+
+    @Setup
+    public void setup() {
+        JsonCodecs.setEnabled("generated".equals(parser));
+        submissions = BenchData.submissions(objects, 5);
+        users = BenchData.users(objects);
+    }
+
+    @TearDown
+    public void tearDown() {
+        JsonCodecs.setEnabled(true);
+    }
+
+    @Benchmark
+    public Submission[] submissions() throws IOException {
+        return JsonCodecs.parse(submissions, Submission[].class);
+    }
+
+    @Benchmark
+    public User[] users() throws IOException {
+        return JsonCodecs.parse(users, User[].class);
+    }
+}
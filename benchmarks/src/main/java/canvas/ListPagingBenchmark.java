@@ -0,0 +1,56 @@
+package canvas;
+
+import canvas.apiobjects.Submission;
+import canvas.transport.CanvasTransport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Common.getAsList() and streamAsList() over a paginated list: following Link headers (numbered pages are fetched
+ * concurrently, bookmarks one after another), and parsing each page. Pages come from PagedTransport, so this measures
+ * our own overhead, not the network's.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListPagingBenchmark {
+
+    /** how long the list is */
+    @Param({"1", "10", "50"})
+    public int pages;
+
+    @Param({"false", "true"})
+    public boolean bookmarks;
+
+    private CanvasTransport saved;
+
+    @Setup
+    public void setup() {
+        saved = Common.transport();
+        Common.useTransport(new PagedTransport(BenchData.submissions(100, 5), pages, bookmarks));
+        Common.useSite("https://canvas.invalid/api/v1/", "1");
+        Common.TOKEN = "Bearer benchmark";
+    }
+
+    @TearDown
+    public void tearDown() {
+        Common.useTransport(saved);
+    }
+
+    @Benchmark
+    public List<Submission> getAsList() throws IOException {
+        return Common.getAsList("students/submissions", Submission[].class);
+    }
+
+    @Benchmark
+    public long streamAsList() {
+        return Common.client().<Submission, Submission[]>streamAsList("students/submissions", Submission[].class)
+                .count();
+    }
+}
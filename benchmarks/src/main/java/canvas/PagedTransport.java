@@ -0,0 +1,65 @@
+package canvas;
+
+import canvas.transport.CanvasTransport;
+import canvas.transport.PoolStats;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers every GET with the same page of JSON, and a Link header like Canvas' for a list that is the given number
+ * of pages long. So getAsList() runs its real pagination code, without a network.
+ */
+class PagedTransport extends CanvasTransport {
+
+    private final byte[] page;
+    private final int pages;
+    private final boolean bookmarks;
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * @param page the JSON array to return for each page
+     * @param bookmarks use opaque bookmarks, instead of numbered pages with a last link
+     */
+    PagedTransport(byte[] page, int pages, boolean bookmarks) {
+        this.page = page;
+        this.pages = pages;
+        this.bookmarks = bookmarks;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) {
+        requests.incrementAndGet();
+        GenericUrl u = new GenericUrl(url);
+        Object p = u.getFirst("page");
+        int current = null == p ? 1 : Integer.parseInt(p.toString().replace("bookmark:", ""));
+
+        StringBuilder link = new StringBuilder();
+        if (current < pages) {
+            link.append(link(u, current + 1, "next")).append(',');
+        }
+        link.append(link(u, 1, "first"));
+        if (!bookmarks) {
+            link.append(',').append(link(u, pages, "last"));
+        }
+        MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+                .setContentType("application/json; charset=utf-8")
+                .addHeader("Link", link.toString())
+                .setContent(page);
+        return new MockLowLevelHttpRequest(url).setResponse(response);
+    }
+
+    private String link(GenericUrl url, int page, String rel) {
+        GenericUrl u = url.clone();
+        u.set("page", bookmarks ? "bookmark:" + page : String.valueOf(page));
+        return "<" + u.build() + ">; rel=\"" + rel + "\"";
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return new PoolStats(requests.get(), 0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,88 @@
+package canvas;
+
+import canvas.apiobjects.Submission;
+import canvas.apiobjects.User;
+import canvas.json.JsonCodecs;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of loading a course: parsing the roster and submissions from JSON (as we'd get them from Canvas, or
+ * from DiskCache), versus opening a BinarySnapshot of them and reading what we need.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    private static final int ASSIGNMENTS = 10;
+
+    @Param({"1000", "10000"})
+    public int students;
+
+    private byte[] usersJson, submissionsJson;
+    private Path file;
+    private int someone;
+
+    @Setup
+    public void setup() throws IOException {
+        usersJson = BenchData.users(students);
+        submissionsJson = BenchData.submissions(students * ASSIGNMENTS, ASSIGNMENTS);
+        List<User> users = Arrays.asList(JsonCodecs.parse(usersJson, User[].class));
+        List<Submission> subs = Arrays.asList(JsonCodecs.parse(submissionsJson, Submission[].class));
+        file = Files.createTempFile("snapshot-bench", ".snapshot");
+        BinarySnapshot.writer()
+                .table("users", User.class, users)
+                .table("submissions", Submission.class, subs)
+                .write(file);
+        someone = users.get(students / 2).id;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public User jsonLookup() throws IOException {
+        for (User u : JsonCodecs.parse(usersJson, User[].class)) {
+            if (someone == u.id) return u;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public User snapshotLookup() throws IOException {
+        return BinarySnapshot.open(file).table("users", User.class).byId(someone);
+    }
+
+    /** how many submissions are waiting to be graded, like GradeCoordinator checks every run */
+    @Benchmark
+    public int jsonScan() throws IOException {
+        int n = 0;
+        for (Submission s : JsonCodecs.parse(submissionsJson, Submission[].class)) {
+            if ("submitted".equals(s.workflow_state)) n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int snapshotScan() throws IOException {
+        BinarySnapshot.Table<Submission> subs = BinarySnapshot.open(file).table("submissions", Submission.class);
+        int state = subs.column("workflow_state");
+        int n = 0;
+        for (int row = 0; row < subs.size(); row++) {
+            if (subs.stringEquals(row, state, "submitted")) n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,94 @@
+package canvas.autograder;
+
+import canvas.BenchData;
+import canvas.apiobjects.Submission;
+import canvas.json.JsonCodecs;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * What GradeCoordinator does on every cron run besides talking to Canvas: bucketing submissions by group, checking
+ * submitted .zip archives, and reading autograder output for emails.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GradeCoordinatorBenchmark {
+
+    private static final int ASSIGNMENTS = 5;
+    private static final List<String> ARCHIVE = Arrays.asList(
+            "lc4_processor.v", "lc4_regfile.v", "lc4_alu.v", "lc4_divider.v", "lc4_cla.v", "output/proc.bit");
+
+    /** submissions returned by students/submissions, across all assignments */
+    @Param({"1000", "10000"})
+    public int submissions;
+
+    private List<Submission> subs;
+    private File dir, zip, output;
+
+    @Setup
+    public void setup() throws IOException {
+        subs = Arrays.asList(JsonCodecs.parse(BenchData.submissions(submissions, ASSIGNMENTS), Submission[].class));
+
+        dir = Files.createTempDirectory("grade-coordinator-bench").toFile();
+        zip = new File(dir, "processor.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (String name : ARCHIVE) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(new byte[64 * 1024]);
+                out.closeEntry();
+            }
+            out.putNextEntry(new ZipEntry(".DS_Store"));
+            out.closeEntry();
+        }
+
+        // Vivado output is big, and mostly noise
+        output = new File(dir, "stdout");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 40_000; i++) {
+                w.write(String.format("INFO: [Synth 8-%d] synthesizing module 'lc4_module_%d'%n", i % 9000, i));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /** the loop over assignments in GradeCoordinator.main() */
+    @Benchmark
+    public int submissionsByGroup() {
+        int groups = 0;
+        for (int a = 0; a < ASSIGNMENTS; a++) {
+            groups += GradeCoordinator.submissionsByGroup(subs, 8675309 + a).size();
+        }
+        return groups;
+    }
+
+    @Benchmark
+    public String archiveProblem() throws IOException {
+        return GradeCoordinator.archiveProblem(zip, ARCHIVE);
+    }
+
+    @Benchmark
+    public String tailOfFile() throws IOException {
+        return GradeCoordinator.tailOfFile(1024, output, "stdout");
+    }
+
+    @Benchmark
+    public String stringFromFile() throws IOException {
+        return GradeCoordinator.stringFromFile(output, "stderr");
+    }
+}
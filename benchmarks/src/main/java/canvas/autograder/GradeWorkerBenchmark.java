@@ -0,0 +1,63 @@
+package canvas.autograder;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GradeWorker's handling of the autograder's output: capturing a stream in StreamConsumer's ring buffer, and
+ * scanning the output for the score.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GradeWorkerBenchmark {
+
+    private static final String NONCE = "8675309";
+
+    /** lines of autograder output */
+    @Param({"1000", "50000"})
+    public int lines;
+
+    private File dir, output, captured;
+    private byte[] stream;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("grade-worker-bench").toFile();
+        output = new File(dir, "output.txt");
+        captured = new File(dir, "captured.txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append(String.format("[%8d ns] test %d: expected 0x%04x, got 0x%04x%n", 10 * i, i, i & 0xffff, i & 0xffff));
+        }
+        sb.append("<scorePossible").append(NONCE).append(">100</scorePossible>\n");
+        sb.append("<scoreActual").append(NONCE).append(">97</scoreActual>\n");
+        stream = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(output.toPath(), stream);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public TestResult readPoints() throws IOException {
+        return GradeWorker.readPoints(output, new TestResult(), NONCE);
+    }
+
+    /** NB: run() on this thread, rather than start(), so we measure just the copying */
+    @Benchmark
+    public long streamConsumer() {
+        new StreamConsumer(new ByteArrayInputStream(stream), captured).run();
+        return captured.length();
+    }
+}
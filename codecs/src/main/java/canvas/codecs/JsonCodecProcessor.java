@@ -0,0 +1,315 @@
+package canvas.codecs;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Generates a canvas.json.JsonCodec for each class with google-http-client @Key fields, e.g.,
+ * canvas.apiobjects.Submission gets canvas.apiobjects.SubmissionJsonCodec. The codecs read and write JSON with
+ * Gson's streaming JsonReader/JsonWriter and plain field accesses, instead of going through reflection and
+ * google-http-client's ClassInfo/DataMap machinery.
+ *
+ * A class only gets a codec if every one of its @Key fields has a type we know how to handle: primitives, their
+ * boxes, String, Map&lt;String,String&gt;, other @Key classes, and arrays of these. Anything else (e.g., a
+ * GenericJson subclass, or a private class) is skipped, and canvas.json.JsonCodecs falls back to reflection for it.
+ */
+@SupportedAnnotationTypes(JsonCodecProcessor.KEY)
+public class JsonCodecProcessor extends AbstractProcessor {
+
+    static final String KEY = "com.google.api.client.util.Key";
+    private static final String CODEC_SUFFIX = "JsonCodec";
+    private static final String RUNTIME = "canvas.json.JsonCodecs";
+
+    /** boxed types and their JsonCodecs read methods */
+    private static final Map<String, String> BOXED_READERS = new HashMap<>();
+    static {
+        BOXED_READERS.put("java.lang.String", "readString");
+        BOXED_READERS.put("java.lang.Integer", "readInteger");
+        BOXED_READERS.put("java.lang.Long", "readLongObject");
+        BOXED_READERS.put("java.lang.Double", "readDoubleObject");
+        BOXED_READERS.put("java.lang.Boolean", "readBooleanObject");
+    }
+
+    /** classes we've already checked. NB: a class is assumed to be supported while we check it, to allow cycles. */
+    private final Map<TypeElement, Boolean> supported = new HashMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (annotations.isEmpty()) return false;
+
+        Set<TypeElement> classes = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations) {
+            for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (e.getKind() == ElementKind.FIELD) {
+                    classes.add((TypeElement) e.getEnclosingElement());
+                }
+            }
+        }
+        for (TypeElement c : classes) {
+            if (!isSupported(c)) continue;
+            try {
+                generate(c);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "couldn't write JSON codec: " + e.getMessage(), c);
+            }
+        }
+        // let other processors see @Key too
+        return false;
+    }
+
+    private static String keyName(VariableElement field) {
+        for (AnnotationMirror am : field.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) am.getAnnotationType().asElement();
+            if (!type.getQualifiedName().contentEquals(KEY)) continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : am.getElementValues().entrySet()) {
+                if (e.getKey().getSimpleName().contentEquals("value") && !"##default".equals(e.getValue().getValue())) {
+                    return e.getValue().getValue().toString();
+                }
+            }
+            return field.getSimpleName().toString();
+        }
+        return null;
+    }
+
+    private static List<VariableElement> keyFields(TypeElement c) {
+        List<VariableElement> fields = new ArrayList<>();
+        for (VariableElement f : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+            if (null != keyName(f)) fields.add(f);
+        }
+        return fields;
+    }
+
+    /** @return true if the generated codec (in c's package) can create c and get at all of its @Key fields */
+    private boolean isSupported(TypeElement c) {
+        Boolean known = supported.get(c);
+        if (null != known) return known;
+        supported.put(c, true);
+
+        boolean ok = c.getKind() == ElementKind.CLASS
+                && !c.getModifiers().contains(Modifier.ABSTRACT)
+                && c.getTypeParameters().isEmpty()
+                && isAccessible(c)
+                && c.getSuperclass().toString().equals("java.lang.Object")
+                && hasNoArgConstructor(c);
+        Set<String> names = new HashSet<>();
+        for (VariableElement f : keyFields(c)) {
+            Set<Modifier> mods = f.getModifiers();
+            ok = ok && !mods.contains(Modifier.PRIVATE) && !mods.contains(Modifier.STATIC)
+                    && !mods.contains(Modifier.FINAL) && names.add(keyName(f)) && isSupported(f.asType());
+        }
+        supported.put(c, ok);
+        return ok;
+    }
+
+    private static boolean isAccessible(TypeElement c) {
+        for (Element e = c; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) return false;
+            // we can't create instances of inner classes
+            if (e.getEnclosingElement() instanceof TypeElement && !e.getModifiers().contains(Modifier.STATIC)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasNoArgConstructor(TypeElement c) {
+        for (ExecutableElement ctor : ElementFilter.constructorsIn(c.getEnclosedElements())) {
+            if (ctor.getParameters().isEmpty() && !ctor.getModifiers().contains(Modifier.PRIVATE)) return true;
+        }
+        return false;
+    }
+
+    private boolean isSupported(TypeMirror t) {
+        switch (t.getKind()) {
+            case INT:
+            case LONG:
+            case DOUBLE:
+            case BOOLEAN:
+                return true;
+            case ARRAY:
+                TypeMirror component = ((ArrayType) t).getComponentType();
+                if (component.getKind().isPrimitive()) {
+                    return component.getKind() == TypeKind.INT || component.getKind() == TypeKind.LONG
+                            || component.getKind() == TypeKind.DOUBLE;
+                }
+                return component.getKind() == TypeKind.DECLARED && isSupported(component);
+            case DECLARED:
+                DeclaredType dt = (DeclaredType) t;
+                TypeElement e = (TypeElement) dt.asElement();
+                String name = e.getQualifiedName().toString();
+                if (BOXED_READERS.containsKey(name)) return true;
+                if (name.equals("java.util.Map")) {
+                    return dt.getTypeArguments().size() == 2
+                            && dt.getTypeArguments().get(0).toString().equals("java.lang.String")
+                            && dt.getTypeArguments().get(1).toString().equals("java.lang.String");
+                }
+                return !keyFields(e).isEmpty() && isSupported(e);
+            default:
+                return false;
+        }
+    }
+
+    // code generation
+
+    private String codecName(TypeElement c) {
+        String pkg = processingEnv.getElementUtils().getPackageOf(c).getQualifiedName().toString();
+        String binary = processingEnv.getElementUtils().getBinaryName(c).toString();
+        String simple = (pkg.isEmpty() ? binary : binary.substring(pkg.length() + 1)).replace('$', '_');
+        return (pkg.isEmpty() ? "" : pkg + ".") + simple + CODEC_SUFFIX;
+    }
+
+    private void generate(TypeElement c) throws IOException {
+        final String codec = codecName(c);
+        final int dot = codec.lastIndexOf('.');
+        final String type = c.getQualifiedName().toString();
+
+        try (PrintWriter w = new PrintWriter(processingEnv.getFiler().createSourceFile(codec, c).openWriter())) {
+            if (dot > 0) {
+                w.println("package " + codec.substring(0, dot) + ";");
+                w.println();
+            }
+            w.println("/** JSON codec for {@link " + type + "}. Generated by " + getClass().getName() + ", do not edit. */");
+            w.println("public final class " + codec.substring(dot + 1) + " implements canvas.json.JsonCodec<" + type + "> {");
+            w.println();
+            w.println("    public static final " + codec + " INSTANCE = new " + codec + "();");
+            w.println();
+
+            w.println("    @Override");
+            w.println("    public " + type + " read(com.google.gson.stream.JsonReader in) throws java.io.IOException {");
+            w.println("        if (" + RUNTIME + ".nextIsNull(in)) return com.google.api.client.util.Data.nullOf(" + type + ".class);");
+            w.println("        " + type + " o = new " + type + "();");
+            w.println("        in.beginObject();");
+            w.println("        while (in.hasNext()) {");
+            w.println("            switch (in.nextName()) {");
+            for (VariableElement f : keyFields(c)) {
+                w.println("                case " + quote(keyName(f)) + ":");
+                w.println("                    o." + f.getSimpleName() + " = " + reader(f.asType(), "in", 0) + ";");
+                w.println("                    break;");
+            }
+            w.println("                default:");
+            w.println("                    in.skipValue();");
+            w.println("            }");
+            w.println("        }");
+            w.println("        in.endObject();");
+            w.println("        return o;");
+            w.println("    }");
+            w.println();
+
+            w.println("    @Override");
+            w.println("    public void write(com.google.gson.stream.JsonWriter out, " + type + " o) throws java.io.IOException {");
+            w.println("        out.beginObject();");
+            // NB: same order as google-http-client, so requests are byte-for-byte the same either way
+            List<VariableElement> sorted = keyFields(c);
+            sorted.sort(Comparator.comparing(JsonCodecProcessor::keyName));
+            for (VariableElement f : sorted) {
+                String value = "o." + f.getSimpleName();
+                String name = "out.name(" + quote(keyName(f)) + ");";
+                if (f.asType().getKind().isPrimitive()) {
+                    w.println("        " + name);
+                    w.println("        out.value(" + value + ");");
+                } else {
+                    w.println("        if (null != " + value + ") {");
+                    w.println("            " + name);
+                    w.println("            " + writer(f.asType(), "out", value, 0) + ";");
+                    w.println("        }");
+                }
+            }
+            w.println("        out.endObject();");
+            w.println("    }");
+            w.println("}");
+        }
+    }
+
+    /** @return an expression that reads a value of type t from the JsonReader named in */
+    private String reader(TypeMirror t, String in, int depth) {
+        switch (t.getKind()) {
+            case INT:
+                return RUNTIME + ".readInt(" + in + ")";
+            case LONG:
+                return RUNTIME + ".readLong(" + in + ")";
+            case DOUBLE:
+                return RUNTIME + ".readDouble(" + in + ")";
+            case BOOLEAN:
+                return RUNTIME + ".readBoolean(" + in + ")";
+            case ARRAY:
+                TypeMirror component = ((ArrayType) t).getComponentType();
+                switch (component.getKind()) {
+                    case INT:
+                        return RUNTIME + ".readIntArray(" + in + ")";
+                    case LONG:
+                        return RUNTIME + ".readLongArray(" + in + ")";
+                    case DOUBLE:
+                        return RUNTIME + ".readDoubleArray(" + in + ")";
+                    default:
+                        String r = "r" + depth;
+                        return RUNTIME + ".<" + erasure(t) + ", " + erasure(component) + ">readArray(" + in + ", "
+                                + erasure(t) + ".class, " + r + " -> " + reader(component, r, depth + 1) + ")";
+                }
+            default:
+                TypeElement e = (TypeElement) ((DeclaredType) t).asElement();
+                String name = e.getQualifiedName().toString();
+                if (BOXED_READERS.containsKey(name)) return RUNTIME + "." + BOXED_READERS.get(name) + "(" + in + ")";
+                if (name.equals("java.util.Map")) return RUNTIME + ".readStringMap(" + in + ")";
+                return codecName(e) + ".INSTANCE.read(" + in + ")";
+        }
+    }
+
+    /** @return an expression that writes value, of type t, to the JsonWriter named out */
+    private String writer(TypeMirror t, String out, String value, int depth) {
+        switch (t.getKind()) {
+            case INT:
+            case LONG:
+            case DOUBLE:
+            case BOOLEAN:
+                return out + ".value(" + value + ")";
+            case ARRAY:
+                TypeMirror component = ((ArrayType) t).getComponentType();
+                switch (component.getKind()) {
+                    case INT:
+                        return RUNTIME + ".writeIntArray(" + out + ", " + value + ")";
+                    case LONG:
+                        return RUNTIME + ".writeLongArray(" + out + ", " + value + ")";
+                    case DOUBLE:
+                        return RUNTIME + ".writeDoubleArray(" + out + ", " + value + ")";
+                    default:
+                        String w = "w" + depth, e = "e" + depth;
+                        return RUNTIME + ".<" + erasure(component) + ">writeArray(" + out + ", " + value + ", ("
+                                + w + ", " + e + ") -> " + writer(component, w, e, depth + 1) + ")";
+                }
+            default:
+                TypeElement e = (TypeElement) ((DeclaredType) t).asElement();
+                String name = e.getQualifiedName().toString();
+                if (name.equals("java.lang.String")) return RUNTIME + ".writeString(" + out + ", " + value + ")";
+                if (name.equals("java.lang.Boolean")) return RUNTIME + ".writeBoolean(" + out + ", " + value + ")";
+                if (BOXED_READERS.containsKey(name)) return RUNTIME + ".writeNumber(" + out + ", " + value + ")";
+                if (name.equals("java.util.Map")) return RUNTIME + ".writeStringMap(" + out + ", " + value + ")";
+                return RUNTIME + ".writeObject(" + out + ", " + value + ", " + codecName(e) + ".INSTANCE)";
+        }
+    }
+
+    private String erasure(TypeMirror t) {
+        return processingEnv.getTypeUtils().erasure(t).toString();
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,248 @@
+package canvas;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Per-endpoint statistics for all of our HTTP traffic: latency, bytes in and out, pages, retries, errors, and the
+ * quota Canvas charges us (X-Request-Cost). Endpoints are identified by their URL with the ids taken out, e.g.,
+ * courses/:id/assignments/:id/submissions/:id, so that each one gets a single set of numbers.
+ *
+ * The numbers are cumulative since the JVM started. Common.setup() turns on reporting, which logs a one-line
+ * summary every MetricsIntervalSeconds (from canvas.properties, 60 by default) and when the JVM exits. If
+ * MetricsFile is set, the metrics are also written there in Prometheus' text format, e.g., for node_exporter's
+ * textfile collector (which wants the file name to end in .prom).
+ */
+public class ApiMetrics {
+
+    private static final Logger LOG = Logger.getLogger(ApiMetrics.class.getName());
+
+    private static final Pattern API_PATH = Pattern.compile("^https?://[^/]+/api/(?:v1/)?([^?#]*)"); // NB: GraphQL is at /api/graphql
+    private static final Pattern HOST = Pattern.compile("^https?://([^/:?#]+)");
+    /** numeric ids (possibly with a shard, like 123~456) and SIS ids, like sis_user_id:12345 */
+    private static final Pattern ID = Pattern.compile("(?<=/|^)(\\d+(~\\d+)?|sis_[a-z_]+:[^/]+)(?=/|$)");
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private static final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService reporter = null;
+    private static Path promFile = null;
+    private static long lastReportedRequests = 0;
+
+    /** Everything we know about one endpoint */
+    static class Endpoint {
+        final String template;
+        final Histogram latency = new Histogram();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder pages = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final DoubleAdder cost = new DoubleAdder();
+
+        Endpoint(String template) {
+            this.template = template;
+        }
+    }
+
+    /**
+     * Latencies, in log-spaced buckets that each span 10%, so our quantiles are within 10% of the real ones
+     * without having to keep every sample.
+     */
+    static class Histogram {
+        private static final double MIN_MS = 0.1;
+        private static final double GROWTH = 1.1;
+        private static final int BUCKETS = 200; // up to about 5 hours
+        private final long[] counts = new long[BUCKETS];
+        private long count = 0;
+        private double sumMs = 0.0;
+
+        synchronized void record(double ms) {
+            int i = ms <= MIN_MS ? 0 : (int) Math.ceil(Math.log(ms / MIN_MS) / Math.log(GROWTH));
+            counts[Math.min(i, BUCKETS - 1)]++;
+            count++;
+            sumMs += ms;
+        }
+
+        /** @return (an upper bound on) the q-th quantile, in ms */
+        synchronized double quantile(double q) {
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return MIN_MS * Math.pow(GROWTH, i);
+            }
+            return 0.0;
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized double sumMs() {
+            return sumMs;
+        }
+    }
+
+    /**
+     * Start reporting, with settings from canvas.properties. Called from Common.setup().
+     */
+    static synchronized void configure(Properties prop) {
+        if (null != prop.getProperty("MetricsFile")) {
+            promFile = Paths.get(prop.getProperty("MetricsFile"));
+        }
+        if (null != reporter) return;
+
+        long interval = Long.parseLong(prop.getProperty("MetricsIntervalSeconds", "60"));
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "canvas-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        if (interval > 0) {
+            reporter.scheduleAtFixedRate(ApiMetrics::report, interval, interval, TimeUnit.SECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(ApiMetrics::report, "canvas-metrics-exit"));
+    }
+
+    /** @return the endpoint template for url, e.g., courses/:id/users for .../api/v1/courses/1493255/users?page=2 */
+    static String templateOf(String url) {
+        Matcher m = API_PATH.matcher(url);
+        if (m.find()) {
+            return ID.matcher(m.group(1)).replaceAll(":id");
+        }
+        // not an API call, e.g., a file download
+        m = HOST.matcher(url);
+        return m.find() ? m.group(1) : "other";
+    }
+
+    static Endpoint endpointOf(String url) {
+        return endpoints.computeIfAbsent(templateOf(url), Endpoint::new);
+    }
+
+    /** Note that we're re-sending a request to url */
+    static void retry(String url) {
+        endpointOf(url).retries.increment();
+    }
+
+    /** @return the stats for all of the endpoints we've talked to, busiest (by total time) first */
+    private static List<Endpoint> byTotalTime() {
+        List<Endpoint> eps = new ArrayList<>(endpoints.values());
+        eps.sort(Comparator.comparingDouble((Endpoint e) -> e.latency.sumMs()).reversed());
+        return eps;
+    }
+
+    /** @return a one-line summary of all requests so far, including the three endpoints we've spent the most time on */
+    public static String summary() {
+        long requests = 0, pages = 0, retries = 0, errors = 0, in = 0, out = 0;
+        double cost = 0.0, ms = 0.0;
+        List<Endpoint> eps = byTotalTime();
+        for (Endpoint e : eps) {
+            requests += e.latency.count();
+            pages += e.pages.sum();
+            retries += e.retries.sum();
+            errors += e.errors.sum();
+            in += e.bytesIn.sum();
+            out += e.bytesOut.sum();
+            cost += e.cost.sum();
+            ms += e.latency.sumMs();
+        }
+        StringBuilder sb = new StringBuilder(String.format(
+                "Canvas API: %d requests (%d pages, %d retries, %d errors) in %.1fs, cost %.1f, %d KB in, %d KB out",
+                requests, pages, retries, errors, ms / 1e3, cost, in >> 10, out >> 10));
+        for (Endpoint e : eps.subList(0, Math.min(3, eps.size()))) {
+            sb.append(String.format("; %s: %d requests, p50/p95/p99 %.0f/%.0f/%.0f ms, cost %.1f", e.template,
+                    e.latency.count(), e.latency.quantile(0.5), e.latency.quantile(0.95), e.latency.quantile(0.99),
+                    e.cost.sum()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return all metrics in Prometheus' text exposition format. NB: format with Locale.ROOT and end lines with \n,
+     * whatever the platform, or Prometheus can't parse them (e.g., 0,1234 in a decimal-comma locale)
+     */
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        List<Endpoint> eps = byTotalTime();
+
+        sb.append("# HELP canvas_request_duration_seconds Time until a response's headers arrive.\n");
+        sb.append("# TYPE canvas_request_duration_seconds summary\n");
+        for (Endpoint e : eps) {
+            String label = "endpoint=\"" + escape(e.template) + "\"";
+            for (double q : QUANTILES) {
+                sb.append(String.format(Locale.ROOT, "canvas_request_duration_seconds{%s,quantile=\"%s\"} %.4f\n",
+                        label, q, e.latency.quantile(q) / 1e3));
+            }
+            sb.append(String.format(Locale.ROOT, "canvas_request_duration_seconds_sum{%s} %.4f\n",
+                    label, e.latency.sumMs() / 1e3));
+            sb.append(String.format(Locale.ROOT, "canvas_request_duration_seconds_count{%s} %d\n",
+                    label, e.latency.count()));
+        }
+        counter(sb, eps, "canvas_response_bytes_total", "Bytes of response bodies received.", e -> e.bytesIn.sum());
+        counter(sb, eps, "canvas_request_bytes_total", "Bytes of request bodies sent.", e -> e.bytesOut.sum());
+        counter(sb, eps, "canvas_pages_total", "Responses that were one page of a paginated list.", e -> e.pages.sum());
+        counter(sb, eps, "canvas_retries_total", "Requests that had to be sent again.", e -> e.retries.sum());
+        counter(sb, eps, "canvas_errors_total", "Requests that failed or got an error status.", e -> e.errors.sum());
+        counter(sb, eps, "canvas_request_cost_total", "Rate-limit quota used, from X-Request-Cost.", e -> e.cost.sum());
+        return sb.toString();
+    }
+
+    private interface Measure {
+        double of(Endpoint e);
+    }
+
+    private static void counter(StringBuilder sb, List<Endpoint> eps, String name, String help, Measure m) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (Endpoint e : eps) {
+            sb.append(String.format(Locale.ROOT, "%s{endpoint=\"%s\"} %s\n", name, escape(e.template), m.of(e)));
+        }
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /** Write the metrics to file, replacing it atomically so that a scraper never sees half a file */
+    public static void writePrometheus(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, ".canvas-metrics", ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(toPrometheus());
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static synchronized void report() {
+        long requests = 0;
+        for (Endpoint e : endpoints.values()) {
+            requests += e.latency.count();
+        }
+        if (requests == lastReportedRequests) return; // nothing new to say
+        lastReportedRequests = requests;
+
+        LOG.info(summary());
+        if (null != promFile) {
+            try {
+                writePrometheus(promFile);
+            } catch (IOException e) {
+                LOG.warning("couldn't write metrics to " + promFile + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,587 @@
+package canvas;
+
+import canvas.json.JsonCodecs;
+import com.google.api.client.util.ClassInfo;
+import com.google.api.client.util.Data;
+import com.google.api.client.util.FieldInfo;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A compact binary file of Canvas objects (anything with @Key fields, e.g., canvas.apiobjects), read back through a
+ * MappedByteBuffer. Opening one only reads its directory, and fields are only decoded when they're asked for, so a
+ * roster of thousands of students is available in a few milliseconds without parsing any JSON or filling the heap.
+ *
+ * A snapshot holds named tables. Every table has one fixed-width record per object, with a slot for each @Key field:
+ * primitives and their boxes are stored inline, while Strings are an offset into the file's string table (where each
+ * distinct string is stored once). Other fields, e.g., a Submission's Group or its attachments, are stored as their
+ * JSON in the string table and only parsed when the object is materialized. Tables of objects with an id field also
+ * get an index of id => record, sorted by id.
+ *
+ * The file's schema (field names and types) is stored with it, so a snapshot written before a class gained or lost a
+ * field can still be read: fields that aren't in both are left alone. Files are written to a temporary file and
+ * then renamed, so readers never see a partial one.
+ *
+ * Layout (big-endian):
+ *   int magic, int version, long directory offset, long string table offset
+ *   for each table: its records, then its index (int id, int record) if it has one
+ *   string table: for each string, int length then its UTF-8 bytes
+ *   directory: int table count, then for each table: name, class name, int field count, (name, byte type) for each
+ *   field, int record width, int record count, long records offset, long index offset (or -1)
+ */
+public class BinarySnapshot {
+
+    private static final int MAGIC = 0x43565342; // "CVSB"
+    private static final int VERSION = 1;
+    /** magic, version, directory offset, string table offset */
+    private static final int HEADER_SIZE = 24;
+
+    /** string table references for a null (missing) value, and for a JSON null, i.e., a Data.nullOf() sentinel */
+    private static final int NO_STRING = -1, NULL_STRING = -2;
+    /** presence flags for boxed values */
+    private static final byte ABSENT = 0, PRESENT = 1, JSON_NULL = 2;
+
+    /** How each kind of field is stored, and its width in a record */
+    enum Type {
+        INT(4), LONG(8), DOUBLE(8), BOOLEAN(1),
+        BOXED_INT(5), BOXED_LONG(9), BOXED_DOUBLE(9), BOXED_BOOLEAN(2),
+        STRING(4), JSON(4);
+
+        final int width;
+
+        Type(int width) {
+            this.width = width;
+        }
+
+        static Type of(Class<?> c) {
+            if (int.class == c) return INT;
+            if (long.class == c) return LONG;
+            if (double.class == c) return DOUBLE;
+            if (boolean.class == c) return BOOLEAN;
+            if (Integer.class == c) return BOXED_INT;
+            if (Long.class == c) return BOXED_LONG;
+            if (Double.class == c) return BOXED_DOUBLE;
+            if (Boolean.class == c) return BOXED_BOOLEAN;
+            if (String.class == c) return STRING;
+            return JSON;
+        }
+    }
+
+    // WRITING
+
+    /** Collects tables, and then writes them all to a snapshot file */
+    public static class Writer {
+        private final List<TableData> tables = new ArrayList<>();
+        private final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        private final Map<String, Integer> offsetOfString = new HashMap<>();
+
+        private static class TableData {
+            String name, className;
+            String[] fields;
+            Type[] types;
+            int width, count;
+            ByteBuffer records;
+            int[] index; // pairs of (id, record), sorted by id
+        }
+
+        /** Add a table holding the given objects, which should all be of exactly type clazz */
+        public <T> Writer table(String name, Class<T> clazz, Collection<? extends T> objects) {
+            ClassInfo ci = ClassInfo.of(clazz);
+            List<FieldInfo> fis = new ArrayList<>();
+            for (String f : ci.getNames()) {
+                fis.add(ci.getFieldInfo(f));
+            }
+
+            TableData t = new TableData();
+            t.name = name;
+            t.className = clazz.getName();
+            t.fields = new String[fis.size()];
+            t.types = new Type[fis.size()];
+            for (int i = 0; i < t.fields.length; i++) {
+                t.fields[i] = fis.get(i).getName();
+                t.types[i] = Type.of(fis.get(i).getType());
+                t.width += t.types[i].width;
+            }
+            t.count = objects.size();
+            t.records = ByteBuffer.allocate(t.width * t.count);
+
+            FieldInfo id = ci.getFieldInfo("id");
+            boolean indexed = null != id && (Type.INT == Type.of(id.getType()) || Type.BOXED_INT == Type.of(id.getType()));
+            List<long[]> ids = new ArrayList<>();
+
+            int row = 0;
+            for (T o : objects) {
+                for (int i = 0; i < t.fields.length; i++) {
+                    put(t.records, t.types[i], fis.get(i).getValue(o));
+                }
+                if (indexed) {
+                    Object v = id.getValue(o);
+                    if (null != v && !Data.isNull(v)) ids.add(new long[]{(Integer) v, row});
+                }
+                row++;
+            }
+            if (indexed) {
+                ids.sort(Comparator.comparingLong(p -> p[0]));
+                t.index = new int[2 * ids.size()];
+                for (int i = 0; i < ids.size(); i++) {
+                    t.index[2 * i] = (int) ids.get(i)[0];
+                    t.index[2 * i + 1] = (int) ids.get(i)[1];
+                }
+            }
+            tables.add(t);
+            return this;
+        }
+
+        private void put(ByteBuffer b, Type type, Object v) {
+            boolean isNull = null != v && Data.isNull(v);
+            byte flag = null == v ? ABSENT : isNull ? JSON_NULL : PRESENT;
+            switch (type) {
+                case INT:
+                    b.putInt((Integer) v);
+                    break;
+                case LONG:
+                    b.putLong((Long) v);
+                    break;
+                case DOUBLE:
+                    b.putDouble((Double) v);
+                    break;
+                case BOOLEAN:
+                    b.put((byte) ((Boolean) v ? 1 : 0));
+                    break;
+                case BOXED_INT:
+                    b.put(flag).putInt(PRESENT == flag ? (Integer) v : 0);
+                    break;
+                case BOXED_LONG:
+                    b.put(flag).putLong(PRESENT == flag ? (Long) v : 0);
+                    break;
+                case BOXED_DOUBLE:
+                    b.put(flag).putDouble(PRESENT == flag ? (Double) v : 0);
+                    break;
+                case BOXED_BOOLEAN:
+                    b.put(flag).put((byte) (PRESENT == flag && (Boolean) v ? 1 : 0));
+                    break;
+                case STRING:
+                    b.putInt(null == v ? NO_STRING : isNull ? NULL_STRING : string((String) v));
+                    break;
+                case JSON:
+                    b.putInt(null == v ? NO_STRING : isNull ? NULL_STRING : string(toJson(v)));
+                    break;
+            }
+        }
+
+        /** @return the offset of s in the string table, adding it if it isn't there yet */
+        private int string(String s) {
+            Integer offset = offsetOfString.get(s);
+            if (null == offset) {
+                offset = strings.size();
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                strings.write(utf8.length >>> 24);
+                strings.write(utf8.length >>> 16);
+                strings.write(utf8.length >>> 8);
+                strings.write(utf8.length);
+                strings.write(utf8, 0, utf8.length);
+                offsetOfString.put(s, offset);
+            }
+            return offset;
+        }
+
+        private static String toJson(Object v) {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                JsonCodecs.content(v).writeTo(out);
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // NB: we're writing to memory
+            }
+        }
+
+        /** Write the snapshot to file, atomically replacing whatever was there */
+        public void write(Path file) throws IOException {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, "snapshot", ".tmp");
+            try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+                 DataOutputStream out = new DataOutputStream(counter)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(0); // directory and string table offsets, filled in below
+                out.writeLong(0);
+
+                long[] recordsAt = new long[tables.size()], indexAt = new long[tables.size()];
+                for (int i = 0; i < tables.size(); i++) {
+                    TableData t = tables.get(i);
+                    recordsAt[i] = counter.count;
+                    out.write(t.records.array(), 0, t.records.position());
+                    indexAt[i] = -1;
+                    if (null != t.index) {
+                        indexAt[i] = counter.count;
+                        for (int x : t.index) out.writeInt(x);
+                    }
+                }
+                final long stringsAt = counter.count;
+                strings.writeTo(out);
+
+                final long directoryAt = counter.count;
+                out.writeInt(tables.size());
+                for (int i = 0; i < tables.size(); i++) {
+                    TableData t = tables.get(i);
+                    out.writeUTF(t.name);
+                    out.writeUTF(t.className);
+                    out.writeInt(t.fields.length);
+                    for (int f = 0; f < t.fields.length; f++) {
+                        out.writeUTF(t.fields[f]);
+                        out.writeByte(t.types[f].ordinal());
+                    }
+                    out.writeInt(t.width);
+                    out.writeInt(t.count);
+                    out.writeLong(recordsAt[i]);
+                    out.writeLong(indexAt[i]);
+                }
+                out.flush();
+
+                try (RandomAccessFile raf = new RandomAccessFile(tmp.toFile(), "rw")) {
+                    raf.seek(8);
+                    raf.writeLong(directoryAt);
+                    raf.writeLong(stringsAt);
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    public static Writer writer() {
+        return new Writer();
+    }
+
+    // READING
+
+    private final ByteBuffer buf;
+    private final int stringsAt;
+    private final Map<String, Layout> tables = new LinkedHashMap<>();
+
+    /** Where a table is in the file, and how its records are laid out */
+    private static class Layout {
+        final String className;
+        final String[] fields;
+        final Type[] types;
+        final int[] offsets;
+        final int width, count, recordsAt, indexAt;
+
+        Layout(String className, String[] fields, Type[] types, int width, int count, int recordsAt, int indexAt) {
+            this.className = className;
+            this.fields = fields;
+            this.types = types;
+            this.width = width;
+            this.count = count;
+            this.recordsAt = recordsAt;
+            this.indexAt = indexAt;
+            this.offsets = new int[fields.length];
+            for (int i = 1; i < fields.length; i++) {
+                offsets[i] = offsets[i - 1] + types[i - 1].width;
+            }
+        }
+    }
+
+    private BinarySnapshot(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER_SIZE || MAGIC != buf.getInt(0)) throw new IOException("not a snapshot file");
+        if (VERSION != buf.getInt(4)) throw new IOException("unsupported snapshot version " + buf.getInt(4));
+        long directoryAt = buf.getLong(8);
+        long strings = buf.getLong(16);
+        check(HEADER_SIZE <= strings && strings <= directoryAt && directoryAt <= buf.capacity(), "header");
+        this.stringsAt = (int) strings;
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                bytes((int) directoryAt, buf.capacity() - (int) directoryAt)));
+        int tableCount = in.readInt();
+        check(tableCount >= 0, "table count");
+        for (int i = 0; i < tableCount; i++) {
+            String name = in.readUTF();
+            String className = in.readUTF();
+            int fieldCount = in.readInt();
+            check(0 <= fieldCount && fieldCount <= in.available(), "field count of " + name);
+            String[] fields = new String[fieldCount];
+            Type[] types = new Type[fields.length];
+            int fieldsWidth = 0;
+            for (int f = 0; f < fields.length; f++) {
+                fields[f] = in.readUTF();
+                int type = in.readByte();
+                check(0 <= type && type < Type.values().length, "type of " + name + "." + fields[f]);
+                types[f] = Type.values()[type];
+                fieldsWidth += types[f].width;
+            }
+            int width = in.readInt();
+            int count = in.readInt();
+            long recordsAt = in.readLong();
+            long indexAt = in.readLong();
+            // NB: records are decoded lazily, so make sure now that they're all in the file
+            check(width == fieldsWidth && count >= 0, "layout of " + name);
+            check(HEADER_SIZE <= recordsAt && recordsAt + (long) width * count <= stringsAt, "records of " + name);
+            check(-1 == indexAt || (HEADER_SIZE <= indexAt && indexAt + 8L * count <= stringsAt), "index of " + name);
+            tables.put(name, new Layout(className, fields, types, width, count, (int) recordsAt, (int) indexAt));
+        }
+    }
+
+    private static void check(boolean ok, String what) throws IOException {
+        if (!ok) throw new IOException("corrupt snapshot " + what);
+    }
+
+    /**
+     * Map a snapshot file into memory
+     * @throws IOException if the file is missing, or isn't a snapshot we can read
+     */
+    public static BinarySnapshot open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            // NB: the mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return new BinarySnapshot(mapped);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("corrupt snapshot " + file, e);
+        }
+    }
+
+    /** @return the names of this snapshot's tables, in the order they were written */
+    public Set<String> tables() {
+        return Collections.unmodifiableSet(tables.keySet());
+    }
+
+    /**
+     * @return the table with the given name, whose records materialize as instances of clazz, or an empty table if
+     * there isn't one
+     */
+    public <T> Table<T> table(String name, Class<T> clazz) {
+        Layout l = tables.get(name);
+        if (null == l) {
+            l = new Layout(clazz.getName(), new String[0], new Type[0], 0, 0, 0, -1);
+        }
+        return new Table<>(this, l, clazz);
+    }
+
+    /** @throws IndexOutOfBoundsException if they aren't all in the file, e.g., because a string's length is corrupt */
+    private byte[] bytes(int offset, int length) {
+        if (offset < 0 || length < 0 || (long) offset + length > buf.capacity()) {
+            throw new IndexOutOfBoundsException("corrupt snapshot: " + length + " bytes at " + offset);
+        }
+        byte[] b = new byte[length];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(offset);
+        dup.get(b);
+        return b;
+    }
+
+    /** @return the string at the given string table reference */
+    private String string(int ref) {
+        if (NO_STRING == ref) return null;
+        if (NULL_STRING == ref) return Data.NULL_STRING;
+        int at = stringsAt + ref;
+        return new String(bytes(at + 4, buf.getInt(at)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One table of a snapshot: a read-only List whose elements are materialized on each get(). To read just a few
+     * fields of many records, find their columns with column() and use intAt(), stringAt(), etc. instead.
+     */
+    public static final class Table<T> extends AbstractList<T> implements RandomAccess {
+        private final BinarySnapshot s;
+        private final Layout l;
+        private final Class<T> clazz;
+        /** for each column, the field of clazz it's materialized into, or null if clazz doesn't have it */
+        private final FieldInfo[] targets;
+
+        private Table(BinarySnapshot s, Layout l, Class<T> clazz) {
+            this.s = s;
+            this.l = l;
+            this.clazz = clazz;
+            ClassInfo ci = ClassInfo.of(clazz);
+            targets = new FieldInfo[l.fields.length];
+            for (int c = 0; c < l.fields.length; c++) {
+                FieldInfo fi = ci.getFieldInfo(l.fields[c]);
+                // NB: skip fields whose type changed since the snapshot was written
+                targets[c] = null != fi && Type.of(fi.getType()) == l.types[c] ? fi : null;
+            }
+        }
+
+        /** @return the name of the class that was written to this table */
+        public String className() {
+            return l.className;
+        }
+
+        @Override
+        public int size() {
+            return l.count;
+        }
+
+        /** @return the object in the given record, decoded from the snapshot (so each call returns a new object) */
+        @Override
+        public T get(int row) {
+            if (row < 0 || row >= l.count) throw new IndexOutOfBoundsException("record " + row + " of " + l.count);
+            try {
+                T o = clazz.getDeclaredConstructor().newInstance();
+                for (int c = 0; c < l.fields.length; c++) {
+                    if (null != targets[c]) {
+                        Object v = value(row, c, targets[c]);
+                        if (null != v) targets[c].setValue(o, v);
+                    }
+                }
+                return o;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("can't materialize " + clazz.getName(), e);
+            } catch (IOException e) {
+                throw new UncheckedIOException("corrupt snapshot field in " + clazz.getName(), e);
+            }
+        }
+
+        /** @return the record with the given id, or -1 if there isn't one (or this table has no index) */
+        public int rowOf(int id) {
+            if (l.indexAt < 0) return -1;
+            int lo = 0, hi = l.count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int midId = s.buf.getInt(l.indexAt + 8 * mid);
+                if (midId < id) lo = mid + 1;
+                else if (midId > id) hi = mid - 1;
+                else return s.buf.getInt(l.indexAt + 8 * mid + 4);
+            }
+            return -1;
+        }
+
+        /** @return the object with the given id, or null if there isn't one */
+        public T byId(int id) {
+            int row = rowOf(id);
+            return row < 0 ? null : get(row);
+        }
+
+        /** @return the column holding the given @Key field, or -1 if the snapshot doesn't have it */
+        public int column(String field) {
+            for (int c = 0; c < l.fields.length; c++) {
+                if (l.fields[c].equals(field)) return c;
+            }
+            return -1;
+        }
+
+        private int at(int row, int column) {
+            return l.recordsAt + row * l.width + l.offsets[column];
+        }
+
+        /** @return an int (or non-null Integer) field */
+        public int intAt(int row, int column) {
+            int at = at(row, column);
+            return Type.INT == l.types[column] ? s.buf.getInt(at) : s.buf.getInt(at + 1);
+        }
+
+        /** @return a double (or non-null Double) field */
+        public double doubleAt(int row, int column) {
+            int at = at(row, column);
+            return Type.DOUBLE == l.types[column] ? s.buf.getDouble(at) : s.buf.getDouble(at + 1);
+        }
+
+        /** @return a long (or non-null Long) field */
+        public long longAt(int row, int column) {
+            int at = at(row, column);
+            return Type.LONG == l.types[column] ? s.buf.getLong(at) : s.buf.getLong(at + 1);
+        }
+
+        /** @return a boolean (or non-null Boolean) field */
+        public boolean booleanAt(int row, int column) {
+            int at = at(row, column);
+            return 0 != (Type.BOOLEAN == l.types[column] ? s.buf.get(at) : s.buf.get(at + 1));
+        }
+
+        /** @return whether a boxed or String field has a (non-null) value */
+        public boolean isPresent(int row, int column) {
+            int at = at(row, column);
+            switch (l.types[column]) {
+                case STRING:
+                case JSON:
+                    return s.buf.getInt(at) >= 0;
+                case BOXED_INT:
+                case BOXED_LONG:
+                case BOXED_DOUBLE:
+                case BOXED_BOOLEAN:
+                    return PRESENT == s.buf.get(at);
+                default:
+                    return true;
+            }
+        }
+
+        /** @return a String field, or the JSON of any other non-primitive field */
+        public String stringAt(int row, int column) {
+            return s.string(s.buf.getInt(at(row, column)));
+        }
+
+        /** @return whether a String field equals value, without decoding the field */
+        public boolean stringEquals(int row, int column, String value) {
+            int ref = s.buf.getInt(at(row, column));
+            if (ref < 0) return null == value;
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            int at = s.stringsAt + ref;
+            if (s.buf.getInt(at) != utf8.length) return false;
+            for (int i = 0; i < utf8.length; i++) {
+                if (s.buf.get(at + 4 + i) != utf8[i]) return false;
+            }
+            return true;
+        }
+
+        private Object value(int row, int column, FieldInfo target) throws IOException {
+            int at = at(row, column);
+            byte flag = s.buf.get(at);
+            switch (l.types[column]) {
+                case INT:
+                    return s.buf.getInt(at);
+                case LONG:
+                    return s.buf.getLong(at);
+                case DOUBLE:
+                    return s.buf.getDouble(at);
+                case BOOLEAN:
+                    return 0 != flag;
+                case BOXED_INT:
+                    return ABSENT == flag ? null : JSON_NULL == flag ? Data.NULL_INTEGER : (Integer) s.buf.getInt(at + 1);
+                case BOXED_LONG:
+                    return ABSENT == flag ? null : JSON_NULL == flag ? Data.NULL_LONG : (Long) s.buf.getLong(at + 1);
+                case BOXED_DOUBLE:
+                    return ABSENT == flag ? null : JSON_NULL == flag ? Data.NULL_DOUBLE : (Double) s.buf.getDouble(at + 1);
+                case BOXED_BOOLEAN:
+                    return ABSENT == flag ? null : JSON_NULL == flag ? Data.NULL_BOOLEAN : (Boolean) (0 != s.buf.get(at + 1));
+                case STRING:
+                    return s.string(s.buf.getInt(at));
+                case JSON:
+                    int ref = s.buf.getInt(at);
+                    if (NO_STRING == ref) return null;
+                    if (NULL_STRING == ref) return Data.nullOf(target.getType());
+                    return JsonCodecs.parse(s.string(ref), target.getType());
+                default:
+                    throw new AssertionError(l.types[column]);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package canvas;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for tasks that spend nearly all their time blocked, e.g., on Canvas, ssh or mail. On Java 21+, they run
+ * each task on its own virtual thread, so thousands of blocked tasks cost kilobytes of stack instead of megabytes.
+ * Elsewhere they fall back to a bounded pool of platform threads.
+ *
+ * Modes, chosen with -Dcanvas.threads:
+ *  - "virtual": virtual threads if we have them (the default). Only available when built and run on Java 21+, see
+ *    the jdk21 profile in canvasutils-pom.xml
+ *  - "platform": always use a pool of platform threads
+ *
+ * NB: a virtual thread that blocks inside a synchronized block (or in Object.wait()) holds on to its carrier thread,
+ * so code that tasks block in should wait with java.util.concurrent locks instead, e.g., RequestScheduler
+ */
+public class BlockingExecutors {
+
+    private static final boolean VIRTUAL = !"platform".equals(System.getProperty("canvas.threads", "virtual"));
+
+    /**
+     * An executor that runs as many tasks at once as it's given. NB: with virtual threads, nothing limits the number
+     * of tasks in flight, so whatever they block on had better, e.g., RequestScheduler limits requests to Canvas.
+     * @param name prefix for the names of its threads
+     * @param maxThreads size of the platform thread pool, when we fall back to one
+     */
+    public static ExecutorService unbounded(String name, int maxThreads) {
+        ExecutorService virtual = virtual(name, Integer.MAX_VALUE);
+        return null != virtual ? virtual : platform(name, maxThreads);
+    }
+
+    /**
+     * An executor that runs at most maxConcurrency tasks at once, e.g., to limit how many pages of a list we ask
+     * Canvas for at once. NB: with virtual threads, waiting tasks still get their own (parked) thread.
+     */
+    public static ExecutorService bounded(String name, int maxConcurrency) {
+        ExecutorService virtual = virtual(name, maxConcurrency);
+        return null != virtual ? virtual : platform(name, maxConcurrency);
+    }
+
+    /** @return whether executors from here use virtual threads */
+    public static boolean usesVirtualThreads() {
+        return VIRTUAL && null != virtual("canvas-probe", 1);
+    }
+
+    /** @return an executor that runs tasks on virtual threads, or null if we don't have them */
+    private static ExecutorService virtual(String name, int maxConcurrency) {
+        if (!VIRTUAL) return null;
+        try {
+            // NB: VirtualThreadExecutor is only compiled on Java 21+, see the jdk21 profile in canvasutils-pom.xml
+            return (ExecutorService) Class.forName("canvas.VirtualThreadExecutor")
+                    .getConstructor(String.class, int.class).newInstance(name, maxConcurrency);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService platform(String name, int maxThreads) {
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(maxThreads, r -> {
+            Thread t = new Thread(r, name + "-" + n.getAndIncrement());
+            t.setDaemon(true); // don't keep scripts alive once main() returns
+            return t;
+        });
+    }
+}
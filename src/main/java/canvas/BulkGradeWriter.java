@@ -0,0 +1,173 @@
+package canvas;
+
+import canvas.apiobjects.Progress;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.UrlEncodedContent;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sets grades (and adds comments) for many students on one assignment, using a handful of
+ * submissions/update_grades requests instead of one request per student. See
+ * https://canvas.instructure.com/doc/api/submissions.html#method.submissions_api.bulk_update
+ *
+ * Grades are collected into batches of at most MAX_STUDENTS_PER_BATCH students and about MAX_BATCH_BYTES of form
+ * data; a batch is sent as soon as it's full, and Canvas applies it in the background. finish() sends the last
+ * batch and waits for all of them. When a batch fails, e.g., because one of its student ids is bad, we send its
+ * halves separately until we know which students failed, so that one bad id doesn't lose everyone's grades.
+ *
+ * NB: re-sending grades is harmless, but re-sending a batch with comments can post a comment twice, so batches
+ * with comments are never sent again: not after transient failures (see RetryPolicy), and not split up when they
+ * fail, as Canvas may have applied part of the batch before failing. All of their students are reported as failed.
+ */
+public class BulkGradeWriter {
+
+    static final int MAX_STUDENTS_PER_BATCH = 100;
+    static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    private final CanvasClient client;
+    private final GenericUrl url;
+    /** student id => (field => value), for the batch we're filling */
+    private Map<String, Map<String, String>> pending = new LinkedHashMap<>();
+    private int pendingBytes = 0;
+    private final List<Batch> sent = new ArrayList<>();
+
+    private static class Batch {
+        final Map<String, Map<String, String>> students;
+        /** the job Canvas started for this batch, or null if we couldn't send it */
+        final CompletableFuture<Progress> done;
+        final IOException sendFailure;
+
+        Batch(Map<String, Map<String, String>> students, CompletableFuture<Progress> done, IOException sendFailure) {
+            this.students = students;
+            this.done = done;
+            this.sendFailure = sendFailure;
+        }
+    }
+
+    /** Write grades for the given assignment, in the current course, with Common's token */
+    public BulkGradeWriter(String assignmentId) {
+        this(Common.client(), assignmentId);
+    }
+
+    public BulkGradeWriter(CanvasClient client, String assignmentId) {
+        this.client = client;
+        this.url = new GenericUrl(client.courseUrl() + "assignments/" + assignmentId + "/submissions/update_grades");
+    }
+
+    /**
+     * Set a student's grade
+     * @param studentId a Canvas user id, or any other id the API accepts, like sis_user_id:12345
+     * @param postedGrade the grade, in any format Canvas accepts for posted_grade, e.g., "9.5", "A-" or "85%"
+     */
+    public BulkGradeWriter grade(String studentId, String postedGrade) throws IOException {
+        return put(studentId, "posted_grade", postedGrade);
+    }
+
+    public BulkGradeWriter grade(String studentId, double score) throws IOException {
+        return grade(studentId, String.valueOf(score));
+    }
+
+    /** Add a text comment to a student's submission */
+    public BulkGradeWriter comment(String studentId, String text) throws IOException {
+        return put(studentId, "text_comment", text);
+    }
+
+    private BulkGradeWriter put(String studentId, String field, String value) throws IOException {
+        int bytes = studentId.length() + field.length() + value.length() + 16; // "grade_data[...][...]=...&"
+        if (!pending.containsKey(studentId)
+                && (pending.size() >= MAX_STUDENTS_PER_BATCH || pendingBytes + bytes > MAX_BATCH_BYTES)) {
+            flush();
+        }
+        pending.computeIfAbsent(studentId, k -> new LinkedHashMap<>()).put(field, value);
+        pendingBytes += bytes;
+        return this;
+    }
+
+    /** Send the grades collected so far, without waiting for Canvas to apply them */
+    public void flush() throws IOException {
+        if (pending.isEmpty()) return;
+        Map<String, Map<String, String>> students = pending;
+        pending = new LinkedHashMap<>();
+        pendingBytes = 0;
+        sent.add(send(students));
+    }
+
+    /**
+     * Send any remaining grades, and wait until Canvas has applied all of them.
+     * @return student id => why we couldn't update that student, for each student that failed
+     */
+    public Map<String, String> finish() throws IOException {
+        flush();
+        Map<String, String> failures = new TreeMap<>();
+        for (Batch b : sent) {
+            await(b, failures);
+        }
+        sent.clear();
+        return failures;
+    }
+
+    private void await(Batch b, Map<String, String> failures) throws IOException {
+        if (null != b.sendFailure) {
+            // nothing to do with any particular student, e.g., a bad assignment id or token
+            for (String id : b.students.keySet()) {
+                failures.put(id, b.sendFailure.getMessage());
+            }
+            return;
+        }
+        try {
+            Common.await(b.done);
+        } catch (IOException e) {
+            if (1 == b.students.size() || hasComments(b.students)) {
+                for (String id : b.students.keySet()) {
+                    failures.put(id, e.getMessage());
+                }
+                return;
+            }
+            // find out which students are to blame
+            Map<String, Map<String, String>> left = new LinkedHashMap<>(), right = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, String>> s : b.students.entrySet()) {
+                (left.size() < b.students.size() / 2 ? left : right).put(s.getKey(), s.getValue());
+            }
+            await(send(left), failures);
+            await(send(right), failures);
+        }
+    }
+
+    /**
+     * POST a batch, and start tracking the Progress that Canvas returns. Throws if we couldn't reach Canvas at all,
+     * since then the other batches won't go through either.
+     */
+    private Batch send(Map<String, Map<String, String>> students) throws IOException {
+        Map<String, String> form = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, String>> s : students.entrySet()) {
+            for (Map.Entry<String, String> f : s.getValue().entrySet()) {
+                form.put("grade_data[" + s.getKey() + "][" + f.getKey() + "]", f.getValue());
+            }
+        }
+        final boolean comments = hasComments(students);
+
+        HttpRequest request = Common.requestFactory.buildPostRequest(url, new UrlEncodedContent(form));
+        request.getHeaders().setAuthorization(client.token());
+        Progress progress;
+        try {
+            progress = (comments ? Common.execute(request) : Common.executeIdempotent(request))
+                    .parseAs(Progress.class);
+        } catch (HttpResponseException e) { // a bad batch shouldn't stop the others
+            return new Batch(students, null, e);
+        }
+        return new Batch(students, client.trackProgress(progress), null);
+    }
+
+    /** @return whether sending these students' grades again could post a comment twice */
+    private static boolean hasComments(Map<String, Map<String, String>> students) {
+        for (Map<String, String> fields : students.values()) {
+            if (fields.containsKey("text_comment")) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,45 @@
+package canvas;
+
+import com.google.api.client.http.AbstractHttpContent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/** A request body from a ByteBuffer, which (unlike an InputStream) can be sent again if the request is retried */
+class ByteBufferContent extends AbstractHttpContent {
+
+    private final ByteBuffer data;
+
+    /** NB: sends data from its current position to its limit, without changing either */
+    ByteBufferContent(String type, ByteBuffer data) {
+        super(type);
+        this.data = data.duplicate();
+    }
+
+    @Override
+    public long getLength() {
+        return data.remaining();
+    }
+
+    @Override
+    public boolean retrySupported() {
+        return true;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer b = data.duplicate();
+        if (b.hasArray()) {
+            out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+        } else {
+            WritableByteChannel ch = Channels.newChannel(out);
+            while (b.hasRemaining()) {
+                ch.write(b);
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,638 @@
+package canvas;
+
+import canvas.apiobjects.CanvasFile;
+import canvas.apiobjects.Progress;
+import canvas.apiobjects.StatusResponse;
+import canvas.apiobjects.UploadHandlePOST;
+import canvas.json.JsonCodecs;
+import com.google.api.client.http.*;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Talks to one Canvas course, as one user. A CanvasClient is immutable, so several of them (e.g., one per course,
+ * or one per test student) can be used from different threads at once. They all share Common's HTTP transport,
+ * and the requests made with each token are paced by that token's RequestScheduler bucket.
+ *
+ * Common's static methods use Common.client(), which is built from Common.TOKEN and the current course.
+ */
+public final class CanvasClient {
+
+    private static final Pattern nextLinkPattern = Pattern.compile("<([^><]*)>; rel=\"next\"");
+    private static final Pattern lastLinkPattern = Pattern.compile("<([^><]*)>; rel=\"last\"");
+
+    private final String baseUrl;
+    private final String courseId;
+    private final String token;
+
+    /**
+     * @param baseUrl the API's base URL, e.g., https://upenn.instructure.com/api/v1/
+     * @param courseId the Canvas course id, e.g., "1493255"
+     * @param token the Authorization header to send, i.e., "Bearer " followed by an API key
+     */
+    public CanvasClient(String baseUrl, String courseId, String token) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.courseId = Objects.requireNonNull(courseId);
+        this.token = token;
+    }
+
+    /** @return a client for the same site and user, but a different course */
+    public CanvasClient withCourse(String courseId) {
+        return new CanvasClient(baseUrl, courseId, token);
+    }
+
+    /** @return a client for the same site and course, but a different user */
+    public CanvasClient withToken(String token) {
+        return new CanvasClient(baseUrl, courseId, token);
+    }
+
+    public String baseUrl() {
+        return baseUrl;
+    }
+
+    public String courseId() {
+        return courseId;
+    }
+
+    public String token() {
+        return token;
+    }
+
+    /** @return the URL for API calls, of the form BASE/courses/{course-id}/ - note this *includes* a trailing slash */
+    public String courseUrl() {
+        return baseUrl + "courses/" + courseId + "/";
+    }
+
+    /** NB: leaves out the token, so that it's safe to log */
+    @Override
+    public String toString() {
+        return "CanvasClient{ " + courseUrl() + " }";
+    }
+
+    /**
+     * Creates a GET request and sends it to Canvas, returning the response.
+     * @param url the url to request
+     * @return the HTTP response from Canvas
+     */
+    public HttpResponse get(GenericUrl url) throws IOException {
+        url.put("per_page", 300);
+        HttpRequest request = Common.requestFactory.buildGetRequest(url);
+        request.getHeaders().setAuthorization(token);
+        HttpResponse response = Common.execute(request);
+        //assert !response.getHeaders().get("link").toString().contains("next") :
+        //        "Request returned only partial data: " + response.getHeaders().get("link").toString();
+        assert null == response.getHeaders().get("link") :
+                "Request returned only partial data: " + response.getHeaders().get("link").toString();
+        return response;
+    }
+
+    /**
+     * Creates a GET request with a prefix of BASE/courses/{course-id}, so the caller need only
+     * supply the URL suffix. This is a simple wrapper of get(GenericUrl url).
+     */
+    public HttpResponse get(String urlSuffix) throws IOException {
+        return get(new GenericUrl(courseUrl() + urlSuffix));
+    }
+
+    /**
+     * Creates a GET request with a prefix of BASE/courses/{course-id}, so the caller need only
+     * supply the URL suffix. The response is parsed into an instance of the specified Java class.
+     * Note that for requests that return a list, use getAsList() instead.
+     * @param <T> a Class object for the type to parse the response into
+     * @return an instance of type clazz
+     */
+    public <T> T getAs(String urlSuffix, Class<T> clazz) throws IOException {
+        return getAs(new GenericUrl(courseUrl() + urlSuffix), clazz);
+    }
+
+    /**
+     * Like get(), but the response is parsed into an instance of the specified Java class. Responses are
+     * kept in the DiskCache, and revalidated with a conditional GET so that we don't download (or parse) an
+     * unchanged resource twice.
+     */
+    public <T> T getAs(GenericUrl url, Class<T> clazz) throws IOException {
+        url.put("per_page", 300);
+        DiskCache.Entry cached = DiskCache.lookup(url, token);
+
+        HttpRequest request = Common.requestFactory.buildGetRequest(url);
+        request.getHeaders().setAuthorization(token);
+        if (null != cached) {
+            request.getHeaders().setIfNoneMatch(cached.etag);
+            request.getHeaders().setIfModifiedSince(cached.lastModified);
+            request.setThrowExceptionOnExecuteError(false);
+        }
+        HttpResponse response = Common.execute(request);
+        if (null != cached && 304 == response.getStatusCode()) { // Not Modified
+            response.ignore();
+            return JsonCodecs.parse(cached.body, clazz);
+        }
+        if (!response.isSuccessStatusCode()) {
+            throw new HttpResponseException(response);
+        }
+        assert null == response.getHeaders().get("link") :
+                "Request returned only partial data: " + response.getHeaders().get("link").toString();
+
+        byte[] body = IOUtils.toByteArray(response.getContent());
+        DiskCache.store(url, token, response.getHeaders().getETag(), response.getHeaders().getLastModified(), body);
+        return JsonCodecs.parse(body, clazz);
+    }
+
+    /**
+     * Creates a GET request with a prefix of BASE/courses/{course-id}, so the caller need only
+     * supply the URL suffix. The response is parsed into a list of the specified Java class.
+     * Note that for requests that return a single element, use getAs() instead.
+     * @param <S> the return type
+     * @param <T> an array Class object for S[]
+     * @return a List
+     */
+    public <S, T> List<S> getAsList(String urlSuffix, Class<T> arrayClass) throws IOException {
+        return getAsList(new GenericUrl(courseUrl() + urlSuffix), arrayClass);
+    }
+
+    // NB: per https://stackoverflow.com/questions/18581002/how-to-create-a-generic-array, could make this slightly
+    // cleaner with just <T> and Class<T> clazz, and we create the array ourselves via Array.newInstance (and then
+    // extract it's class...). But we still need to pass in the class parameter.
+    public <S, T> List<S> getAsList(final GenericUrl url, Class<T> arrayClass) throws IOException {
+        ArrayList<S> list = new ArrayList<>();
+        final RequestScheduler.Priority priority = RequestScheduler.getPriority();
+
+        // make a copy of url so we don't screw up the caller's copy
+        GenericUrl myurl = new GenericUrl(url.toURL());
+        myurl.put("per_page", 100);
+
+        // pages we've asked for but not yet parsed
+        List<CompletableFuture<HttpResponse>> pending = new ArrayList<>();
+        try {
+            HttpResponse response = fetchPage(myurl, priority);
+            while (true) {
+                String linkHeader = response.getHeaders().getFirstHeaderStringValue("link");
+                String nextLink = linkOfRel(nextLinkPattern, linkHeader);
+                if (null == nextLink) { // no more pages
+                    list.addAll(Arrays.asList((S[]) response.parseAs(arrayClass)));
+                    return list;
+                }
+
+                // With numbered pages, Canvas tells us up front how many pages there are, so grab them all at once.
+                Integer nextPage = pageNumber(nextLink);
+                String lastLink = linkOfRel(lastLinkPattern, linkHeader);
+                Integer lastPage = null == lastLink ? null : pageNumber(lastLink);
+                if (null != nextPage && null != lastPage && lastPage >= nextPage) {
+                    for (int p = nextPage; p <= lastPage; p++) {
+                        final GenericUrl pageUrl = new GenericUrl(lastLink);
+                        pageUrl.set("page", p);
+                        pending.add(fetchPageAsync(pageUrl, priority));
+                    }
+                    list.addAll(Arrays.asList((S[]) response.parseAs(arrayClass)));
+                    for (int i = 0; i < pending.size() - 1; i++) {
+                        list.addAll(Arrays.asList((S[]) awaitPage(pending.get(i)).parseAs(arrayClass)));
+                    }
+                    // the roster may have grown since we read the first page, so keep following the last page's links
+                    response = awaitPage(pending.get(pending.size() - 1));
+                    pending.clear();
+                    continue;
+                }
+
+                // Otherwise we only have an opaque bookmark, so start on the next page before parsing this one.
+                CompletableFuture<HttpResponse> next = fetchPageAsync(new GenericUrl(nextLink), priority);
+                pending.add(next);
+                //System.out.println(nextLink);
+                list.addAll(Arrays.asList((S[]) response.parseAs(arrayClass)));
+                response = awaitPage(next);
+                pending.clear();
+            }
+        } finally {
+            // NB: if we gave up partway, each unparsed page would otherwise hold on to its pooled connection for good
+            pending.forEach(CanvasClient::abandonPage);
+        }
+    }
+
+    /**
+     * Like getAsList(), but returns the elements lazily, one page at a time. Only the current page and the
+     * next one (which is fetched in the background while the caller works on the current page) are held in memory.
+     * NB: close the stream (e.g., with try-with-resources) if you might stop before its end, e.g., with limit(),
+     * findFirst() or an exception. Otherwise the page fetched ahead keeps its pooled connection for good.
+     * @param <S> the element type
+     * @param <T> an array Class object for S[]
+     * @return a sequential Stream of the elements, in the order Canvas returns them
+     */
+    public <S, T> Stream<S> streamAsList(String urlSuffix, Class<T> arrayClass) {
+        return streamAsList(new GenericUrl(courseUrl() + urlSuffix), arrayClass);
+    }
+
+    public <S, T> Stream<S> streamAsList(final GenericUrl url, Class<T> arrayClass) {
+        return this.<S, T>streamAsList(url, arrayClass, elements -> (S[]) elements);
+    }
+
+    /**
+     * Streams a paginated list whose pages are wrapped in an outer object, e.g., QuizSubmissionsWrapper.
+     * @param wrapperClass the class of each page's response
+     * @param unwrap extracts the elements from a page's wrapper object
+     */
+    public <S, W> Stream<S> streamAsList(final GenericUrl url, Class<W> wrapperClass, Function<W, S[]> unwrap) {
+        // make a copy of url so we don't screw up the caller's copy
+        GenericUrl myurl = new GenericUrl(url.toURL());
+        myurl.put("per_page", 100);
+
+        PageIterator<S, W> pages = new PageIterator<>(myurl, RequestScheduler.getPriority(), wrapperClass, unwrap);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(pages::close);
+    }
+
+    /** Walks the elements of a paginated list, keeping at most one page request in flight ahead of the caller. */
+    private class PageIterator<S, W> implements Iterator<S> {
+        private final RequestScheduler.Priority priority;
+        private final Class<W> wrapperClass;
+        private final Function<W, S[]> unwrap;
+        private CompletableFuture<HttpResponse> nextPage;
+        private S[] page = null;
+        private int index = 0;
+
+        PageIterator(GenericUrl url, RequestScheduler.Priority priority, Class<W> wrapperClass, Function<W, S[]> unwrap) {
+            this.priority = priority;
+            this.wrapperClass = wrapperClass;
+            this.unwrap = unwrap;
+            nextPage = fetchPageAsync(url, priority);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while ((null == page || index == page.length) && null != nextPage) {
+                try {
+                    HttpResponse response = awaitPage(nextPage);
+                    nextPage = null;
+                    String nextLink = linkOfRel(nextLinkPattern, response.getHeaders().getFirstHeaderStringValue("link"));
+                    if (null != nextLink) {
+                        nextPage = fetchPageAsync(new GenericUrl(nextLink), priority);
+                    }
+                    page = unwrap.apply(response.parseAs(wrapperClass));
+                    index = 0;
+                } catch (IOException e) {
+                    close();
+                    throw new UncheckedIOException(e);
+                } catch (RuntimeException e) {
+                    close();
+                    throw e;
+                }
+            }
+            return null != page && index < page.length;
+        }
+
+        @Override
+        public S next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            S s = page[index];
+            page[index++] = null; // let the page get collected as we walk it
+            return s;
+        }
+
+        /** Stop fetching pages, giving up on the one we fetched ahead */
+        void close() {
+            if (null != nextPage) {
+                abandonPage(nextPage);
+                nextPage = null;
+            }
+            page = null;
+        }
+    }
+
+    /** Issue a GET for a single page of a paginated list */
+    private HttpResponse fetchPage(GenericUrl url, RequestScheduler.Priority priority) throws IOException {
+        HttpRequest request = Common.requestFactory.buildGetRequest(url);
+        request.getHeaders().setAuthorization(token);
+        // DEBUG
+        //System.out.format("GET %s%n", url.toString());
+        return RequestScheduler.execute(request, priority, false);
+    }
+
+    /**
+     * Fetch a page on Common.pageFetcher. NB: pass the result to abandonPage() if you won't read it, so it gives its
+     * connection back to the pool.
+     */
+    private CompletableFuture<HttpResponse> fetchPageAsync(GenericUrl url, RequestScheduler.Priority priority) {
+        CompletableFuture<HttpResponse> page = new CompletableFuture<>();
+        Common.pageFetcher.execute(() -> {
+            if (page.isDone()) return; // abandoned before we got to it
+            try {
+                HttpResponse response = fetchPage(url, priority);
+                if (!page.complete(response)) {
+                    response.disconnect(); // abandoned while we were fetching it
+                }
+            } catch (Throwable t) {
+                page.completeExceptionally(t);
+            }
+        });
+        return page;
+    }
+
+    /** Give up on a page from fetchPageAsync(): cancel it if it hasn't arrived yet, otherwise disconnect it */
+    private static void abandonPage(CompletableFuture<HttpResponse> page) {
+        if (page.cancel(false) || page.isCompletedExceptionally()) return;
+        try {
+            page.join().disconnect();
+        } catch (IOException e) {
+            // we didn't want it anyway
+        }
+    }
+
+    private static HttpResponse awaitPage(Future<HttpResponse> page) throws IOException {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while fetching page");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** @return the URL for the given rel from a Link header, or null if there is no such link */
+    private static String linkOfRel(Pattern relPattern, String linkHeader) {
+        if (null == linkHeader) return null;
+        Matcher m = relPattern.matcher(linkHeader);
+        return m.find() ? m.group(1) : null;
+    }
+
+    /** @return the numeric page parameter of a pagination link, or null for bookmark-style links */
+    private static Integer pageNumber(String link) {
+        Object page = new GenericUrl(link).getFirst("page");
+        if (null == page) return null;
+        try {
+            return Integer.valueOf(page.toString());
+        } catch (NumberFormatException e) { // e.g., "bookmark:WzEyM10"
+            return null;
+        }
+    }
+
+    /**
+     * make a POST request, sending the specified object encoded as JSON
+     * @param url the URL to POST to
+     * @param j the object to be encoded as JSON (see JsonCodecs)
+     * @param wrapperKey create an outer object with "wrapperKey" mapping to the j object (null for no wrapper key)
+     * @return the HttpResponse from the request. NB: parse it or ignore() it, or it keeps its pooled connection
+     */
+    public HttpResponse postJSON(final GenericUrl url, Object j, String wrapperKey) throws IOException {
+        HttpContent content = JsonCodecs.content(j, wrapperKey);
+        DiskCache.invalidate(url);
+        HttpRequest request = Common.requestFactory.buildPostRequest(url, content);
+        request.getHeaders().setAuthorization(token);
+        return Common.execute(request);
+    }
+
+    public HttpResponse putJSON(final GenericUrl url, Object j, String wrapperKey) throws IOException {
+        HttpContent content = JsonCodecs.content(j, wrapperKey);
+        DiskCache.invalidate(url);
+        HttpRequest request = Common.requestFactory.buildPutRequest(url, content);
+        request.getHeaders().setAuthorization(token);
+        return Common.execute(request);
+    }
+
+    /**
+     * Follows the "Uploading via POST" sequence from
+     * https://canvas.instructure.com/doc/api/file.file_uploads.html#method.file_uploads.url
+     * @param url the URL to upload the file to
+     * @param f the file to upload
+     * @return the Canvas File object corresponding to the uploaded file
+     */
+    public CanvasFile uploadFile(GenericUrl url, File f) throws IOException, InterruptedException {
+        assert f.isFile() && f.canRead();
+        // NB: Canvas guesses the type from the file name, but doesn't know about Verilog
+        String contentType = f.getName().endsWith(".v") ? "text/plain" : null;
+        return upload(url, f.getName(), f.length(), contentType, new FileContent("text/plain", f));
+    }
+
+    /**
+     * Like uploadFile(), but reads the file's contents from a stream. Since we can't read the stream twice, the
+     * upload isn't retried if it fails part way.
+     * @param name the file's name on Canvas
+     * @param length the exact number of bytes that in will supply
+     * @param in the file's contents, which this closes when it's done
+     */
+    public CanvasFile uploadStream(GenericUrl url, String name, long length, InputStream in) throws IOException {
+        InputStreamContent content = new InputStreamContent("text/plain", in).setLength(length);
+        content.setRetrySupported(false);
+        return upload(url, name, length, null, content);
+    }
+
+    /**
+     * Like uploadFile(), but with the file's contents in memory
+     * @param name the file's name on Canvas
+     * @param data the file's contents, from its position to its limit (which this doesn't change)
+     */
+    public CanvasFile uploadBytes(GenericUrl url, String name, ByteBuffer data) throws IOException {
+        return upload(url, name, data.remaining(), null, new ByteBufferContent("text/plain", data));
+    }
+
+    /**
+     * Upload several files at once, e.g., to attach them all to one comment
+     * @return the Canvas File for each file, in the same order as files
+     */
+    public List<CanvasFile> uploadFiles(GenericUrl url, List<File> files) throws IOException {
+        List<CompletableFuture<CanvasFile>> uploads = new ArrayList<>();
+        for (File f : files) {
+            uploads.add(uploadFileAsync(url, f));
+        }
+        List<CanvasFile> cfiles = new ArrayList<>();
+        for (CompletableFuture<CanvasFile> u : uploads) {
+            cfiles.add(Common.await(u));
+        }
+        return cfiles;
+    }
+
+    private CanvasFile upload(GenericUrl url, String name, long size, String contentType, HttpContent fileContent)
+            throws IOException {
+        HttpResponse response;
+        HttpRequest request;
+        Map<String, String> map = new HashMap<>();
+
+        // CANVAS DOCS STEP 1: initiate upload
+        //System.err.println(url.toString());
+        map.put("name", name);
+        map.put("size", String.valueOf(size));
+        if (null != contentType) {
+            map.put("content_type", contentType);
+        }
+        //System.err.println(map);
+
+        UrlEncodedContent content = new UrlEncodedContent(map);
+        request = Common.requestFactory.buildPostRequest(url, content);
+        request.getHeaders().setAuthorization(token);
+        // NB: repeating step 1 just leaves behind an unused upload slot, so it's safe to retry
+        response = Common.executeIdempotent(request);
+        UploadHandlePOST handle = response.parseAs(UploadHandlePOST.class);
+        //System.err.println(handle.upload_params);
+
+        // CANVAS DOCS STEP 2: upload file to specified endpoint
+        MultipartContent mpc = new MultipartContent().setMediaType(
+                new HttpMediaType("multipart/form-data")
+                        .setParameter("boundary", "__END_OF_PART__"));
+        for (String param : handle.upload_params.keySet()) { // pass along required params
+            MultipartContent.Part part = new MultipartContent.Part(
+                    new ByteArrayContent(null, handle.upload_params.get(param).getBytes()));
+            part.setHeaders(new HttpHeaders().set(
+                    "Content-Disposition", String.format("form-data; name=\"%s\"", param)));
+            mpc.addPart(part);
+        }
+
+        // add file content
+        MultipartContent.Part part = new MultipartContent.Part(fileContent);
+        // NB: when Canvas File Uploads used to go to AWS S3, the `filename` and `Content-Type` info didn't need to be
+        // here in addition to earlier parts of the form. However, I noticed that curl includes them, and now, the
+        // inscloudgate.net endpoint seems to insist on their presence. Without them, we get an opaque 500 response.
+        String contDisp = String.format("form-data; name=\"file\"; filename=\"%s\" Content-Type: %s",
+                name, handle.upload_params.getOrDefault("content_type","text/plain"));
+        part.setHeaders(new HttpHeaders().set("Content-Disposition", contDisp));
+        mpc.addPart(part);
+        request = Common.requestFactory.buildPostRequest(new GenericUrl(handle.upload_url), mpc);
+        // NB: the file isn't attached to anything until the caller uses its id, so it's safe to retry step 2 too
+        // (unless fileContent can only be read once, in which case RetryPolicy won't)
+        response = Common.executeIdempotent(request);
+
+        /* How things used to work (< 3 Jan 2019)
+        The Canvas docs say that we should either get a 3xx redirect or a 201 response, and that we need to
+        do one more request to get the actual Canvas File. However, I've never seen this happen in practice. After
+        step 2, we instead get a 200 response along with JSON for the Canvas File object, and needed to sleep for
+        a second before the caller could use the file id in other requests.
+
+        As of 3 Jan 2018, file uploads behave more like the docs specify and we get a 201 response with a Location
+        header, but with the Canvas File object in the body. So we only do the GET on the Location that the docs
+        require (step 3) when the body isn't the complete File, in case things change in the future.
+        NB: a 3xx redirect is also a valid response to Step 2; I haven't seen it though.
+        */
+        if (200 == response.getStatusCode() || 201 == response.getStatusCode()) {
+            CanvasFile cfile = null;
+            try {
+                cfile = response.parseAs(CanvasFile.class);
+            } catch (IOException | IllegalArgumentException e) {
+                // not a File object, so fall back to step 3
+            }
+            if (null != cfile && cfile.id > 0 && name.equals(cfile.filename) && size == cfile.size) {
+                return cfile;
+            }
+        }
+        if (201 == response.getStatusCode()) {
+            assert null != response.getHeaders().getLocation();
+
+            // CANVAS DOCS STEP 3: confirm upload's success
+            CanvasFile cfile1 = getAs(new GenericUrl(response.getHeaders().getLocation()), CanvasFile.class);
+            assert name.equals(cfile1.filename) : cfile1.filename;
+            assert size == cfile1.size : cfile1.size;
+            // in practice, I saw the `workflow_state` as `upload_pending` for both CanvasFile objects
+
+            return cfile1;
+        }
+
+        String msg = String.format("file upload step 2, Canvas responded: %d %s", response.getStatusCode(), response.getStatusMessage());
+        throw new IllegalStateException(msg);
+    }
+
+    /**
+     * Wait (without tying up a thread) for a background job that Canvas started, e.g., for submissions/update_grades.
+     * @param progress the Progress object that Canvas returned when it started the job
+     * @return a future that completes with the final Progress once the job completes, or with an IOException if
+     * it fails. See JobTracker for how often we check on it.
+     */
+    public CompletableFuture<Progress> trackProgress(Progress progress) {
+        final String url = null != progress.url && !progress.url.isEmpty() ? progress.url
+                : baseUrl + "progress/" + progress.id;
+        return JobTracker.track("Canvas job " + progress.id, new JobTracker.Job<Progress>() {
+            private volatile double completion = -1;
+
+            @Override
+            public Progress check() throws IOException {
+                Progress p = get(new GenericUrl(url)).parseAs(Progress.class);
+                completion = null == p.completion ? -1 : p.completion;
+                switch (p.workflow_state) {
+                    case "completed":
+                        return p;
+                    case "failed":
+                        throw new IOException("Canvas job failed: " + p);
+                    default: // queued or running
+                        return null;
+                }
+            }
+
+            @Override
+            public double completion() {
+                return completion;
+            }
+        });
+    }
+
+    /**
+     * Wait (without tying up a thread) for Canvas to finish fetching a file that we asked it to upload from a URL.
+     * @param statusUrl the status_url from the upload handle
+     * @return a future that completes with the final status once the upload is ready, or with an IOException if
+     * it errored
+     */
+    public CompletableFuture<StatusResponse> trackUploadStatus(String statusUrl) {
+        return JobTracker.track("upload " + statusUrl, () -> {
+            StatusResponse status = get(new GenericUrl(statusUrl)).parseAs(StatusResponse.class);
+            switch (status.upload_status) {
+                case "ready":
+                    return status;
+                case "pending":
+                    return null;
+                case "errored":
+                    throw new IOException("upload errored: " + status.message);
+                default:
+                    throw new IOException("unexpected upload status: " + status.upload_status);
+            }
+        });
+    }
+
+    /** Async version of getAs() */
+    public <T> CompletableFuture<T> getAsAsync(String urlSuffix, Class<T> clazz) {
+        return Common.supplyAsync(() -> getAs(urlSuffix, clazz));
+    }
+
+    /** Async version of getAs() */
+    public <T> CompletableFuture<T> getAsAsync(GenericUrl url, Class<T> clazz) {
+        return Common.supplyAsync(() -> getAs(url, clazz));
+    }
+
+    /** Async version of getAsList() */
+    public <S, T> CompletableFuture<List<S>> getAsListAsync(String urlSuffix, Class<T> arrayClass) {
+        return Common.supplyAsync(() -> getAsList(urlSuffix, arrayClass));
+    }
+
+    /** Async version of getAsList() */
+    public <S, T> CompletableFuture<List<S>> getAsListAsync(GenericUrl url, Class<T> arrayClass) {
+        return Common.supplyAsync(() -> getAsList(url, arrayClass));
+    }
+
+    /** Async version of postJSON() */
+    public CompletableFuture<HttpResponse> postJSONAsync(GenericUrl url, Object j, String wrapperKey) {
+        return Common.supplyAsync(() -> postJSON(url, j, wrapperKey));
+    }
+
+    /** Async version of putJSON() */
+    public CompletableFuture<HttpResponse> putJSONAsync(GenericUrl url, Object j, String wrapperKey) {
+        return Common.supplyAsync(() -> putJSON(url, j, wrapperKey));
+    }
+
+    /** Async version of uploadFile() */
+    public CompletableFuture<CanvasFile> uploadFileAsync(GenericUrl url, File f) {
+        return Common.supplyAsync(() -> uploadFile(url, f));
+    }
+
+    /** Async version of uploadBytes() */
+    public CompletableFuture<CanvasFile> uploadBytesAsync(GenericUrl url, String name, ByteBuffer data) {
+        return Common.supplyAsync(() -> uploadBytes(url, name, data));
+    }
+}
@@ -0,0 +1,100 @@
+package canvas;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Stops sending requests to a host that keeps failing, so that when Canvas is down we fail fast instead of piling
+ * up threads that wait on timeouts and retries.
+ *
+ * After FAILURE_THRESHOLD requests in a row fail transiently (see RetryPolicy.isTransient()), the breaker opens and
+ * requests to the host fail immediately with an OpenException. Once OPEN_MILLIS have passed, a single request
+ * is let through as a probe: if it succeeds the breaker closes again, otherwise it stays open for another round.
+ *
+ * NB: we count requests, not attempts: a request that fails transiently on every one of its retries counts once, so
+ * that a single unlucky request can't open the breaker (and stop everyone's requests) all by itself.
+ */
+class CircuitBreaker {
+
+    private static final Logger LOG = Logger.getLogger(CircuitBreaker.class.getName());
+
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MILLIS = 30_000;
+
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    /** Thrown instead of sending a request to a host whose breaker is open */
+    public static class OpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        OpenException(String host, long retryInMillis) {
+            super(String.format("%s looks to be down, not sending requests to it for another %d s",
+                    host, Math.max(1, retryInMillis / 1000)));
+        }
+    }
+
+    private final String host;
+    private final LongSupplier clock;
+    private int consecutiveFailures = 0;
+    /** when the breaker may let a probe through, or 0 if the breaker is closed */
+    private long openUntil = 0;
+    private boolean probing = false;
+
+    /** @param clock the current time in ms, e.g., System::currentTimeMillis */
+    CircuitBreaker(String host, LongSupplier clock) {
+        this.host = host;
+        this.clock = clock;
+    }
+
+    static CircuitBreaker forHost(String host) {
+        return breakers.computeIfAbsent(host, h -> new CircuitBreaker(h, System::currentTimeMillis));
+    }
+
+    /**
+     * Call before sending a request, once, however many times it ends up being retried. Every call that returns
+     * normally must be followed by a call to after(), with what it returned.
+     * @return whether this request is the probe of a breaker that's been open for OPEN_MILLIS
+     */
+    synchronized boolean before() throws OpenException {
+        if (0 == openUntil) return false;
+        long now = clock.getAsLong();
+        if (now < openUntil || probing) {
+            throw new OpenException(host, openUntil - now);
+        }
+        probing = true;
+        return true;
+    }
+
+    /**
+     * Call once a request is done, retries and all.
+     * NB: while the breaker is open, only the probe's outcome counts. Requests sent before it opened may still be
+     * finishing, and they don't tell us anything the failures that opened it didn't.
+     * @param probe what before() returned for this request
+     * @param failed whether it failed transiently (i.e., its last attempt did), or null if we don't know (e.g., we
+     *               were interrupted)
+     */
+    synchronized void after(boolean probe, Boolean failed) {
+        if (probe) {
+            probing = false;
+        } else if (0 != openUntil) {
+            return;
+        }
+        if (null == failed) return; // NB: an unknown probe leaves the breaker open, and the next request probes
+
+        if (!failed) {
+            if (0 != openUntil) LOG.info("requests to " + host + " are working again");
+            consecutiveFailures = 0;
+            openUntil = 0;
+            return;
+        }
+        consecutiveFailures++;
+        if (probe || consecutiveFailures >= FAILURE_THRESHOLD) {
+            openUntil = clock.getAsLong() + OPEN_MILLIS;
+            LOG.warning(String.format("%d failed requests in a row to %s, pausing requests to it for %d s",
+                    consecutiveFailures, host, OPEN_MILLIS / 1000));
+        }
+    }
+}
@@ -2,37 +2,47 @@ package canvas;
 
 import canvas.apiobjects.*;
 import canvas.archived.TrackExtensionUsage;
+import canvas.json.JsonCodecs;
+import canvas.transport.CanvasTransport;
+import canvas.transport.JournalTransport;
 import com.google.api.client.http.*;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.http.json.JsonHttpContent;
-import com.google.api.client.json.JsonObjectParser;
-import com.google.api.client.json.gson.GsonFactory;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Common things needed for Canvas tools
  */
 public class Common {
 
-    public static final String BASE_URL = "https://upenn.instructure.com/api/v1/";
+    /** The API's base URL, see useSite() */
+    public static volatile String BASE_URL = "https://upenn.instructure.com/api/v1/";
 
-    private static String MY_COURSE_ID = "1493255"; // CIS 371 Spring 2020
+    /** The course that Common's static methods talk to, see client() */
+    private static volatile String MY_COURSE_ID = "1493255"; // CIS 371 Spring 2020
     private static final String SANDBOX_COURSE_ID = "1177025";
-    private static String COURSE_URL = BASE_URL+"courses/"+ CourseID() +"/";
     public static final String VERSION = "v1.0.0";
 
-    private static final String SANDBOX_BASE_URL = BASE_URL+"courses/"+SANDBOX_COURSE_ID+"/";
-    public static final HttpRequestFactory requestFactory = new NetHttpTransport().createRequestFactory(request -> request.setParser(new JsonObjectParser(new GsonFactory())));
+    /** HTTP backend for all requests, see CanvasTransport. Choose one with the HttpTransport property. */
+    private static CanvasTransport transport = CanvasTransport.create(System.getProperty("canvas.transport", "apache"));
+    public static HttpRequestFactory requestFactory = newRequestFactory(transport);
+    private static boolean transportConfigured = false;
+    /** Set when tools are run inside a long-lived process, see exit() */
+    private static volatile boolean resident = false;
     /**
      * API keys, read from canvas.properties. Use instructor token by default, though tests can (and do) change this.
      */
@@ -43,10 +53,22 @@ public class Common {
     public static String STUDENTC_TOKEN = null;
     public static String STUDENTD_TOKEN = null;
 
+    /** Token for requests made on behalf of a caller on another thread, see supplyAsync() */
+    private static final ThreadLocal<String> callerToken = new ThreadLocal<>();
+
+    /**
+     * Max number of async requests that run at once, unless we have virtual threads. Then RequestScheduler alone
+     * decides how many requests are in flight, see BlockingExecutors.
+     */
+    private static final int MAX_ASYNC_REQUESTS = 32;
+    private static final ExecutorService asyncExecutor = BlockingExecutors.unbounded("canvas-async", MAX_ASYNC_REQUESTS);
+
     static final String CANVAS_SID_COLUMN = "Canvas Student ID";
     static final String PENN_SID_COLUMN = "Penn Student ID";
 
-    private static final Pattern nextLinkPattern = Pattern.compile("<([^><]*)>; rel=\"next\"");
+    /** Max number of pages of a list that we request from Canvas at once */
+    private static final int MAX_PAGE_FETCHES = 4;
+    static final ExecutorService pageFetcher = BlockingExecutors.bounded("canvas-page-fetcher", MAX_PAGE_FETCHES);
 
     public static void setup() throws IOException {
         Properties prop = new Properties();
@@ -59,13 +81,205 @@ public class Common {
             STUDENTC_TOKEN = prop.getProperty("TestStudentCKey");
             STUDENTD_TOKEN = prop.getProperty("TestStudentDKey");
             TOKEN = INSTRUCTOR_TOKEN;
+            DiskCache.configure(prop);
+            CourseReplica.configure(prop);
+            ApiMetrics.configure(prop);
+            LiveEventListener.configure(prop);
+            // NB: only set up the transport once, so that tools run by a Daemon keep using its warm connections
+            if (!transportConfigured) {
+                transportConfigured = true;
+                if (null != prop.getProperty("HttpTransport")) {
+                    useTransport(CanvasTransport.create(prop.getProperty("HttpTransport")));
+                }
+                // NB: -Dcanvas.journal=... makes it easy to replay a run without editing canvas.properties
+                String journal = System.getProperty("canvas.journal", prop.getProperty("HttpJournal"));
+                if (null != journal) {
+                    String mode = System.getProperty("canvas.journal.mode", prop.getProperty("HttpJournalMode", "record"));
+                    useTransport(JournalTransport.create(mode, Paths.get(journal), transport));
+                }
+            }
+            // NB: e.g., -Dcanvas.site=http://localhost:8080/api/v1/ -Dcanvas.course=1000 to run against a simulator
+            if (null != System.getProperty("canvas.site")) {
+                useSite(System.getProperty("canvas.site"), System.getProperty("canvas.course", MY_COURSE_ID));
+            }
+        }
+    }
+
+    /** Switch all subsequent requests over to the given HTTP backend */
+    public static synchronized void useTransport(CanvasTransport t) {
+        transport = t;
+        requestFactory = newRequestFactory(t);
+    }
+
+    /** @return the HTTP backend all requests go through, e.g., to check its PoolStats */
+    public static CanvasTransport transport() {
+        return transport;
+    }
+
+    private static HttpRequestFactory newRequestFactory(CanvasTransport t) {
+        // NB: responses are parsed with the generated JSON codecs where we have them, see JsonCodecs
+        return new MeteredTransport(t).createRequestFactory(request -> request.setParser(JsonCodecs.PARSER));
+    }
+
+    /**
+     * Switch all subsequent API requests to another Canvas site and course, e.g., a local simulator for load tests
+     * @param baseUrl the API's base URL, e.g., http://localhost:8080/api/v1/
+     */
+    public static void useSite(String baseUrl, String courseId) {
+        BASE_URL = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        MY_COURSE_ID = Objects.requireNonNull(courseId);
+    }
+
+    /** Tools are being run inside a long-lived process (see canvas.daemon.Daemon), which exit() shouldn't kill */
+    public static void runResident() {
+        resident = true;
+    }
+
+    /** Thrown by exit() instead of exiting, when running resident */
+    public static class ExitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public final int status;
+
+        public ExitException(int status) {
+            super("exit " + status);
+            this.status = status;
         }
     }
 
+    /** Tools should exit via this rather than System.exit(), so that they can also be run by a Daemon */
+    public static void exit(int status) {
+        if (resident) throw new ExitException(status);
+        System.exit(status);
+    }
+
     /** Switch all API requests to use the Sandbox site */
     public static void useSandboxSite() {
         MY_COURSE_ID = SANDBOX_COURSE_ID;
-        COURSE_URL = SANDBOX_BASE_URL;
+    }
+
+    /**
+     * @return a client for the current course and token (Common.TOKEN, or the caller's token inside supplyAsync()).
+     * NB: this is a fresh client each time, so it sees later changes to TOKEN, e.g., when a test switches students.
+     */
+    public static CanvasClient client() {
+        return new CanvasClient(BASE_URL, MY_COURSE_ID, token());
+    }
+
+    /** @return the token to use for requests from this thread */
+    static String token() {
+        String t = callerToken.get();
+        return null != t ? t : TOKEN;
+    }
+
+    /** A Canvas request (or several) that we can run asynchronously */
+    @FunctionalInterface
+    public interface CanvasCall<V> {
+        V call() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Run some Canvas requests asynchronously, on a bounded pool of threads shared by all async calls. The
+     * requests use the caller's current token and RequestScheduler priority.
+     * @return a future that completes with call's result, or exceptionally (with a CompletionException
+     * wrapping the underlying exception) if call throws
+     */
+    public static <V> CompletableFuture<V> supplyAsync(CanvasCall<V> call) {
+        final String token = token();
+        final RequestScheduler.Priority priority = RequestScheduler.getPriority();
+        return CompletableFuture.supplyAsync(() -> {
+            callerToken.set(token);
+            RequestScheduler.setPriority(priority);
+            try {
+                return call.call();
+            } catch (IOException | InterruptedException e) {
+                throw new CompletionException(e);
+            } finally {
+                callerToken.remove();
+            }
+        }, asyncExecutor);
+    }
+
+    /**
+     * Wait for an async call to finish
+     * @return the call's result
+     * @throws IOException if the call threw one
+     */
+    public static <V> V await(CompletableFuture<V> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for async Canvas call");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /** Async version of Common.getAs() */
+    public static <T> CompletableFuture<T> getAsAsync(String urlSuffix, Class<T> clazz) {
+        return supplyAsync(() -> getAs(urlSuffix, clazz));
+    }
+
+    /** Async version of Common.getAs() */
+    public static <T> CompletableFuture<T> getAsAsync(GenericUrl url, Class<T> clazz) {
+        return supplyAsync(() -> getAs(url, clazz));
+    }
+
+    /** Async version of Common.getAsList() */
+    public static <S, T> CompletableFuture<List<S>> getAsListAsync(String urlSuffix, Class<T> arrayClass) {
+        return supplyAsync(() -> getAsList(urlSuffix, arrayClass));
+    }
+
+    /** Async version of Common.getAsList() */
+    public static <S, T> CompletableFuture<List<S>> getAsListAsync(GenericUrl url, Class<T> arrayClass) {
+        return supplyAsync(() -> getAsList(url, arrayClass));
+    }
+
+    /** Async version of Common.postJSON() */
+    public static CompletableFuture<HttpResponse> postJSONAsync(GenericUrl url, Object j, String wrapperKey) {
+        return supplyAsync(() -> postJSON(url, j, wrapperKey));
+    }
+
+    /** Async version of Common.putJSON() */
+    public static CompletableFuture<HttpResponse> putJSONAsync(GenericUrl url, Object j, String wrapperKey) {
+        return supplyAsync(() -> putJSON(url, j, wrapperKey));
+    }
+
+    /** Async version of Common.uploadFile() */
+    public static CompletableFuture<CanvasFile> uploadFileAsync(GenericUrl url, File f) {
+        return supplyAsync(() -> uploadFile(url, f));
+    }
+
+    /** See CanvasClient.trackProgress() */
+    public static CompletableFuture<Progress> trackProgress(Progress progress) {
+        return client().trackProgress(progress);
+    }
+
+    /** See CanvasClient.trackUploadStatus() */
+    public static CompletableFuture<StatusResponse> trackUploadStatus(String statusUrl) {
+        return client().trackUploadStatus(statusUrl);
+    }
+
+    /**
+     * Sends a request to Canvas, returning the response. All Canvas API requests should go through here so that
+     * they are paced by the RequestScheduler, at the calling thread's priority.
+     * NB: the response holds on to a pooled connection until it's parsed, ignore()d or disconnect()ed, so callers
+     * that don't want it must still ignore() it
+     */
+    public static HttpResponse execute(HttpRequest request) throws IOException {
+        return RequestScheduler.execute(request, RequestScheduler.getPriority(), false);
+    }
+
+    /**
+     * Like execute(), but request will be retried after a transient failure even if it's a POST. Only use this
+     * for POSTs that are safe to repeat.
+     */
+    public static HttpResponse executeIdempotent(HttpRequest request) throws IOException {
+        return RequestScheduler.execute(request, RequestScheduler.getPriority(), true);
     }
 
     /**
@@ -74,15 +288,7 @@ public class Common {
      * @return the HTTP response from Canvas
      */
     public static HttpResponse get(GenericUrl url) throws IOException {
-        url.put("per_page", 300);
-        HttpRequest request = requestFactory.buildGetRequest(url);
-        request.getHeaders().setAuthorization(TOKEN);
-        HttpResponse response = request.execute();
-        //assert !response.getHeaders().get("link").toString().contains("next") :
-        //        "Request returned only partial data: " + response.getHeaders().get("link").toString();
-        assert null == response.getHeaders().get("link") :
-                "Request returned only partial data: " + response.getHeaders().get("link").toString();
-        return response;
+        return client().get(url);
     }
 
     /**
@@ -90,8 +296,7 @@ public class Common {
      * supply the URL suffix. This is a simple wrapper of Common.get(GenericUrl url).
      */
     public static HttpResponse get(String urlSuffix) throws IOException {
-        GenericUrl url = new GenericUrl(CourseURL() + urlSuffix);
-        return get(url);
+        return client().get(urlSuffix);
     }
 
     /**
@@ -102,13 +307,12 @@ public class Common {
      * @return an instance of type clazz
      */
     public static <T> T getAs(String urlSuffix, Class<T> clazz) throws IOException {
-        HttpResponse response = get(urlSuffix);
-        return response.parseAs(clazz);
+        return client().getAs(urlSuffix, clazz);
     }
 
+    /** See CanvasClient.getAs() */
     public static <T> T getAs(GenericUrl url, Class<T> clazz) throws IOException {
-        HttpResponse response = get(url);
-        return response.parseAs(clazz);
+        return client().getAs(url, clazz);
     }
 
     /**
@@ -120,157 +324,72 @@ public class Common {
      * @return a List
      */
     public static <S, T> List<S> getAsList(String urlSuffix, Class<T> arrayClass) throws IOException {
-        GenericUrl url = new GenericUrl(Common.CourseURL() + urlSuffix);
-        return Common.getAsList(url, arrayClass);
+        return client().getAsList(urlSuffix, arrayClass);
     }
 
-    // NB: per https://stackoverflow.com/questions/18581002/how-to-create-a-generic-array, could make this slightly
-    // cleaner with just <T> and Class<T> clazz, and we create the array ourselves via Array.newInstance (and then
-    // extract it's class...). But we still need to pass in the class parameter.
+    /** See CanvasClient.getAsList() */
     public static <S, T> List<S> getAsList(final GenericUrl url, Class<T> arrayClass) throws IOException {
-        ArrayList<S> list = new ArrayList<>();
-
-        // make a copy of url so we don't screw up the caller's copy
-        GenericUrl myurl = new GenericUrl(url.toURL());
-        myurl.put("per_page", 100);
-
-        while (true) {
-            HttpRequest request = requestFactory.buildGetRequest(myurl);
-            request.getHeaders().setAuthorization(TOKEN);
-            HttpResponse response = request.execute();
-            // DEBUG
-            //System.out.format("%s returned %s%n", myurl.toString(), response.parseAsString());
-            T elements = response.parseAs(arrayClass);
-            list.addAll(Arrays.asList((S[]) elements));
-
-            String linkHeader = response.getHeaders().getFirstHeaderStringValue("link");
-            if (null == linkHeader || !linkHeader.contains("rel=\"next\"")) { // no more pages
-                return list;
-
-            } else { // retrieve next page
-                // extract next page link from header
-                Matcher m = nextLinkPattern.matcher(linkHeader);
-                assert m.find() : linkHeader;
-                //System.out.println(m.group(1));
-                myurl = new GenericUrl(m.group(1));
-            }
-        }
+        return client().getAsList(url, arrayClass);
+    }
+
+    /** See CanvasClient.streamAsList() */
+    public static <S, T> Stream<S> streamAsList(String urlSuffix, Class<T> arrayClass) {
+        return client().streamAsList(urlSuffix, arrayClass);
+    }
+
+    /** See CanvasClient.streamAsList() */
+    public static <S, T> Stream<S> streamAsList(final GenericUrl url, Class<T> arrayClass) {
+        return client().streamAsList(url, arrayClass);
+    }
+
+    /** See CanvasClient.streamAsList() */
+    public static <S, W> Stream<S> streamAsList(final GenericUrl url, Class<W> wrapperClass, Function<W, S[]> unwrap) {
+        return client().streamAsList(url, wrapperClass, unwrap);
     }
 
     /**
-     * make a POST request, sending the specified object encoded as JSON
-     * @param url the URL to POST to
-     * @param j the object to be encoded as JSON (via GsonFactory)
-     * @param wrapperKey create an outer object with "wrapperKey" mapping to the j object (null for no wrapper key)
-     * @return the HttpResponse from the request
+     * Download the resource at url (e.g., a submitted file) to out. These requests don't count against our Canvas
+     * API quota, but they share the API's connection pool.
      */
+    public static void download(String url, OutputStream out) throws IOException {
+        HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(url));
+        HttpResponse response = execute(request);
+        try {
+            response.download(out);
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    /** See CanvasClient.postJSON() */
     public static HttpResponse postJSON(final GenericUrl url, Object j, String wrapperKey) throws IOException {
-        JsonHttpContent content = new JsonHttpContent(new GsonFactory(), j);
-        if (null != wrapperKey) content.setWrapperKey(wrapperKey);
-        HttpRequest request = requestFactory.buildPostRequest(url, content);
-        request.getHeaders().setAuthorization(TOKEN);
-        return request.execute();
+        return client().postJSON(url, j, wrapperKey);
     }
 
+    /** See CanvasClient.putJSON() */
     public static HttpResponse putJSON(final GenericUrl url, Object j, String wrapperKey) throws IOException {
-        JsonHttpContent content = new JsonHttpContent(new GsonFactory(), j);
-        if (null != wrapperKey) content.setWrapperKey(wrapperKey);
-        HttpRequest request = requestFactory.buildPutRequest(url, content);
-        request.getHeaders().setAuthorization(TOKEN);
-        return request.execute();
+        return client().putJSON(url, j, wrapperKey);
     }
 
-    /**
-     * Follows the "Uploading via POST" sequence from
-     * https://canvas.instructure.com/doc/api/file.file_uploads.html#method.file_uploads.url
-     * @param url the URL to upload the file to
-     * @param f the file to upload
-     * @return the Canvas File object corresponding to the uploaded file
-     */
+    /** See CanvasClient.uploadFile() */
     public static CanvasFile uploadFile(GenericUrl url, File f) throws IOException, InterruptedException {
-        HttpResponse response;
-        HttpRequest request;
-        Map<String, String> map = new HashMap<>();
-        assert f.isFile() && f.canRead();
-
-        // CANVAS DOCS STEP 1: initiate upload
-        //System.err.println(url.toString());
-        map.put("name", f.getName());
-        map.put("size", String.valueOf(f.length()));
-        if (f.getName().endsWith(".v")) {
-            map.put("content_type", "text/plain");
-        }
-        //System.err.println(map);
-
-        UrlEncodedContent content = new UrlEncodedContent(map);
-        request = requestFactory.buildPostRequest(url, content);
-        request.getHeaders().setAuthorization(TOKEN);
-        response = request.execute();
-        UploadHandlePOST handle = response.parseAs(UploadHandlePOST.class);
-        //System.err.println(handle.upload_params);
-
-        // CANVAS DOCS STEP 2: upload file to specified endpoint
-        MultipartContent mpc = new MultipartContent().setMediaType(
-                new HttpMediaType("multipart/form-data")
-                        .setParameter("boundary", "__END_OF_PART__"));
-        for (String name : handle.upload_params.keySet()) { // pass along required params
-            MultipartContent.Part part = new MultipartContent.Part(
-                    new ByteArrayContent(null, handle.upload_params.get(name).getBytes()));
-            part.setHeaders(new HttpHeaders().set(
-                    "Content-Disposition", String.format("form-data; name=\"%s\"", name)));
-            mpc.addPart(part);
-        }
+        return client().uploadFile(url, f);
+    }
 
-        // add file content
-        FileContent fileContent = new FileContent("text/plain", f);
-        MultipartContent.Part part = new MultipartContent.Part(fileContent);
-        // NB: when Canvas File Uploads used to go to AWS S3, the `filename` and `Content-Type` info didn't need to be
-        // here in addition to earlier parts of the form. However, I noticed that curl includes them, and now, the
-        // inscloudgate.net endpoint seems to insist on their presence. Without them, we get an opaque 500 response.
-        String contDisp = String.format("form-data; name=\"file\"; filename=\"%s\" Content-Type: %s",
-                f.getName(), handle.upload_params.getOrDefault("content_type","text/plain"));
-        part.setHeaders(new HttpHeaders().set("Content-Disposition", contDisp));
-        mpc.addPart(part);
-        request = requestFactory.buildPostRequest(new GenericUrl(handle.upload_url), mpc);
-        response = request.execute();
-
-        /* How things used to work (< 3 Jan 2019)
-        The Canvas docs say that we should either get a 3xx redirect or a 201 response, and that we need to
-        do one more request to get the actual Canvas File. However, I've never seen this happen in practice. After
-        step 2, we instead get a 200 response along with JSON for the Canvas File object.
-        if (200 == response.getStatusCode()) {
-            assert null == response.getHeaders().get("Location");
-            CanvasFile cfile = response.parseAs(CanvasFile.class);
-            assert f.getName().equals(cfile.filename) : cfile.filename;
-            assert f.length() == cfile.size : cfile.size;
-            assert "processed".equals(cfile.workflow_state) : cfile.workflow_state;
-            // ugh, seems necessary to ensure caller can use the file id in other requests
-            Thread.sleep(1000);
-            return cfile;
-        }
+    /** See CanvasClient.uploadStream() */
+    public static CanvasFile uploadStream(GenericUrl url, String name, long length, InputStream in)
+            throws IOException {
+        return client().uploadStream(url, name, length, in);
+    }
 
-        As of 3 Jan 2018, file uploads behave more like the docs specify and we get a 201 response with a Location
-        header. However, we get the Canvas File object directly; we don't need to do a GET on the Location as the docs
-        say is required. However, to stay compliant I am doing the GET in case things change in the future.
-        NB: a 3xx redirect is also a valid response to Step 2; I haven't seen it though.
-        */
-        if (201 == response.getStatusCode()) {
-            assert null != response.getHeaders().getLocation();
-            //CanvasFile cfile0 = response.parseAs(CanvasFile.class);
-            //assert f.getName().equals(cfile0.filename) : cfile0.filename;
-            //assert f.length() == cfile0.size : cfile0.size;
-
-            // CANVAS DOCS STEP 3: confirm upload's success
-            CanvasFile cfile1 = Common.getAs(new GenericUrl(response.getHeaders().getLocation()), CanvasFile.class);
-            assert f.getName().equals(cfile1.filename) : cfile1.filename;
-            assert f.length() == cfile1.size : cfile1.size;
-            // in practice, I saw the `workflow_state` as `upload_pending` for both CanvasFile objects
-
-            return cfile1;
-        }
+    /** See CanvasClient.uploadBytes() */
+    public static CanvasFile uploadBytes(GenericUrl url, String name, ByteBuffer data) throws IOException {
+        return client().uploadBytes(url, name, data);
+    }
 
-        String msg = String.format("file upload step 2, Canvas responded: %d %s", response.getStatusCode(), response.getStatusMessage());
-        throw new IllegalStateException(msg);
+    /** See CanvasClient.uploadFiles() */
+    public static List<CanvasFile> uploadFiles(GenericUrl url, List<File> files) throws IOException {
+        return client().uploadFiles(url, files);
     }
 
     /**
@@ -282,7 +401,7 @@ public class Common {
         HttpResponse response;
         Course course = getAs("", Course.class);
 
-        List<Assignment> everything = getAsList("assignments/", Assignment[].class);
+        List<Assignment> everything = CourseReplica.latestAssignments();
 
         List<Assignment> homeworks = new LinkedList<>();
         for (Assignment a : everything) {
@@ -307,7 +426,7 @@ public class Common {
         String proceed = scanner.next();
         if (!proceed.equals("y")) {
             System.out.println("Exiting...");
-            System.exit(1);
+            exit(1);
         }
         return Integer.toString(chosen.id);
     }
@@ -344,7 +463,7 @@ public class Common {
         String proceed = scanner.next();
         if (!proceed.equals("y")) {
             System.out.println("Exiting...");
-            System.exit(1);
+            exit(1);
         }
         return Integer.toString(chosen.id);
     }
@@ -405,7 +524,7 @@ public class Common {
 
     /** @return the URL for API calls, of the form BASE/courses/{course-id}/ - note this *includes* a trailing slash */
     public static String CourseURL() {
-        return COURSE_URL;
+        return BASE_URL + "courses/" + MY_COURSE_ID + "/";
     }
 
     /** Returns the Canvas Course ID (as a String) */
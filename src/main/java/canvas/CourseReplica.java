@@ -0,0 +1,424 @@
+package canvas;
+
+import canvas.apiobjects.*;
+import canvas.graphql.GraphQLClient;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.util.Key;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A local copy of a course: its students, groups (with their members), assignments, assignment overrides and
+ * submissions, saved to disk (as a BinarySnapshot) between runs. Instead of pulling the whole course from Canvas
+ * every time (which the autograder does every minute), tools refresh() the replica and then query it. A refresh only
+ * asks Canvas for what changed since the last one:
+ *  - submissions via students/submissions with submitted_since and graded_since
+ *  - overrides only for assignments whose updated_at changed (the assignment list itself is a page or two)
+ *  - the roster (students, groups and memberships) every ROSTER_INTERVAL, or as soon as a submission shows up from
+ *    a student we don't know about
+ * Every FULL_SYNC_INTERVAL we reload everything, to catch what deltas can't see, e.g., deleted submissions.
+ *
+ * Users and Groups go through EntityRegistry, so fields that tools fill in themselves (e.g., a User's email from
+ * their Profile) are kept across refreshes, and saved with the replica.
+ *
+ * NB: a comment on a submission doesn't change its submitted_at or graded_at, so a comment without a grade change
+ * isn't picked up until the next full sync. Not thread-safe: refresh and query from one thread.
+ */
+public class CourseReplica {
+
+    private static final int FORMAT_VERSION = 2;
+    /** How far before the last refresh to look for changes, to allow for clock skew and in-flight requests */
+    private static final Duration OVERLAP = Duration.ofMinutes(5);
+    private static final Duration ROSTER_INTERVAL = Duration.ofHours(1);
+    private static final Duration FULL_SYNC_INTERVAL = Duration.ofDays(1);
+    private static final Duration RECENT_SYNC = Duration.ofSeconds(30);
+
+    private static Path replicaDir = Paths.get(System.getProperty("user.home"), ".canvas-utils", "replica");
+
+    /** When the replica was last synced, saved along with it */
+    public static class SyncTimes {
+        @Key
+        public int format_version;
+        @Key
+        public String synced_at;
+        @Key
+        public String roster_synced_at;
+        @Key
+        public String full_synced_at;
+    }
+
+    /** NB: Group.members isn't one of Group's @Key fields, so memberships are saved separately */
+    public static class Membership {
+        @Key
+        public int group_id;
+        @Key
+        public int[] user_ids;
+    }
+
+    private final CanvasClient client;
+    private final File file;
+
+    private Instant syncedAt, rosterSyncedAt, fullSyncedAt;
+    private final Map<Integer, User> users = new LinkedHashMap<>();
+    private final Map<Integer, Group> groups = new LinkedHashMap<>();
+    private final Map<Integer, Assignment> assignments = new LinkedHashMap<>();
+    private final Map<Integer, List<AssignmentOverride>> overridesOf = new HashMap<>();
+    /** (assignment id, user id) => Submission, see key() */
+    private final Map<Long, Submission> submissions = new LinkedHashMap<>();
+    private List<Submission> changed = new ArrayList<>();
+
+    /** Read replica settings from canvas.properties. ReplicaDir sets where replicas are saved. */
+    static void configure(Properties prop) {
+        if (null != prop.getProperty("ReplicaDir")) {
+            replicaDir = Paths.get(prop.getProperty("ReplicaDir"));
+        }
+    }
+
+    private CourseReplica(CanvasClient client) {
+        this.client = client;
+        // NB: different tokens can see different submissions
+        String name = DiskCache.hash(client.courseUrl() + "\n" + client.token()) + ".snapshot";
+        this.file = replicaDir.resolve(name).toFile();
+    }
+
+    /** @return the replica of client's course (as seen by client's token) from our last run, or an empty one */
+    public static CourseReplica open(CanvasClient client) {
+        CourseReplica r = new CourseReplica(client);
+        r.load();
+        return r;
+    }
+
+    /**
+     * Open the replica of the current course, and bring it up to date. NB: if it was refreshed in the last
+     * RECENT_SYNC (e.g., by another tool just before), it's used as is.
+     */
+    public static CourseReplica sync() throws IOException {
+        CourseReplica r = open(Common.client());
+        Instant last = r.syncedAt();
+        if (null != last && Instant.now().isBefore(last.plus(RECENT_SYNC))) {
+            return r;
+        }
+        return r.refresh();
+    }
+
+    /**
+     * @return the current course's assignments, for tools that need nothing else (e.g., pickAssignment()), without
+     * the cost of a sync: from the replica if it was refreshed in the last RECENT_SYNC, otherwise just the
+     * assignment list from Canvas. NB: doesn't update the replica
+     */
+    public static List<Assignment> latestAssignments() throws IOException {
+        CourseReplica r = open(Common.client());
+        Instant last = r.syncedAt();
+        if (null != last && Instant.now().isBefore(last.plus(RECENT_SYNC))) {
+            return r.assignments();
+        }
+        return Common.getAsList("assignments", Assignment[].class);
+    }
+
+    /** Bring the replica up to date with Canvas, and save it */
+    public CourseReplica refresh() throws IOException {
+        return refresh(false);
+    }
+
+    /**
+     * Bring the replica up to date with Canvas, and save it
+     * @param full reload everything instead of just what changed, e.g., because someone deleted a submission
+     */
+    public CourseReplica refresh(boolean full) throws IOException {
+        final Instant started = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        final boolean fullSync = full || null == fullSyncedAt || null == syncedAt
+                || started.isAfter(fullSyncedAt.plus(FULL_SYNC_INTERVAL));
+
+        CompletableFuture<Void> roster = null;
+        if (fullSync || null == rosterSyncedAt || started.isAfter(rosterSyncedAt.plus(ROSTER_INTERVAL))) {
+            roster = Common.supplyAsync(this::pullRoster);
+        }
+        CompletableFuture<Void> hws = Common.supplyAsync(() -> pullAssignments(fullSync));
+        pullSubmissions(fullSync ? null : syncedAt.minus(OVERLAP));
+        if (null != roster) {
+            Common.await(roster);
+            rosterSyncedAt = started;
+        }
+        Common.await(hws);
+
+        // someone we don't know submitted something, so they must have joined the course since the roster was pulled
+        if (null == roster && changed.stream().anyMatch(s -> !users.containsKey(s.user_id))) {
+            pullRoster();
+            rosterSyncedAt = started;
+        }
+
+        syncedAt = started;
+        if (fullSync) fullSyncedAt = started;
+        save();
+        return this;
+    }
+
+    /**
+     * NB: returns null so it can be a Common.CanvasCall. Groups and their members come from GraphQL (see
+     * GraphQLClient), which sends just the member fields we keep instead of each member's whole User
+     */
+    private Void pullRoster() throws IOException {
+        GenericUrl url = new GenericUrl(client.courseUrl() + "users");
+        url.put("enrollment_type[]", "student");
+        url.put("enrollment_state[]", "active");
+        CompletableFuture<List<User>> students = client.getAsListAsync(url, User[].class);
+
+        List<Group> gs = new GraphQLClient(client).groups();
+
+        List<User> us = EntityRegistry.users(Common.await(students));
+        synchronized (this) {
+            users.clear();
+            for (User u : us) {
+                users.put(u.id, u);
+            }
+            groups.clear();
+            for (Group g : gs) {
+                groups.put(g.id, g);
+            }
+        }
+        return null;
+    }
+
+    private Void pullAssignments(boolean full) throws IOException {
+        List<Assignment> hws = client.getAsList("assignments", Assignment[].class);
+
+        // NB: only ask for overrides of the assignments that changed
+        Map<Integer, CompletableFuture<List<AssignmentOverride>>> newOverrides = new HashMap<>();
+        for (Assignment hw : hws) {
+            Assignment old;
+            synchronized (this) {
+                old = assignments.get(hw.id);
+            }
+            if (full || null == old || !Objects.equals(old.updated_at, hw.updated_at)) {
+                newOverrides.put(hw.id, client.getAsListAsync("assignments/" + hw.id + "/overrides",
+                        AssignmentOverride[].class));
+            }
+        }
+
+        Map<Integer, List<AssignmentOverride>> fetched = new HashMap<>();
+        for (Map.Entry<Integer, CompletableFuture<List<AssignmentOverride>>> e : newOverrides.entrySet()) {
+            fetched.put(e.getKey(), Common.await(e.getValue()));
+        }
+        synchronized (this) {
+            assignments.clear();
+            for (Assignment hw : hws) {
+                assignments.put(hw.id, hw);
+            }
+            overridesOf.keySet().retainAll(assignments.keySet());
+            overridesOf.putAll(fetched);
+        }
+        return null;
+    }
+
+    /** @param since only pull submissions submitted or graded after this time, or everything if it's null */
+    private void pullSubmissions(Instant since) throws IOException {
+        List<Submission> subs;
+        if (null == since) {
+            subs = client.getAsList(submissionsUrl(), Submission[].class);
+        } else {
+            CompletableFuture<List<Submission>> submitted =
+                    client.getAsListAsync(submissionsUrl("submitted_since", since), Submission[].class);
+            CompletableFuture<List<Submission>> graded =
+                    client.getAsListAsync(submissionsUrl("graded_since", since), Submission[].class);
+            subs = new ArrayList<>(Common.await(submitted));
+            subs.addAll(Common.await(graded));
+        }
+
+        synchronized (this) {
+            if (null == since) submissions.clear();
+            // NB: a submission can be both submitted and graded since the last refresh, so keep just one copy
+            Map<Long, Submission> delta = new LinkedHashMap<>();
+            for (Submission s : subs) {
+                long k = key(s.assignment_id, s.user_id);
+                submissions.put(k, s);
+                delta.put(k, s);
+            }
+            changed = new ArrayList<>(delta.values());
+        }
+    }
+
+    /**
+     * Pull just some students' submissions to one assignment, e.g., as soon as we hear (see LiveEventListener) that
+     * they submitted, instead of waiting for the next refresh.
+     * NB: doesn't count as a refresh, so the next one still looks for everything that changed since the last one
+     * @return the submissions pulled
+     */
+    public List<Submission> refreshSubmissions(int assignmentId, Collection<Integer> userIds) throws IOException {
+        GenericUrl url = submissionsUrl();
+        url.put("student_ids[]", new ArrayList<>(userIds));
+        url.put("assignment_ids[]", assignmentId);
+        List<Submission> subs = client.getAsList(url, Submission[].class);
+        synchronized (this) {
+            for (Submission s : subs) {
+                submissions.put(key(s.assignment_id, s.user_id), s);
+            }
+        }
+        return subs;
+    }
+
+    private GenericUrl submissionsUrl() {
+        GenericUrl url = new GenericUrl(client.courseUrl() + "students/submissions");
+        url.put("student_ids[]", "all");
+        url.put("include[]", Arrays.asList("group", "submission_comments"));
+        return url;
+    }
+
+    private GenericUrl submissionsUrl(String sinceParam, Instant since) {
+        GenericUrl url = submissionsUrl();
+        url.put(sinceParam, since.toString());
+        return url;
+    }
+
+    private static long key(int assignmentId, int userId) {
+        return ((long) assignmentId << 32) | (userId & 0xFFFFFFFFL);
+    }
+
+    // QUERIES
+
+    /** @return when the replica was last brought up to date, or null if it never has been */
+    public synchronized Instant syncedAt() {
+        return syncedAt;
+    }
+
+    /** @return the active students */
+    public synchronized List<User> users() {
+        return new ArrayList<>(users.values());
+    }
+
+    /** @return the student with the given id, or null if there isn't one */
+    public synchronized User user(int id) {
+        return users.get(id);
+    }
+
+    /** @return all groups, with their members */
+    public synchronized List<Group> groups() {
+        return new ArrayList<>(groups.values());
+    }
+
+    public synchronized List<Assignment> assignments() {
+        return new ArrayList<>(assignments.values());
+    }
+
+    /** @return the assignment with the given id, or null if there isn't one */
+    public synchronized Assignment assignment(int id) {
+        return assignments.get(id);
+    }
+
+    /** @return the overrides of the given assignment's due/lock dates */
+    public synchronized List<AssignmentOverride> overrides(int assignmentId) {
+        return new ArrayList<>(overridesOf.getOrDefault(assignmentId, Collections.emptyList()));
+    }
+
+    /** @return every submission, to every assignment */
+    public synchronized List<Submission> submissions() {
+        return new ArrayList<>(submissions.values());
+    }
+
+    /** @return every submission to the given assignment */
+    public synchronized List<Submission> submissions(int assignmentId) {
+        List<Submission> subs = new ArrayList<>();
+        for (Submission s : submissions.values()) {
+            if (assignmentId == s.assignment_id) subs.add(s);
+        }
+        return subs;
+    }
+
+    /** @return the submissions that are new or changed since the previous refresh (all of them, after a full one) */
+    public synchronized List<Submission> changed() {
+        return new ArrayList<>(changed);
+    }
+
+    // PERSISTENCE
+
+    /** Save the replica, e.g., after filling in fields (like emails) that we don't get from Canvas directly */
+    public synchronized void save() {
+        SyncTimes times = new SyncTimes();
+        times.format_version = FORMAT_VERSION;
+        times.synced_at = null == syncedAt ? null : syncedAt.toString();
+        times.roster_synced_at = null == rosterSyncedAt ? null : rosterSyncedAt.toString();
+        times.full_synced_at = null == fullSyncedAt ? null : fullSyncedAt.toString();
+        List<Membership> memberships = new ArrayList<>(groups.size());
+        for (Group g : groups.values()) {
+            Membership m = new Membership();
+            m.group_id = g.id;
+            m.user_ids = Arrays.stream(g.members).mapToInt(u -> u.id).toArray();
+            memberships.add(m);
+        }
+        List<AssignmentOverride> overrides = new ArrayList<>();
+        overridesOf.values().forEach(overrides::addAll);
+
+        try {
+            BinarySnapshot.writer()
+                    .table("sync", SyncTimes.class, Collections.singletonList(times))
+                    .table("users", User.class, users.values())
+                    .table("groups", Group.class, groups.values())
+                    .table("memberships", Membership.class, memberships)
+                    .table("assignments", Assignment.class, assignments.values())
+                    .table("overrides", AssignmentOverride.class, overrides)
+                    .table("submissions", Submission.class, submissions.values())
+                    .write(file.toPath());
+        } catch (IOException e) {
+            System.err.println("couldn't save course replica: " + e.getMessage());
+        }
+    }
+
+    /** NB: a missing, corrupt or out-of-date replica is just empty, so the next refresh() is a full one */
+    private synchronized void load() {
+        BinarySnapshot s;
+        try {
+            s = BinarySnapshot.open(file.toPath());
+        } catch (IOException e) {
+            return;
+        }
+        // NB: records are decoded lazily, so corruption can also show up here
+        try {
+            BinarySnapshot.Table<SyncTimes> times = s.table("sync", SyncTimes.class);
+            if (1 != times.size() || FORMAT_VERSION != times.get(0).format_version) return;
+
+            syncedAt = instant(times.get(0).synced_at);
+            rosterSyncedAt = instant(times.get(0).roster_synced_at);
+            fullSyncedAt = instant(times.get(0).full_synced_at);
+            for (User u : EntityRegistry.users(s.table("users", User.class))) {
+                users.put(u.id, u);
+            }
+            Map<Integer, int[]> membersOf = new HashMap<>();
+            for (Membership m : s.table("memberships", Membership.class)) {
+                membersOf.put(m.group_id, m.user_ids);
+            }
+            for (Group g : s.table("groups", Group.class)) {
+                int[] ids = membersOf.getOrDefault(g.id, new int[0]);
+                g.members = Arrays.stream(ids).mapToObj(users::get).filter(Objects::nonNull).toArray(User[]::new);
+                g = EntityRegistry.group(g);
+                groups.put(g.id, g);
+            }
+            for (Assignment hw : s.table("assignments", Assignment.class)) {
+                assignments.put(hw.id, hw);
+                overridesOf.put(hw.id, new ArrayList<>());
+            }
+            for (AssignmentOverride ao : s.table("overrides", AssignmentOverride.class)) {
+                overridesOf.computeIfAbsent(ao.assignment_id, id -> new ArrayList<>()).add(ao);
+            }
+            for (Submission sub : s.table("submissions", Submission.class)) {
+                submissions.put(key(sub.assignment_id, sub.user_id), sub);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("ignoring corrupt course replica: " + e);
+            syncedAt = rosterSyncedAt = fullSyncedAt = null;
+            users.clear();
+            groups.clear();
+            assignments.clear();
+            overridesOf.clear();
+            submissions.clear();
+        }
+    }
+
+    private static Instant instant(String ts) {
+        return null == ts || ts.isEmpty() ? null : Instant.parse(ts);
+    }
+}
@@ -14,6 +14,7 @@ import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Create a JSON file containing the mapping group => [(student,email), ...]
@@ -38,26 +39,33 @@ public class CreateGroupDB {
         System.out.println("Getting list of groups...");
 
         Common.setup();
+        RequestScheduler.setPriority(RequestScheduler.Priority.BULK);
 
         // groupDB schema: group name => [all,group,members,...]
         JsonObjectBuilder jobOuter = Json.createObjectBuilder();
 
-        List<Group> groups = Common.getAsList("groups", Group[].class);
+        // groups and their members come from the local replica, which only pulls what changed since last time
+        List<Group> groups = CourseReplica.sync().groups();
+        groups.removeIf(g -> !g.name.toLowerCase().contains(groupNameFilter));
+
+        // fetch every member's Profile at once
+        // NB: have to get student's email via their Profile
+        Map<Integer, CompletableFuture<Profile>> profileOfUser = new HashMap<>();
         for (Group g : groups) {
-            if (!g.name.toLowerCase().contains(groupNameFilter)) {
-                continue;
+            for (User gmem : g.members) {
+                profileOfUser.computeIfAbsent(gmem.id, id -> Common.supplyAsync(() ->
+                        EntityCache.getAs(new GenericUrl(Common.BASE_URL + "users/" + id + "/profile"), Profile.class)));
             }
+        }
 
-            List<User> groupMembers = Common.getAsList(new GenericUrl(Common.BASE_URL + "groups/" + g.id + "/users"), User[].class);
-            if (0 == groupMembers.size()) { // skip empty groups
+        for (Group g : groups) {
+            if (0 == g.members.length) { // skip empty groups
                 continue;
             }
 
             JsonArrayBuilder jabG = Json.createArrayBuilder();
-            for (User gmem : groupMembers) {
-                // NB: have to get student's email via their Profile
-                Profile prof = Common.getAs(new GenericUrl(Common.BASE_URL + "users/" + gmem.id + "/profile"),
-                        Profile.class);
+            for (User gmem : g.members) {
+                Profile prof = Common.await(profileOfUser.get(gmem.id));
                 String email = (null != prof.primary_email) ? prof.primary_email : gmem.email;
                 if (null == email) {
                     email = gmem.login_id+"@seas.upenn.edu";
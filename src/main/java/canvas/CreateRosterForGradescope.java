@@ -10,7 +10,10 @@ import org.apache.commons.csv.CSVPrinter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Create a roster of students from Canvas that is suitable for importing into Gradescope. Student
@@ -28,6 +31,7 @@ public class CreateRosterForGradescope {
         final String CSV_FILE = args[0];
 
         Common.setup();
+        RequestScheduler.setPriority(RequestScheduler.Priority.BULK);
 
         GenericUrl url;
 
@@ -37,16 +41,27 @@ public class CreateRosterForGradescope {
         url = new GenericUrl(Common.CourseURL() + "users");
         url.put("enrollment_type", "student");
         url.put("include", "email");
-        List<User> users = Common.getAsList(url, User[].class);
+        // start on the first page of students while Canvas is still sending us the rest
+        Iterator<User> users = Common.<User, User[]>streamAsList(url, User[].class).iterator();
 
         Writer w = new FileWriter(CSV_FILE);
         CSVPrinter csvPrinter = new CSVPrinter(w, CSVFormat.DEFAULT
                 .withHeader("Full Name", "Email", Common.CANVAS_SID_COLUMN, Common.PENN_SID_COLUMN));
 
-        for (User u : users) {
+        // look up every student's Profile at once, but print them in roster order
+        List<User> roster = new ArrayList<>();
+        List<CompletableFuture<Profile>> profiles = new ArrayList<>();
+        while (users.hasNext()) {
+            User u = users.next();
+            roster.add(u);
             // NB: have to get student's email via their Profile
-            Profile prof = Common.getAs(new GenericUrl(Common.BASE_URL + "users/" + u.id + "/profile"),
-                    Profile.class);
+            profiles.add(Common.getAsAsync(new GenericUrl(Common.BASE_URL + "users/" + u.id + "/profile"),
+                    Profile.class));
+        }
+
+        for (int i = 0; i < roster.size(); i++) {
+            User u = roster.get(i);
+            Profile prof = Common.await(profiles.get(i));
 
             assert null == u.email;
             csvPrinter.printRecord(u.name, prof.primary_email, u.id, u.sis_user_id);
@@ -0,0 +1,169 @@
+package canvas;
+
+import com.google.api.client.http.GenericUrl;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * On-disk cache of Canvas GET responses, so that repeated runs of our scripts (and the autograder, which cron
+ * starts every minute) can revalidate what they fetched last time with a conditional GET instead of downloading it
+ * all again. Canvas answers "304 Not Modified" when the ETag/Last-Modified we send still matches.
+ *
+ * Entries are keyed by URL and by token, since different tokens (instructor vs test students) can see different
+ * versions of the same resource. Only hashes of the token are ever written to disk. Once the cache grows beyond
+ * its size limit, the least-recently-used entries are evicted.
+ */
+public class DiskCache {
+
+    /** A cached response body along with the validators Canvas sent with it */
+    public static class Entry {
+        public final String etag;
+        public final String lastModified;
+        public final byte[] body;
+
+        Entry(String etag, String lastModified, byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static Path cacheDir = Paths.get(System.getProperty("user.home"), ".canvas-utils", "cache");
+    private static long maxBytes = 64L << 20; // 64MB
+    private static boolean enabled = true;
+
+    /**
+     * Read cache settings from canvas.properties. CacheDir sets the cache location and CacheMaxMB its size limit;
+     * a limit of 0 disables the cache.
+     */
+    static void configure(Properties prop) {
+        if (null != prop.getProperty("CacheDir")) {
+            cacheDir = Paths.get(prop.getProperty("CacheDir"));
+        }
+        if (null != prop.getProperty("CacheMaxMB")) {
+            maxBytes = Long.parseLong(prop.getProperty("CacheMaxMB")) << 20;
+        }
+        enabled = maxBytes > 0;
+    }
+
+    /** Turn the cache on or off for this process, e.g., to force a fresh download of everything */
+    public static void setEnabled(boolean e) {
+        enabled = e;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** @return the cached response for url (as seen by token), or null if there isn't one */
+    static Entry lookup(GenericUrl url, String token) {
+        if (!enabled) return null;
+        File f = entryFile(url, token);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (FORMAT_VERSION != in.readInt()) return null;
+            String etag = readNullableUTF(in);
+            String lastModified = readNullableUTF(in);
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            f.setLastModified(System.currentTimeMillis()); // for LRU eviction
+            return new Entry(etag, lastModified, body);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) { // corrupt entry, just refetch it
+            f.delete();
+            return null;
+        }
+    }
+
+    /** Save a response. Responses without an ETag or Last-Modified header can't be revalidated, so we skip them. */
+    static void store(GenericUrl url, String token, String etag, String lastModified, byte[] body) {
+        if (!enabled || (null == etag && null == lastModified)) return;
+        try {
+            Files.createDirectories(cacheDir);
+            Path tmp = Files.createTempFile(cacheDir, "entry", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                writeNullableUTF(out, etag);
+                writeNullableUTF(out, lastModified);
+                out.writeInt(body.length);
+                out.write(body);
+            }
+            // concurrent readers see either the old entry or the new one, never a partial write
+            Files.move(tmp, entryFile(url, token).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException e) {
+            System.err.println("couldn't write to response cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drop the cached responses for url, for all tokens. Writes (PUT/POST) never go through the cache, but call this
+     * so that a subsequent GET doesn't get handed stale data.
+     */
+    static void invalidate(GenericUrl url) {
+        final String prefix = hash(withoutQuery(url)) + "-";
+        File[] entries = cacheDir.toFile().listFiles((dir, name) -> name.startsWith(prefix));
+        if (null == entries) return;
+        for (File f : entries) {
+            f.delete();
+        }
+    }
+
+    /** Delete least-recently-used entries until the cache fits within maxBytes */
+    private static synchronized void evict() {
+        File[] entries = cacheDir.toFile().listFiles((dir, name) -> name.endsWith(".entry"));
+        if (null == entries) return;
+        long total = Arrays.stream(entries).mapToLong(File::length).sum();
+        if (total <= maxBytes) return;
+
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File f : entries) {
+            if (total <= maxBytes) break;
+            long len = f.length();
+            if (f.delete()) total -= len;
+        }
+    }
+
+    /** NB: entry names start with a hash of just the path, so that invalidate() can find all versions of a resource */
+    private static File entryFile(GenericUrl url, String token) {
+        String name = hash(withoutQuery(url)) + "-" + hash(url.build() + "\n" + token) + ".entry";
+        return cacheDir.resolve(name).toFile();
+    }
+
+    private static String withoutQuery(GenericUrl url) {
+        return url.getScheme() + "://" + url.getHost() + url.getRawPath();
+    }
+
+    static String hash(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 12; i++) { // 96 bits is plenty to avoid collisions
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
+        }
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(null != s);
+        if (null != s) out.writeUTF(s);
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
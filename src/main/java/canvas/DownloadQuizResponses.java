@@ -1,15 +1,18 @@
 package canvas;
 
 import canvas.apiobjects.*;
+import com.google.api.client.http.GenericUrl;
 import com.google.api.client.json.gson.GsonFactory;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.stream.Stream;
 
 public class DownloadQuizResponses {
 
@@ -32,38 +35,43 @@ public class DownloadQuizResponses {
 
         final QuizQuestion tzQuestion = questions.get(0);
 
-        QuizSubmissionsWrapper quizSubsWrapper = Common.getAs("quizzes/" + quizId + "/submissions",
-                QuizSubmissionsWrapper.class);
-
+        GenericUrl subsUrl = new GenericUrl(Common.CourseURL() + "quizzes/" + quizId + "/submissions");
         Map<Integer,QuizSubmission> mostRecentSubmissions = new HashMap<>();
-        for (QuizSubmission qsub : quizSubsWrapper.quiz_submissions) {
-            try {
-                qsub.finished_at = Common.parseCanvasDate(qsub.finished_at_string);
-            } catch (DateTimeParseException e) {
-                System.err.format("*** Invalid finished_at (%s) for user %d. Skipping...%n",
-                        qsub.finished_at_string, qsub.user_id);
-                continue;
-            }
+        try (Stream<QuizSubmission> quizSubs = Common.streamAsList(subsUrl, QuizSubmissionsWrapper.class,
+                w -> w.quiz_submissions)) {
+            quizSubs.forEach(qsub -> {
+                try {
+                    qsub.finished_at = Common.parseCanvasDate(qsub.finished_at_string);
+                } catch (DateTimeParseException e) {
+                    System.err.format("*** Invalid finished_at (%s) for user %d. Skipping...%n",
+                            qsub.finished_at_string, qsub.user_id);
+                    return;
+                }
 
-            if (!mostRecentSubmissions.containsKey(qsub.user_id)) {
-                mostRecentSubmissions.put(qsub.user_id, qsub);
-            } else { // check if qsub is newer than entry in mostRecentSubmissions
-                QuizSubmission existing = mostRecentSubmissions.get(qsub.user_id);
-                if (qsub.finished_at.isAfter(existing.finished_at)) {
+                if (!mostRecentSubmissions.containsKey(qsub.user_id)) {
                     mostRecentSubmissions.put(qsub.user_id, qsub);
+                } else { // check if qsub is newer than entry in mostRecentSubmissions
+                    QuizSubmission existing = mostRecentSubmissions.get(qsub.user_id);
+                    if (qsub.finished_at.isAfter(existing.finished_at)) {
+                        mostRecentSubmissions.put(qsub.user_id, qsub);
+                    }
                 }
-            }
+            });
         }
 
         for (QuizSubmission qsub : mostRecentSubmissions.values()) {
-            QuizSubmissionEventsWrapper qsew = Common.getAs("quizzes/" + quizId + "/submissions/" + qsub.id + "/events",
-                    QuizSubmissionEventsWrapper.class);
-
-            for (QuizSubmissionEvent qse : qsew.quiz_submission_events) {
-                if (qse.event_type.equals("question_answered")) {
+            GenericUrl eventsUrl = new GenericUrl(Common.CourseURL() + "quizzes/" + quizId + "/submissions/" + qsub.id + "/events");
+            try (Stream<QuizSubmissionEvent> events = Common.streamAsList(eventsUrl, QuizSubmissionEventsWrapper.class,
+                    w -> w.quiz_submission_events)) {
+                events.filter(qse -> qse.event_type.equals("question_answered")).forEach(qse -> {
                     assert qse.containsKey("event_data");
                     GsonFactory gsf = GsonFactory.getDefaultInstance();
-                    QuizAnswer[] answers = gsf.fromString(qse.get("event_data").toString(), QuizAnswer[].class);
+                    QuizAnswer[] answers;
+                    try {
+                        answers = gsf.fromString(qse.get("event_data").toString(), QuizAnswer[].class);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
                     for (QuizAnswer qa : answers) {
                         Object answer = qa.get("answer");
 
@@ -75,7 +83,7 @@ public class DownloadQuizResponses {
                         }
 
                     }
-                }
+                });
             }
         }
 
@@ -171,7 +171,7 @@ public class EditCourseCalendar {
             celem.eventListModel.addElement(ce.title);
         }
 
-        List<Assignment> assignments = Common.getAsList("assignments", Assignment[].class);
+        List<Assignment> assignments = CourseReplica.latestAssignments();
         for (Assignment assn : assignments) {
             assn.parseTimes();
             if (assn.due_at_string.isEmpty()) {
@@ -0,0 +1,144 @@
+package canvas;
+
+import canvas.apiobjects.*;
+import com.google.api.client.http.GenericUrl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * In-memory cache of Canvas objects (Assignments, Users, Profiles, etc.) for lookups that happen over and over
+ * within a single run, e.g., the autograder fetching the same Assignment for every submission to a lab.
+ *
+ * Each type has its own time-to-live, and the cache holds at most MAX_ENTRIES objects. If several threads ask
+ * for the same object at once, only one request goes to Canvas and they all get its result.
+ *
+ * NB: cached objects are shared between callers, so treat them as read-only.
+ */
+public class EntityCache {
+
+    private static final int MAX_ENTRIES = 10_000;
+    private static final Duration DEFAULT_TTL = Duration.ofMinutes(1);
+    private static final Map<Class<?>, Duration> ttlOfType = new HashMap<>();
+    static {
+        ttlOfType.put(Assignment.class, Duration.ofMinutes(5));
+        ttlOfType.put(Course.class, Duration.ofMinutes(30));
+        ttlOfType.put(Group.class, Duration.ofMinutes(10));
+        ttlOfType.put(User.class, Duration.ofMinutes(10));
+        ttlOfType.put(Profile.class, Duration.ofMinutes(30));
+    }
+
+    private static class Cached {
+        final Object value;
+        final long expiresAt;
+
+        Cached(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /** NB: access-ordered, so the eldest entry is the least-recently used one */
+    private static final LinkedHashMap<String, Cached> cache = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private static final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /** Set how long objects of the given type stay in the cache. A zero TTL disables caching for that type. */
+    public static synchronized void setTtl(Class<?> clazz, Duration ttl) {
+        ttlOfType.put(clazz, ttl);
+    }
+
+    /** Forget everything we've cached */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Cached version of Common.getAs(). The url is relative to BASE/courses/{course-id}.
+     */
+    public static <T> T getAs(String urlSuffix, Class<T> clazz) throws IOException {
+        return getAs(Common.client(), urlSuffix, clazz);
+    }
+
+    /** Cached version of Common.getAs() */
+    public static <T> T getAs(GenericUrl url, Class<T> clazz) throws IOException {
+        return getAs(Common.client(), url, clazz);
+    }
+
+    /**
+     * Cached version of CanvasClient.getAs(). The url is relative to the client's BASE/courses/{course-id}.
+     */
+    public static <T> T getAs(CanvasClient client, String urlSuffix, Class<T> clazz) throws IOException {
+        return getAs(client, new GenericUrl(client.courseUrl() + urlSuffix), clazz);
+    }
+
+    /**
+     * Cached version of CanvasClient.getAs()
+     * @return the cached object if there is a fresh one, otherwise a newly-fetched object
+     */
+    public static <T> T getAs(CanvasClient client, GenericUrl url, Class<T> clazz) throws IOException {
+        // NB: different tokens can see different versions of the same object
+        final String key = clazz.getName() + " " + client.token() + " " + url.build();
+        final long now = System.nanoTime();
+        synchronized (cache) {
+            Cached c = cache.get(key);
+            if (null != c && c.expiresAt - now > 0) {
+                return clazz.cast(c.value);
+            }
+        }
+
+        // if someone else is already fetching this object, wait for them instead
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> theirs = inFlight.putIfAbsent(key, mine);
+        if (null != theirs) {
+            return clazz.cast(await(theirs));
+        }
+
+        try {
+            T value = client.getAs(url, clazz);
+            Duration ttl = ttlOf(clazz);
+            if (!ttl.isZero()) {
+                synchronized (cache) {
+                    cache.put(key, new Cached(value, System.nanoTime() + ttl.toNanos()));
+                }
+            }
+            mine.complete(value);
+            return value;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private static synchronized Duration ttlOf(Class<?> clazz) {
+        return ttlOfType.getOrDefault(clazz, DEFAULT_TTL);
+    }
+
+    private static Object await(CompletableFuture<Object> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for another thread's request");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+}
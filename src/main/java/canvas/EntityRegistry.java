@@ -0,0 +1,132 @@
+package canvas;
+
+import canvas.apiobjects.Group;
+import canvas.apiobjects.User;
+import com.google.api.client.util.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one instance of each User and Group, by id. Every response we parse creates fresh copies of the same
+ * students, so instead of keeping (and matching up) several copies per student, pass parsed objects through here and
+ * use the canonical instances it returns. Those are updated in place from each newer copy, so references held
+ * elsewhere, e.g., in a Group's members or a Map keyed by User, stay current. Strings are interned along the way, so
+ * loading the roster again costs no more memory than loading it once.
+ *
+ * NB: a field that's missing (or null) in a newer copy keeps its old value, since most endpoints return only some
+ * of a User's fields, e.g., email is only included when we ask for it.
+ *
+ * Unlike EntityCache, nothing here expires: this is for objects we've already fetched, not for avoiding requests.
+ */
+public class EntityRegistry {
+
+    private static final Map<Integer, User> users = new ConcurrentHashMap<>();
+    private static final Map<Integer, Group> groups = new ConcurrentHashMap<>();
+    private static final Map<String, String> strings = new ConcurrentHashMap<>();
+
+    /** @return the canonical instance of u, updated with u's fields */
+    public static User user(User u) {
+        if (null == u) return null;
+        User canonical = users.putIfAbsent(u.id, u);
+        if (null == canonical) { // first time we've seen this user
+            synchronized (u) {
+                u.name = intern(u.name);
+                u.email = intern(u.email);
+                u.sis_user_id = intern(u.sis_user_id);
+                u.login_id = intern(u.login_id);
+            }
+            return u;
+        }
+        if (canonical != u) {
+            synchronized (canonical) {
+                canonical.name = merge(canonical.name, u.name);
+                canonical.email = merge(canonical.email, u.email);
+                canonical.sis_user_id = merge(canonical.sis_user_id, u.sis_user_id);
+                canonical.login_id = merge(canonical.login_id, u.login_id);
+            }
+        }
+        return canonical;
+    }
+
+    /**
+     * @return the canonical instance of g, updated with g's fields. If g has members, they're canonicalized too and
+     * replace the canonical group's members; members that pointed back at g point at the canonical group instead.
+     */
+    public static Group group(Group g) {
+        if (null == g || null == g.id || Data.isNull(g.id)) return g; // e.g., the "group" of an individual submission
+        Group canonical = groups.putIfAbsent(g.id, g);
+        if (null == canonical) {
+            canonical = g;
+            synchronized (canonical) {
+                canonical.name = intern(canonical.name);
+            }
+        } else if (canonical != g) {
+            synchronized (canonical) {
+                canonical.name = merge(canonical.name, g.name);
+            }
+        }
+        if (null != g.members) {
+            User[] members = new User[g.members.length];
+            for (int i = 0; i < members.length; i++) {
+                User m = g.members[i];
+                members[i] = user(m);
+                if (g == m.group || canonical == m.group) {
+                    members[i].group = canonical;
+                }
+            }
+            canonical.members = members;
+        }
+        return canonical;
+    }
+
+    /** @return the canonical instance of each user, in the same order */
+    public static List<User> users(List<User> us) {
+        List<User> canonical = new ArrayList<>(us.size());
+        for (User u : us) {
+            canonical.add(user(u));
+        }
+        return canonical;
+    }
+
+    /** @return the canonical instance of each group, in the same order */
+    public static List<Group> groups(List<Group> gs) {
+        List<Group> canonical = new ArrayList<>(gs.size());
+        for (Group g : gs) {
+            canonical.add(group(g));
+        }
+        return canonical;
+    }
+
+    /** @return the user with the given id, or null if we haven't seen them */
+    public static User user(int id) {
+        return users.get(id);
+    }
+
+    /** @return the group with the given id, or null if we haven't seen it */
+    public static Group group(int id) {
+        return groups.get(id);
+    }
+
+    /** Forget everything, e.g., when switching to another Canvas site */
+    public static void clear() {
+        users.clear();
+        groups.clear();
+        strings.clear();
+    }
+
+    /** @return the value to keep, given the current one and one from a newer copy */
+    private static String merge(String current, String newer) {
+        if (null == newer || Data.isNull(newer) || newer.equals(current)) return current;
+        return intern(newer);
+    }
+
+    /** NB: a pool of our own, rather than String.intern(), so that clear() can drop it */
+    static String intern(String s) {
+        if (null == s || Data.isNull(s)) return s; // NB: keep the null sentinel, it isn't equal to ""
+        String pooled = strings.putIfAbsent(s, s);
+        return null == pooled ? s : pooled;
+    }
+}
@@ -0,0 +1,118 @@
+package canvas;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Waits for Canvas' background jobs, like Progress objects and file uploads from a URL, to finish. Any number of jobs
+ * can be outstanding at once: a single scheduler thread decides when each job is next due to be checked, and the
+ * checks themselves are quick GETs run on Common's async pool. So a job only occupies a thread while one of its
+ * checks is in flight, not while it's waiting.
+ *
+ * Jobs are checked with adaptive backoff. When a job reports how far along it is, we estimate how long it has left
+ * and check again about halfway through that time; otherwise we wait GROWTH times longer after each check, from
+ * MIN_DELAY up to MAX_DELAY. A job that isn't done after MAX_WAIT fails with an IOException.
+ */
+class JobTracker {
+
+    private static final Logger LOG = Logger.getLogger(JobTracker.class.getName());
+
+    static final long MIN_DELAY_MILLIS = 250;
+    static final long MAX_DELAY_MILLIS = 15_000;
+    private static final double GROWTH = 1.5;
+    static final long MAX_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "canvas-jobs");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Something Canvas is doing in the background */
+    interface Job<T> {
+        /**
+         * Ask Canvas how the job is doing.
+         * @return the job's result if it has finished, or null if it's still going
+         * @throws IOException if the job failed, or we couldn't find out
+         */
+        T check() throws IOException;
+
+        /** @return how far along the job was, in percent, at the last check(), or a negative number if unknown */
+        default double completion() {
+            return -1;
+        }
+    }
+
+    private static class Tracked<T> {
+        final String name;
+        final Job<T> job;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final RequestScheduler.Priority priority;
+        final long deadline;
+        long delay = MIN_DELAY_MILLIS;
+        double lastCompletion = -1;
+        long lastCheck;
+
+        Tracked(String name, Job<T> job, RequestScheduler.Priority priority) {
+            this.name = name;
+            this.job = job;
+            this.priority = priority;
+            this.lastCheck = System.currentTimeMillis();
+            this.deadline = lastCheck + MAX_WAIT_MILLIS;
+        }
+    }
+
+    /**
+     * Start tracking a job. Its checks are sent at the caller's RequestScheduler priority.
+     * @param name describes the job, for error messages
+     * @return a future that completes with the job's result. Cancel it to stop tracking the job.
+     */
+    static <T> CompletableFuture<T> track(String name, Job<T> job) {
+        Tracked<T> t = new Tracked<>(name, job, RequestScheduler.getPriority());
+        schedule(t, 0);
+        return t.future;
+    }
+
+    private static <T> void schedule(Tracked<T> t, long delay) {
+        scheduler.schedule(() -> check(t), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /** Runs on the scheduler thread */
+    private static <T> void check(Tracked<T> t) {
+        if (t.future.isDone()) return; // cancelled
+        // NB: supplyAsync() passes this thread's priority on to the check
+        RequestScheduler.setPriority(t.priority);
+        Common.supplyAsync(t.job::check).whenComplete((result, e) -> {
+            if (null != e) {
+                t.future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            } else if (null != result) {
+                t.future.complete(result);
+            } else {
+                long now = System.currentTimeMillis();
+                if (now >= t.deadline) {
+                    t.future.completeExceptionally(new IOException(String.format("%s still isn't done after %d min",
+                            t.name, TimeUnit.MILLISECONDS.toMinutes(MAX_WAIT_MILLIS))));
+                    return;
+                }
+                t.delay = nextDelay(t, now);
+                LOG.fine(() -> String.format("%s not done yet, checking again in %d ms", t.name, t.delay));
+                schedule(t, t.delay);
+            }
+        });
+    }
+
+    private static long nextDelay(Tracked<?> t, long now) {
+        double c = t.job.completion();
+        long delay;
+        if (t.lastCompletion >= 0 && c > t.lastCompletion && c < 100) {
+            double percentPerMilli = (c - t.lastCompletion) / Math.max(1, now - t.lastCheck);
+            delay = (long) ((100 - c) / percentPerMilli / 2);
+        } else {
+            delay = (long) (t.delay * GROWTH);
+        }
+        t.lastCompletion = c;
+        t.lastCheck = now;
+        return Math.max(MIN_DELAY_MILLIS, Math.min(MAX_DELAY_MILLIS, delay));
+    }
+}
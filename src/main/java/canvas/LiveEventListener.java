@@ -0,0 +1,266 @@
+package canvas;
+
+import canvas.apiobjects.LiveEvent;
+import canvas.json.JsonCodecs;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Receives Canvas Live Events about submissions, so that tools can act on a submission as soon as it's made instead
+ * of polling Canvas for new ones. Canvas doesn't deliver events to us directly: a relay of ours takes them from
+ * wherever Canvas delivers them (e.g., an SQS queue, or an HTTPS endpoint that checks the signed JWTs Canvas sends
+ * there against Canvas' public keys) and passes them on either
+ *  - over HTTP: POSTed (to any path) on the port passed to listen(), or
+ *  - via a spool directory: the relay writes each event to its own file there. Files are picked up in name order
+ *    and deleted once read; write them as *.tmp and then rename them to *.json, so we never see half a file.
+ * Events that pass the checks below are queued for take()/drain().
+ *
+ * Events over HTTP must carry an X-Canvas-Signature header with the hex HMAC-SHA256 of the request body, keyed with
+ * LiveEventsSecret from canvas.properties. NB: that's our relay's signature, not Canvas', so don't point a Canvas
+ * subscription at listen()'s port: it would get 401 for everything. Spooled events aren't checked, as only we can
+ * write to the spool. Bodies over MAX_BODY_BYTES are refused before we read them.
+ *
+ * Only submission_created and submission_updated events for a submitted attempt are queued, and each attempt only
+ * once: Canvas delivers events at least once, and sends submission_updated again when a submission is graded (e.g.,
+ * by us). Events from other courses are dropped.
+ *
+ * NB: events can still get lost (e.g., while we're down), so keep polling every so often, just not as often
+ */
+public class LiveEventListener implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(LiveEventListener.class.getName());
+    private static final String SIGNATURE_HEADER = "X-Canvas-Signature";
+    private static final Set<String> EVENT_NAMES =
+            new HashSet<>(Arrays.asList("submission_created", "submission_updated"));
+    /** Live events are a few KB; don't let anyone who can reach our port make us buffer more than this */
+    static final int MAX_BODY_BYTES = 256 * 1024;
+    /** How many attempts we remember having seen, to drop repeats */
+    private static final int SEEN_CAPACITY = 10_000;
+    /** NB: poll rather than use a WatchService, which doesn't see changes made by other hosts to an NFS directory */
+    private static final long SPOOL_POLL_MS = 1000;
+
+    private static volatile String secret;
+
+    private final int courseId;
+    private final BlockingQueue<LiveEvent> events = new LinkedBlockingQueue<>();
+    private final Map<String, Boolean> seen = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SEEN_CAPACITY;
+        }
+    };
+    private HttpServer server;
+    private Thread spooler;
+    private volatile boolean closed = false;
+
+    /**
+     * Read settings from canvas.properties. LiveEventsSecret is the key that our relay signs events over HTTP with.
+     */
+    static void configure(Properties prop) {
+        secret = prop.getProperty("LiveEventsSecret");
+    }
+
+    /** @param courseId the course whose events we want */
+    public LiveEventListener(int courseId) {
+        this.courseId = courseId;
+    }
+
+    /** Start accepting events over HTTP on the given port (0 picks a free one, see port()) */
+    public synchronized LiveEventListener listen(int port) throws IOException {
+        if (null == secret) {
+            throw new IllegalStateException("LiveEventsSecret must be set in canvas.properties to receive events over HTTP");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 16);
+        server.createContext("/", this::serve);
+        server.start();
+        LOG.info("listening for live events on port " + port());
+        return this;
+    }
+
+    /** Start picking up events from the given spool directory, creating it if need be */
+    public synchronized LiveEventListener watch(Path spool) throws IOException {
+        Files.createDirectories(spool.resolve("rejected"));
+        spooler = new Thread(() -> {
+            while (!closed) {
+                try {
+                    readSpool(spool);
+                    Thread.sleep(SPOOL_POLL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    LOG.warning(Common.t2s(e, "problem reading live events spool " + spool));
+                }
+            }
+        }, "live-events-spool");
+        spooler.setDaemon(true);
+        spooler.start();
+        LOG.info("watching for live events in " + spool);
+        return this;
+    }
+
+    /** @return the port we're listening on for events over HTTP */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** @return the next event, waiting for one if need be */
+    public LiveEvent take() throws InterruptedException {
+        return events.take();
+    }
+
+    /** @return the next event, or null if none arrives within the timeout */
+    public LiveEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return events.poll(timeout, unit);
+    }
+
+    /** @return all the events queued so far, without waiting */
+    public List<LiveEvent> drain() {
+        List<LiveEvent> es = new ArrayList<>();
+        events.drainTo(es);
+        return es;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (null != server) server.stop(0);
+        if (null != spooler) spooler.interrupt();
+    }
+
+    private void serve(HttpExchange x) throws IOException {
+        try {
+            if (!"POST".equals(x.getRequestMethod())) {
+                x.sendResponseHeaders(405, -1);
+                return;
+            }
+            String length = x.getRequestHeaders().getFirst("Content-Length");
+            if (null != length && tooLong(length)) {
+                x.sendResponseHeaders(413, -1);
+                return;
+            }
+            byte[] body;
+            try (InputStream in = x.getRequestBody()) {
+                // NB: a chunked body has no Content-Length, so stop reading just past the limit
+                body = IOUtils.toByteArray(new BoundedInputStream(in, MAX_BODY_BYTES + 1));
+            }
+            if (body.length > MAX_BODY_BYTES) {
+                x.sendResponseHeaders(413, -1);
+                return;
+            }
+            if (!signedCorrectly(body, x.getRequestHeaders().getFirst(SIGNATURE_HEADER))) {
+                LOG.warning("dropping live event with a bad signature from " + x.getRemoteAddress());
+                x.sendResponseHeaders(401, -1);
+                return;
+            }
+            try {
+                offer(JsonCodecs.parse(body, LiveEvent.class));
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.warning(Common.t2s(e, "malformed live event"));
+                x.sendResponseHeaders(400, -1);
+                return;
+            }
+            // NB: dropped events are still acknowledged, otherwise Canvas would just send them again
+            x.sendResponseHeaders(204, -1);
+        } finally {
+            x.close();
+        }
+    }
+
+    private static boolean tooLong(String contentLength) {
+        try {
+            return Long.parseLong(contentLength.trim()) > MAX_BODY_BYTES;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static boolean signedCorrectly(byte[] body, String signature) {
+        if (null == signature) return false;
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] expected = hex(mac.doFinal(body)).getBytes(StandardCharsets.US_ASCII);
+            // NB: constant-time comparison
+            return MessageDigest.isEqual(expected, signature.trim().toLowerCase().getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private void readSpool(Path spool) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(spool, "*.json")) {
+            ds.forEach(files::add);
+        }
+        Collections.sort(files);
+        for (Path f : files) {
+            try {
+                offer(JsonCodecs.parse(Files.readAllBytes(f), LiveEvent.class));
+                Files.delete(f);
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.warning(Common.t2s(e, "malformed live event in " + f));
+                Files.move(f, spool.resolve("rejected").resolve(f.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Queue e if it's one we want, and we haven't seen it before
+     * @throws IllegalArgumentException if e isn't a live event at all
+     */
+    private void offer(LiveEvent e) {
+        if (null == e.metadata || null == e.body) {
+            throw new IllegalArgumentException("not a live event");
+        }
+        if (!EVENT_NAMES.contains(e.metadata.event_name)
+                || null == e.body.submission_id || null == e.body.assignment_id || null == e.body.user_id) {
+            LOG.fine("ignoring live event " + e.metadata.event_name);
+            return;
+        }
+        // NB: events for requests made outside any course (e.g., some API calls) have no context
+        if ("Course".equals(e.metadata.context_type) && null != e.metadata.context_id
+                && courseId != LiveEvent.localId(e.metadata.context_id)) {
+            LOG.fine("ignoring live event from another course: " + e);
+            return;
+        }
+        if (!"submitted".equals(e.body.workflow_state) || null == e.body.submitted_at) {
+            LOG.fine("ignoring live event for an unsubmitted submission: " + e);
+            return;
+        }
+        String attempt = e.body.submission_id + "/" + e.body.attempt;
+        synchronized (seen) {
+            if (null != seen.put(attempt, Boolean.TRUE)) {
+                LOG.fine("ignoring repeated live event: " + e);
+                return;
+            }
+        }
+        LOG.info("received " + e);
+        events.add(e);
+    }
+}
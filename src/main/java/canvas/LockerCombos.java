@@ -49,6 +49,7 @@ public class LockerCombos {
 
     public static void main(String[] args) throws IOException {
         Common.setup();
+        RequestScheduler.setPriority(RequestScheduler.Priority.BULK);
 
         // assign lockers to students in round-robin order
 
@@ -67,7 +68,7 @@ public class LockerCombos {
             conv.body = String.format("Your ZedBoard locker is #%d. The combo is %s.", lockerNum, combo);
             //System.out.format("%s %s %n", conv.recipients.toString(), conv.body);
             GenericUrl post = new GenericUrl(Common.BASE_URL + "conversations");
-            Common.postJSON(post, conv, null);
+            Common.postJSON(post, conv, null).ignore();
 
             lockerIndex = (lockerIndex+1) % COMBOS.length;
         }
@@ -96,7 +97,7 @@ public class LockerCombos {
             //JsonHttpContent content = new JsonHttpContent(new GsonFactory(), conv);
             System.out.format("%s %s %n", groupMembers.toString(), conv.body);
             GenericUrl post = new GenericUrl(Common.BASE_URL + "conversations");
-            Common.postJSON(post, conv, null);
+            Common.postJSON(post, conv, null).ignore();
 
             nextFreeComboIdx++;
         }
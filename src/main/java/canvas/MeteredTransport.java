@@ -0,0 +1,200 @@
+package canvas;
+
+import canvas.transport.CanvasTransport;
+import canvas.transport.PoolStats;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps the real CanvasTransport to feed ApiMetrics. Latency is measured until the response headers arrive, and
+ * bytes are counted as the transport hands them to us (so, after decompression for the Apache transport).
+ */
+class MeteredTransport extends CanvasTransport {
+
+    private final CanvasTransport delegate;
+
+    MeteredTransport(CanvasTransport delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean supportsMethod(String method) throws IOException {
+        return delegate.supportsMethod(method);
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new MeteredRequest(delegate.open(method, url), ApiMetrics.endpointOf(url));
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return delegate.getPoolStats();
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        delegate.shutdown();
+    }
+
+    private static class MeteredRequest extends LowLevelHttpRequest {
+        private final LowLevelHttpRequest delegate;
+        private final ApiMetrics.Endpoint endpoint;
+
+        MeteredRequest(LowLevelHttpRequest delegate, ApiMetrics.Endpoint endpoint) {
+            this.delegate = delegate;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void addHeader(String name, String value) throws IOException {
+            delegate.addHeader(name, value);
+        }
+
+        @Override
+        public void setTimeout(int connectTimeout, int readTimeout) throws IOException {
+            delegate.setTimeout(connectTimeout, readTimeout);
+        }
+
+        @Override
+        public void setWriteTimeout(int writeTimeout) throws IOException {
+            delegate.setWriteTimeout(writeTimeout);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            final StreamingContent content = getStreamingContent();
+            if (null != content) {
+                delegate.setContentType(getContentType());
+                delegate.setContentEncoding(getContentEncoding());
+                delegate.setContentLength(getContentLength());
+                delegate.setStreamingContent(os -> content.writeTo(new FilterOutputStream(os) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        endpoint.bytesOut.increment();
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                        endpoint.bytesOut.add(len);
+                    }
+                }));
+            }
+
+            final long start = System.nanoTime();
+            final LowLevelHttpResponse response;
+            try {
+                response = delegate.execute();
+            } catch (IOException | RuntimeException e) {
+                endpoint.errors.increment();
+                throw e;
+            }
+            endpoint.latency.record((System.nanoTime() - start) / 1e6);
+            if (response.getStatusCode() >= 400) {
+                endpoint.errors.increment();
+            }
+            for (int i = 0; i < response.getHeaderCount(); i++) {
+                String name = response.getHeaderName(i);
+                if ("Link".equalsIgnoreCase(name)) {
+                    endpoint.pages.increment();
+                } else if ("X-Request-Cost".equalsIgnoreCase(name)) {
+                    try {
+                        endpoint.cost.add(Double.parseDouble(response.getHeaderValue(i)));
+                    } catch (NumberFormatException e) {
+                        // not worth failing the request over
+                    }
+                }
+            }
+            return new MeteredResponse(response, endpoint);
+        }
+    }
+
+    private static class MeteredResponse extends LowLevelHttpResponse {
+        private final LowLevelHttpResponse delegate;
+        private final ApiMetrics.Endpoint endpoint;
+
+        MeteredResponse(LowLevelHttpResponse delegate, ApiMetrics.Endpoint endpoint) {
+            this.delegate = delegate;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            InputStream in = delegate.getContent();
+            if (null == in) return null;
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = in.read();
+                    if (b >= 0) endpoint.bytesIn.increment();
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = in.read(b, off, len);
+                    if (n > 0) endpoint.bytesIn.add(n);
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public String getContentEncoding() throws IOException {
+            return delegate.getContentEncoding();
+        }
+
+        @Override
+        public long getContentLength() throws IOException {
+            return delegate.getContentLength();
+        }
+
+        @Override
+        public String getContentType() throws IOException {
+            return delegate.getContentType();
+        }
+
+        @Override
+        public String getStatusLine() throws IOException {
+            return delegate.getStatusLine();
+        }
+
+        @Override
+        public int getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getReasonPhrase() throws IOException {
+            return delegate.getReasonPhrase();
+        }
+
+        @Override
+        public int getHeaderCount() throws IOException {
+            return delegate.getHeaderCount();
+        }
+
+        @Override
+        public String getHeaderName(int index) throws IOException {
+            return delegate.getHeaderName(index);
+        }
+
+        @Override
+        public String getHeaderValue(int index) throws IOException {
+            return delegate.getHeaderValue(index);
+        }
+
+        @Override
+        public void disconnect() throws IOException {
+            delegate.disconnect();
+        }
+    }
+}
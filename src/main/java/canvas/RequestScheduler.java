@@ -0,0 +1,252 @@
+package canvas;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Every Canvas API request goes through here (via Common.execute()), so that all of the requests made with a given
+ * token share a view of that token's rate-limit bucket. Failed requests are retried here too, see RetryPolicy and
+ * CircuitBreaker.
+ *
+ * Canvas meters each token with a leaky bucket: each response reports the request's cost (X-Request-Cost) and
+ * how much quota is left (X-Rate-Limit-Remaining), and once the bucket runs dry Canvas answers with
+ * "403 Forbidden (Rate Limit Exceeded)". See https://canvas.instructure.com/doc/api/file.throttling.html
+ *
+ * We adapt the number of concurrent requests per token with AIMD: grow by roughly one request per round trip while
+ * there's plenty of quota, and halve when quota runs low or we get throttled. Lower-priority traffic also keeps a
+ * larger reserve of quota in hand, so that a bulk script can't starve the autograder or someone at the keyboard.
+ */
+public class RequestScheduler {
+
+    /** Requests from higher priorities (earlier in this list) always go first. */
+    public enum Priority {
+        /** someone is waiting at the keyboard, e.g., Common.pickAssignment() */
+        INTERACTIVE(0),
+        /** autograder traffic: fetching submissions, posting grades */
+        GRADING(100),
+        /** long-running scripts that touch every student */
+        BULK(300);
+
+        /** quota units this priority leaves untouched for higher-priority requests */
+        final double reserve;
+
+        Priority(double reserve) {
+            this.reserve = reserve;
+        }
+    }
+
+    /** Canvas' bucket size (as of 2020) */
+    private static final double BUCKET_CAPACITY = 700.0;
+    /** Rate at which the bucket refills, in quota units per second */
+    private static final double REFILL_PER_SECOND = 10.0;
+    /** Below this much remaining quota, we back off */
+    private static final double LOW_WATER = 150.0;
+    private static final double MIN_CONCURRENCY = 1.0;
+    private static final double MAX_CONCURRENCY = 32.0;
+    private static final double INITIAL_CONCURRENCY = 4.0;
+    /** How many times to re-send a request that Canvas throttled */
+    private static final int MAX_THROTTLED_ATTEMPTS = 5;
+
+    private static final ThreadLocal<Priority> currentPriority = ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+    private static final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /** Set the priority of subsequent requests made from the calling thread. */
+    public static void setPriority(Priority p) {
+        currentPriority.set(p);
+    }
+
+    /** @return the priority of requests made from the calling thread */
+    public static Priority getPriority() {
+        return currentPriority.get();
+    }
+
+    /**
+     * Execute the given request once we have room under its token's rate limit, retrying it if Canvas throttles it
+     * anyway, or if it fails transiently and RetryPolicy says it's safe to send again. Throws HttpResponseException
+     * on an error response, just like HttpRequest.execute(), or CircuitBreaker.OpenException if the request's host
+     * has been failing.
+     * @param idempotent true if request is safe to repeat even though its method (i.e., POST) says otherwise
+     */
+    static HttpResponse execute(HttpRequest request, Priority priority, boolean idempotent) throws IOException {
+        final String token = request.getHeaders().getAuthorization();
+        // no token means it's not an API request, e.g., step 2 of a file upload, so it doesn't count against our quota
+        final Bucket bucket = null == token ? null : buckets.computeIfAbsent(token, t -> new Bucket());
+        final CircuitBreaker breaker = CircuitBreaker.forHost(request.getUrl().getHost());
+        final boolean throwOnError = request.getThrowExceptionOnExecuteError();
+        request.setThrowExceptionOnExecuteError(false);
+
+        // NB: the breaker hears how the request turned out, not how each attempt did (see CircuitBreaker)
+        final boolean probe = breaker.before();
+        Boolean failed = null;
+        try {
+            int throttled = 0;
+            for (int attempt = 1; ; attempt++) {
+                HttpResponse response = null;
+                IOException failure = null;
+                if (null != bucket) bucket.acquire(priority);
+                try {
+                    response = request.execute();
+                } catch (IOException e) {
+                    if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) throw e;
+                    failure = e;
+                } finally {
+                    if (null != bucket) bucket.release(response);
+                }
+                failed = RetryPolicy.isTransient(response, failure);
+
+                if (isThrottled(response) && ++throttled < MAX_THROTTLED_ATTEMPTS) {
+                    response.ignore();
+                    ApiMetrics.retry(request.getUrl().build());
+                    attempt--; // Canvas didn't act on the request, so it's safe to send it again
+                    failed = null;
+                    continue;
+                }
+                long delay = RetryPolicy.delayBeforeRetry(request, response, failure, attempt, idempotent);
+                if (delay >= 0) {
+                    if (null != response) response.ignore();
+                    ApiMetrics.retry(request.getUrl().build());
+                    failed = null; // we don't know yet
+                    sleep(delay);
+                    continue;
+                }
+
+                if (null != failure) throw failure;
+                if (throwOnError && !response.isSuccessStatusCode()) {
+                    throw new HttpResponseException(response);
+                }
+                return response;
+            }
+        } finally {
+            breaker.after(probe, failed);
+            request.setThrowExceptionOnExecuteError(throwOnError);
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting to retry a request");
+        }
+    }
+
+    static boolean isThrottled(HttpResponse response) {
+        if (null == response || 403 != response.getStatusCode()) return false;
+        String msg = response.getStatusMessage();
+        Double r = remainingQuota(response);
+        return (null != msg && msg.contains("Rate Limit Exceeded")) || (null != r && r <= 0.0);
+    }
+
+    private static Double remainingQuota(HttpResponse response) {
+        return headerAsDouble(response, "X-Rate-Limit-Remaining");
+    }
+
+    static Double headerAsDouble(HttpResponse response, String name) {
+        String s = response.getHeaders().getFirstHeaderStringValue(name);
+        if (null == s) return null;
+        try {
+            return Double.valueOf(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Rate-limit state for a single token.
+     * NB: guarded by a ReentrantLock rather than synchronized, so that requests waiting here on a virtual thread
+     * don't hold on to its carrier thread (see BlockingExecutors)
+     */
+    private static class Bucket {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        /** estimated quota remaining, as of lastUpdate */
+        private double remaining = BUCKET_CAPACITY;
+        private long lastUpdate = System.nanoTime();
+        /** AIMD concurrency limit */
+        private double limit = INITIAL_CONCURRENCY;
+        private int inFlight = 0;
+        /** cost of the most recent request, our guess for what the next one will cost */
+        private double lastCost = 1.0;
+        private final int[] waiting = new int[Priority.values().length];
+
+        void acquire(Priority p) throws InterruptedIOException {
+            lock.lock();
+            try {
+                waiting[p.ordinal()]++;
+                try {
+                    while (!mayProceed(p)) {
+                        // quota refills over time even if no responses arrive to tell us so, so don't wait forever
+                        changed.await(100, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for Canvas rate limit");
+                } finally {
+                    waiting[p.ordinal()]--;
+                }
+                inFlight++;
+                remaining -= lastCost;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean mayProceed(Priority p) {
+            for (int higher = 0; higher < p.ordinal(); higher++) {
+                if (waiting[higher] > 0) return false;
+            }
+            refill();
+            if (inFlight >= Math.floor(limit)) return false;
+            // a lone request can dip into the reserve, otherwise we'd never learn that the bucket has refilled
+            return remaining > (0 == inFlight ? 0.0 : p.reserve);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            remaining = Math.min(BUCKET_CAPACITY, remaining + REFILL_PER_SECOND * (now - lastUpdate) / 1e9);
+            lastUpdate = now;
+        }
+
+        void release(HttpResponse response) {
+            lock.lock();
+            try {
+                inFlight--;
+                if (null != response) {
+                    Double r = remainingQuota(response);
+                    if (null != r) {
+                        remaining = r;
+                        lastUpdate = System.nanoTime();
+                    } else if (isThrottled(response)) {
+                        // NB: Canvas didn't say how far over we are, so assume by a request's worth, and wait for the
+                        // bucket to refill that much before we try again
+                        remaining = -lastCost;
+                        lastUpdate = System.nanoTime();
+                    }
+                    Double cost = headerAsDouble(response, "X-Request-Cost");
+                    if (null != cost) {
+                        lastCost = cost;
+                    }
+                    if (isThrottled(response) || remaining < LOW_WATER) {
+                        limit = Math.max(MIN_CONCURRENCY, limit / 2.0);
+                    } else {
+                        limit = Math.min(MAX_CONCURRENCY, limit + 1.0 / limit);
+                    }
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
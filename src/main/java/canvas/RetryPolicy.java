@@ -0,0 +1,102 @@
+package canvas;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether (and when) RequestScheduler should re-send a request that failed with a transient error: a 5xx
+ * response or an I/O error like a connection reset.
+ *
+ * Idempotent requests (GET, PUT, DELETE, ...) are retried with exponential backoff and jitter, or after the
+ * delay the server asks for with Retry-After. A POST is only retried when we know Canvas never saw it, e.g.,
+ * when we couldn't connect at all, since otherwise we might, say, post the same comment twice. Callers that know
+ * a POST is safe to repeat can use Common.executeIdempotent().
+ */
+class RetryPolicy {
+
+    /** Total attempts per request, including the first one */
+    static final int MAX_ATTEMPTS = 5;
+    private static final Duration BASE_DELAY = Duration.ofMillis(500);
+    private static final Duration MAX_DELAY = Duration.ofSeconds(30);
+    /** If the server wants us to wait longer than this, give up instead of tying up a thread */
+    private static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(2);
+
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<>(Arrays.asList(
+            "GET", "HEAD", "OPTIONS", "PUT", "DELETE"));
+    private static final Set<Integer> TRANSIENT_STATUSES = new HashSet<>(Arrays.asList(500, 502, 503, 504));
+
+    /** @return true if the failure suggests the server (or the network to it) is in trouble */
+    static boolean isTransient(HttpResponse response, IOException failure) {
+        if (null != failure) {
+            // NB: SocketTimeoutException is an InterruptedIOException, but not a real interrupt
+            return !(failure instanceof InterruptedIOException) || failure instanceof SocketTimeoutException;
+        }
+        return TRANSIENT_STATUSES.contains(response.getStatusCode());
+    }
+
+    /** @return true if the request certainly never reached the server, so it's safe to send it again */
+    private static boolean neverArrived(HttpResponse response, IOException failure) {
+        if (null != failure) {
+            return failure instanceof ConnectException || failure instanceof NoRouteToHostException
+                    || failure instanceof UnknownHostException;
+        }
+        return 429 == response.getStatusCode(); // Too Many Requests
+    }
+
+    /**
+     * @param response the response to the latest attempt, or null if it failed with an exception
+     * @param failure the exception from the latest attempt, or null if we got a response
+     * @param attempt how many times we've sent request so far
+     * @param idempotent whether the caller has said request is safe to repeat, regardless of its method
+     * @return how many ms to wait before retrying request, or -1 if it shouldn't be retried
+     */
+    static long delayBeforeRetry(HttpRequest request, HttpResponse response, IOException failure, int attempt,
+                                 boolean idempotent) {
+        if (attempt >= MAX_ATTEMPTS) return -1;
+        if (null != request.getContent() && !request.getContent().retrySupported()) return -1;
+
+        boolean neverArrived = neverArrived(response, failure);
+        if (!neverArrived && !isTransient(response, failure)) return -1;
+        if (!neverArrived && !idempotent && !IDEMPOTENT_METHODS.contains(request.getRequestMethod())) return -1;
+
+        Duration retryAfter = null == response ? null : retryAfter(response);
+        if (null != retryAfter) {
+            return retryAfter.compareTo(MAX_RETRY_AFTER) > 0 ? -1 : retryAfter.toMillis();
+        }
+        // exponential backoff with "equal jitter", so that threads that failed together don't retry together
+        long cap = Math.min(MAX_DELAY.toMillis(), BASE_DELAY.toMillis() << Math.min(attempt - 1, 20));
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
+
+    /** @return the delay requested by response's Retry-After header (in seconds, or as a date), or null if none */
+    static Duration retryAfter(HttpResponse response) {
+        String s = response.getHeaders().getFirstHeaderStringValue("Retry-After");
+        if (null == s) return null;
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(s.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Duration d = Duration.between(ZonedDateTime.now(),
+                        ZonedDateTime.parse(s.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return d.isNegative() ? Duration.ZERO : d;
+            } catch (DateTimeParseException e2) {
+                return null;
+            }
+        }
+    }
+}
@@ -89,7 +89,6 @@ public class SetCourseCalendar {
     private static final String AUTOGEN_TAG = "[auto-generated]";
     private static final int THE_YEAR = 2020;
     private static final String TIMEZONE = "America/New_York";
-    private static final Calendar OH_CAL = new Calendar();
     private static final String COURSE_NUMBER = "371";
     private static final String OH_ICAL_FILE = "cis"+COURSE_NUMBER+"oh.ics";
 
@@ -182,9 +181,11 @@ public class SetCourseCalendar {
         Common.setup();
 
         // setup OH calendar
-        OH_CAL.getProperties().add(new ProdId("-//CIS "+COURSE_NUMBER+" Office Hours//iCal4j 1.0//EN"));
-        OH_CAL.getProperties().add(Version.VERSION_2_0);
-        OH_CAL.getProperties().add(CalScale.GREGORIAN);
+        // NB: not static, so that running us again in a Daemon doesn't add everything to the calendar twice
+        final Calendar ohCal = new Calendar();
+        ohCal.getProperties().add(new ProdId("-//CIS "+COURSE_NUMBER+" Office Hours//iCal4j 1.0//EN"));
+        ohCal.getProperties().add(Version.VERSION_2_0);
+        ohCal.getProperties().add(CalScale.GREGORIAN);
         UidGenerator ug = new FixedUidGenerator("uidGen");
         // magic to disable ical4j's fancy tz caching: https://github.com/ical4j/ical4j/issues/195
         System.setProperty("net.fortuna.ical4j.timezone.cache.impl", MapTimeZoneCache.class.getName());
@@ -218,7 +219,7 @@ public class SetCourseCalendar {
                 try {
                     HttpRequest request = Common.requestFactory.buildDeleteRequest(url);
                     request.getHeaders().setAuthorization(Common.TOKEN);
-                    request.execute();
+                    Common.execute(request).ignore();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -265,7 +266,7 @@ public class SetCourseCalendar {
                     oh.getProperties().add(place);
                     oh.getProperties().add(ug.generateUid());
                     oh.getProperties().add(tz.getTimeZoneId());
-                    OH_CAL.getComponents().add(oh);
+                    ohCal.getComponents().add(oh);
                 }
             }
 
@@ -283,11 +284,11 @@ public class SetCourseCalendar {
         }
         assert cti == CLASS_TOPICS.length : "only consumed " + cti + " of " + CLASS_TOPICS.length + " class topics!";
 
-        if (0 != OH_CAL.getComponents().size()) {
+        if (0 != ohCal.getComponents().size()) {
             // write out the OH calendar
             FileOutputStream fout = new FileOutputStream(OH_ICAL_FILE);
             CalendarOutputter outputter = new CalendarOutputter();
-            outputter.output(OH_CAL, fout);
+            outputter.output(ohCal, fout);
         }
     }
 
@@ -320,7 +321,7 @@ public class SetCourseCalendar {
         try {
             HttpRequest request = Common.requestFactory.buildPostRequest(url, content);
             request.getHeaders().setAuthorization(Common.TOKEN);
-            request.execute();
+            Common.execute(request).ignore();
         } catch (IOException e) {
             e.printStackTrace();
         }
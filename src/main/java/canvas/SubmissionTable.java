@@ -0,0 +1,310 @@
+package canvas;
+
+import canvas.apiobjects.Attachment;
+import canvas.apiobjects.Submission;
+import com.google.api.client.util.Data;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Submissions stored by column, in primitive arrays, for scans over many of them, e.g., a whole term's history:
+ * finding the latest submission from each student or group, the late ones, or groups whose members' scores differ.
+ * Timestamps are parsed once, on the way in, to epoch seconds; strings are dictionary-encoded.
+ *
+ * Rows are numbered in the order they were added, so row i of SubmissionTable.of(list) is list.get(i), e.g., for
+ * the fields we don't keep here like submission_comments. Scans take the row number, and read columns through this
+ * table's accessors, so they don't allocate per row.
+ *
+ * NB: not thread-safe. Missing values are NO_TIME for timestamps, NaN for scores, NO_GROUP for the group and 0 for
+ * the attempt.
+ */
+public class SubmissionTable {
+
+    public static final long NO_TIME = Long.MIN_VALUE;
+    public static final int NO_GROUP = 0;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size = 0;
+    private int[] userId = new int[INITIAL_CAPACITY];
+    private int[] assignmentId = new int[INITIAL_CAPACITY];
+    private int[] groupId = new int[INITIAL_CAPACITY];
+    private int[] attempt = new int[INITIAL_CAPACITY];
+    private int[] secondsLate = new int[INITIAL_CAPACITY];
+    private double[] score = new double[INITIAL_CAPACITY];
+    private long[] submittedAt = new long[INITIAL_CAPACITY];
+    private long[] gradedAt = new long[INITIAL_CAPACITY];
+    /** codes into strings */
+    private int[] groupName = new int[INITIAL_CAPACITY];
+    private int[] attachmentName = new int[INITIAL_CAPACITY];
+
+    private final Dictionary strings = new Dictionary();
+
+    /** Distinct strings, each stored once and referred to by its code */
+    private static class Dictionary {
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        Dictionary() {
+            values.add(null); // code 0 is for a missing string
+        }
+
+        int encode(String s) {
+            if (null == s || Data.isNull(s)) return 0;
+            Integer c = codes.get(s);
+            if (null == c) {
+                c = values.size();
+                values.add(s);
+                codes.put(s, c);
+            }
+            return c;
+        }
+
+        String decode(int code) {
+            return values.get(code);
+        }
+    }
+
+    /** @return a table of the given submissions, with row i holding subs.get(i) */
+    public static SubmissionTable of(Collection<Submission> subs) {
+        SubmissionTable t = new SubmissionTable();
+        for (Submission s : subs) {
+            t.add(s);
+        }
+        return t;
+    }
+
+    public static SubmissionTable of(Submission[] subs) {
+        return of(Arrays.asList(subs));
+    }
+
+    /** Append a submission as a new row */
+    public void add(Submission s) {
+        if (size == userId.length) {
+            grow();
+        }
+        userId[size] = s.user_id;
+        assignmentId[size] = s.assignment_id;
+        boolean grouped = null != s.group && null != s.group.id && !Data.isNull(s.group.id);
+        groupId[size] = grouped ? s.group.id : NO_GROUP;
+        groupName[size] = grouped ? strings.encode(s.group.name) : 0;
+        attempt[size] = null == s.attempt || Data.isNull(s.attempt) ? 0 : s.attempt;
+        secondsLate[size] = s.seconds_late;
+        score[size] = null == s.score || Data.isNull(s.score) ? Double.NaN : s.score;
+        submittedAt[size] = epochSecond(s.submitted_at_string);
+        gradedAt[size] = epochSecond(s.graded_at_string);
+        Attachment[] as = s.attachments;
+        attachmentName[size] = null == as || Data.isNull(as) || 0 == as.length ? 0 : strings.encode(as[0].filename);
+        size++;
+    }
+
+    private void grow() {
+        int n = userId.length * 2;
+        userId = Arrays.copyOf(userId, n);
+        assignmentId = Arrays.copyOf(assignmentId, n);
+        groupId = Arrays.copyOf(groupId, n);
+        attempt = Arrays.copyOf(attempt, n);
+        secondsLate = Arrays.copyOf(secondsLate, n);
+        score = Arrays.copyOf(score, n);
+        submittedAt = Arrays.copyOf(submittedAt, n);
+        gradedAt = Arrays.copyOf(gradedAt, n);
+        groupName = Arrays.copyOf(groupName, n);
+        attachmentName = Arrays.copyOf(attachmentName, n);
+    }
+
+    /** @return the timestamp as epoch seconds, or NO_TIME if it's missing or malformed */
+    public static long epochSecond(String ts) {
+        if (null == ts || ts.isEmpty()) return NO_TIME; // NB: also the null sentinel for a JSON null
+        try {
+            return Instant.parse(ts).getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return NO_TIME;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int userId(int row) {
+        return userId[row];
+    }
+
+    public int assignmentId(int row) {
+        return assignmentId[row];
+    }
+
+    public int groupId(int row) {
+        return groupId[row];
+    }
+
+    public int attempt(int row) {
+        return attempt[row];
+    }
+
+    public int secondsLate(int row) {
+        return secondsLate[row];
+    }
+
+    public double score(int row) {
+        return score[row];
+    }
+
+    public long submittedAt(int row) {
+        return submittedAt[row];
+    }
+
+    public long gradedAt(int row) {
+        return gradedAt[row];
+    }
+
+    public String groupName(int row) {
+        return strings.decode(groupName[row]);
+    }
+
+    /** @return the file name of the submission's first attachment, or null if there isn't one */
+    public String attachmentName(int row) {
+        return strings.decode(attachmentName[row]);
+    }
+
+    /** @return the rows that pass filter, in order */
+    public int[] select(IntPredicate filter) {
+        int[] rows = new int[16];
+        int n = 0;
+        for (int r = 0; r < size; r++) {
+            if (filter.test(r)) {
+                if (n == rows.length) rows = Arrays.copyOf(rows, n * 2);
+                rows[n++] = r;
+            }
+        }
+        return Arrays.copyOf(rows, n);
+    }
+
+    /**
+     * Find the latest submission from each student, group, etc.
+     * @param filter which rows to consider, e.g., those for one assignment
+     * @param keyOfRow what to group rows by, e.g., this::userId
+     * @return key => row of the latest submission (by submitted_at) with that key. Rows that weren't submitted
+     * are left out.
+     */
+    public IntIntMap latestBy(IntPredicate filter, IntUnaryOperator keyOfRow) {
+        IntIntMap latest = new IntIntMap();
+        for (int r = 0; r < size; r++) {
+            if (NO_TIME == submittedAt[r] || !filter.test(r)) continue;
+            int key = keyOfRow.applyAsInt(r);
+            int existing = latest.get(key, -1);
+            if (-1 == existing || submittedAt[r] > submittedAt[existing]) {
+                latest.put(key, r);
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * @param filter which rows to consider, e.g., those for one assignment
+     * @param groupOfRow the group each row belongs to, e.g., this::groupId
+     * @return the groups whose rows don't all have the same score, in order of first appearance
+     */
+    public int[] scoreMismatches(IntPredicate filter, IntUnaryOperator groupOfRow) {
+        IntIntMap first = new IntIntMap(); // group => its first row
+        IntIntMap mismatched = new IntIntMap(); // group => 1
+        int[] groups = new int[16];
+        int n = 0;
+        for (int r = 0; r < size; r++) {
+            if (!filter.test(r)) continue;
+            int g = groupOfRow.applyAsInt(r);
+            int f = first.get(g, -1);
+            if (-1 == f) {
+                first.put(g, r);
+            } else if (0 != Double.compare(score[f], score[r]) && !mismatched.containsKey(g)) {
+                mismatched.put(g, 1);
+                if (n == groups.length) groups = Arrays.copyOf(groups, n * 2);
+                groups[n++] = g;
+            }
+        }
+        return Arrays.copyOf(groups, n);
+    }
+
+    /** A map from int to int, without boxing. Open addressing with linear probing. */
+    public static final class IntIntMap {
+        private static final int EMPTY = Integer.MIN_VALUE;
+
+        private int[] keys = new int[64];
+        private int[] values = new int[64];
+        private int size = 0;
+
+        public IntIntMap() {
+            Arrays.fill(keys, EMPTY);
+        }
+
+        /** NB: Integer.MIN_VALUE can't be used as a key */
+        public void put(int key, int value) {
+            if (EMPTY == key) throw new IllegalArgumentException("unsupported key " + key);
+            if (2 * (size + 1) > keys.length) rehash();
+            int i = slot(keys, key);
+            if (EMPTY == keys[i]) {
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        public int get(int key, int missing) {
+            int i = slot(keys, key);
+            return EMPTY == keys[i] ? missing : values[i];
+        }
+
+        public boolean containsKey(int key) {
+            return EMPTY != keys[slot(keys, key)];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /** @return the keys, in no particular order */
+        public int[] keys() {
+            int[] ks = new int[size];
+            int n = 0;
+            for (int k : keys) {
+                if (EMPTY != k) ks[n++] = k;
+            }
+            return ks;
+        }
+
+        /** @return the values, in the same order as keys() */
+        public int[] values() {
+            int[] vs = new int[size];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (EMPTY != keys[i]) vs[n++] = values[i];
+            }
+            return vs;
+        }
+
+        private static int slot(int[] keys, int key) {
+            int mask = keys.length - 1;
+            int i = (key * 0x9E3779B9) >>> 7 & mask; // NB: spread ids that differ only in their low bits
+            while (EMPTY != keys[i] && key != keys[i]) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void rehash() {
+            int[] oldKeys = keys, oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (EMPTY == oldKeys[i]) continue;
+                int j = slot(keys, oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -22,7 +22,6 @@ class UploadAssignmentGrades {
 
     private static String ASSIGNMENT_ID = null;
     private final static boolean DEBUG = false;
-    private final static int MAX_POLL_ATTEMPTS = 10;
     private final static String UPLOADED_FILE_PATH = "etc/501testoutput.txt";
 
     static void sanityCheck() throws IOException {
@@ -37,7 +36,7 @@ class UploadAssignmentGrades {
         String proceed = scanner.next();
         if (!proceed.equals("y")) {
             System.out.println("Exiting...");
-            System.exit(1);
+            Common.exit(1);
         }
     }
 
@@ -61,6 +60,7 @@ class UploadAssignmentGrades {
 
         Common.setup();
         ASSIGNMENT_ID = Common.pickAssignment("Homework");
+        RequestScheduler.setPriority(RequestScheduler.Priority.BULK);
 
         Map<String, AuxGrade> auxScores = new HashMap<>();
         if (AUX_CSV_FILE != null) {
@@ -156,28 +156,11 @@ class UploadAssignmentGrades {
         UrlEncodedContent content = new UrlEncodedContent(map);
         request = requestFactory.buildPostRequest(url, content);
         request.getHeaders().setAuthorization(TOKEN);
-        response = request.execute();
+        response = Common.execute(request);
         UploadHandleURL handle = response.parseAs(UploadHandleURL.class);
 
-        // Step 2: poll the status URL until the upload completes
-
-        for (int i = 0; i < MAX_POLL_ATTEMPTS; i++) {
-            response = Common.get(new GenericUrl(handle.status_url));
-            StatusResponse status = response.parseAs(StatusResponse.class);
-            switch (status.upload_status) {
-                case "ready":
-                    i = MAX_POLL_ATTEMPTS; // exit loop
-                    break;
-                case "errored":
-                    throw new IllegalArgumentException(status.upload_status + " " + status.message);
-                case "pending":
-                    break;
-                default:
-                    throw new IllegalArgumentException(status.upload_status);
-            }
-
-            try { Thread.sleep(100); } catch (InterruptedException e) {}
-        }
+        // Step 2: wait for Canvas to fetch the file
+        Common.await(Common.trackUploadStatus(handle.status_url));
 
         // Step 3: add comment to submission
 
@@ -189,7 +172,7 @@ class UploadAssignmentGrades {
 
         request = Common.requestFactory.buildPutRequest(url, null);
         request.getHeaders().setAuthorization(Common.TOKEN);
-        request.execute();
+        Common.execute(request).ignore();
     }
 
     // problematic 3-part POST uploads
@@ -216,7 +199,7 @@ class UploadAssignmentGrades {
         UrlEncodedContent content = new UrlEncodedContent(map);
         request = requestFactory.buildPostRequest(url, content);
         request.getHeaders().setAuthorization(TOKEN);
-        response = request.execute();
+        response = Common.execute(request);
         //System.out.println("RESPONSE: "+response.parseAsString());
         UploadHandlePOST handle = response.parseAs(UploadHandlePOST.class);
         System.out.println(handle.upload_params);
@@ -242,7 +225,7 @@ class UploadAssignmentGrades {
                 "Content-Disposition", "form-data; name=\"file\";"));
         mpc.addPart(part);
         request = requestFactory.buildPostRequest(new GenericUrl(handle.upload_url), mpc);
-        response = request.execute();
+        response = Common.execute(request);
 
         assert 200 == response.getStatusCode();
         assert null == response.getHeaders().get("Location");
@@ -267,7 +250,7 @@ class UploadAssignmentGrades {
 
         request = Common.requestFactory.buildPutRequest(url, null);
         request.getHeaders().setAuthorization(Common.TOKEN);
-        request.execute();
+        Common.execute(request).ignore();
     }
 
 }
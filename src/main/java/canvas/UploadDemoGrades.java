@@ -3,11 +3,9 @@ package canvas;
 import canvas.apiobjects.Assignment;
 import canvas.apiobjects.Course;
 import canvas.apiobjects.User;
-import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpResponse;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -31,7 +29,7 @@ public class UploadDemoGrades {
         String proceed = scanner.next();
         if (!proceed.equals("y")) {
             System.out.println("Exiting...");
-            System.exit(1);
+            Common.exit(1);
         }
     }
 
@@ -46,34 +44,19 @@ public class UploadDemoGrades {
         Scanner scanner = new Scanner(System.in);
         String proceed = scanner.next();
         int points = Integer.valueOf(proceed);
+        RequestScheduler.setPriority(RequestScheduler.Priority.BULK);
 
-        GenericUrl url = new GenericUrl(Common.BASE_URL + "users");
-        url.put("enrollment_type[]", "student");
+        // use grade-multiple-submissions endpoint instead of grading a single one
+        // hat tip to https://community.canvaslms.com/thread/26502-grading-an-assignment-without-a-submission
         List<User> students = Common.getAsList("users", User[].class);
+        System.out.format("Uploading grades for %d students [%d points]...", students.size(), points);
+        System.out.flush();
+        BulkGradeWriter grades = new BulkGradeWriter(ASSIGNMENT_ID);
         for (User s : students) {
-
-            System.out.format("Uploading grade for %s [%d points]...", s.name, points);
-            System.out.flush();
-
-            // use grade-multiple-submissions endpoint instead of grading a single one
-            // hat tip to https://community.canvaslms.com/thread/26502-grading-an-assignment-without-a-submission
-            url = new GenericUrl(Common.CourseURL() + "assignments/" + ASSIGNMENT_ID + "/submissions/update_grades");
-            //url.put("grade_data["+s.id+"][posted_grade]", points);
-            GradeData gd = new GradeData();
-            gd.grade_data.put(s.id, new PostedGrade(points));
-            Common.postJSON(url, gd, null); // could perhaps use wrapperKey to scrap the GradeData class
-
-            System.out.println("uploaded.");
+            grades.grade(String.valueOf(s.id), String.valueOf(points));
         }
+        Map<String, String> failures = grades.finish();
+        System.out.println("uploaded.");
+        failures.forEach((id, why) -> System.out.format("  *** couldn't upload grade for %s: %s%n", id, why));
     }
 }
-
-class GradeData {
-    Map<Integer,PostedGrade> grade_data = new HashMap<>();
-}
-class PostedGrade {
-    int posted_grade;
-    PostedGrade(int i) {
-        posted_grade = i;
-    }
-}
\ No newline at end of file
@@ -1,13 +1,12 @@
 package canvas;
 
-import com.google.api.client.http.GenericUrl;
-import com.google.api.client.http.HttpRequest;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
 
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Map;
 
 /**
  * Upload grades for an assignment, using data from Gradescope. Used for uploading finalized exam
@@ -29,10 +28,12 @@ public class UploadGradescopeGrades {
 
         Common.setup();
         ASSIGNMENT_ID = Common.pickAssignment("Exam");
+        RequestScheduler.setPriority(RequestScheduler.Priority.BULK);
 
         Reader in = new FileReader(CSV_FILE);
         Iterable<CSVRecord> records = CSVFormat.EXCEL.withFirstRecordAsHeader().parse(in);
 
+        BulkGradeWriter grades = new BulkGradeWriter(ASSIGNMENT_ID);
         for (CSVRecord record : records) {
             String canvasStudentId = record.get(Common.CANVAS_SID_COLUMN);
             String studentName = record.get("Name");
@@ -43,25 +44,14 @@ public class UploadGradescopeGrades {
             }
             double score = Double.parseDouble(ts);
 
-            System.out.format("Uploading grade+comment for %s [%f]...", studentName, score);
-            System.out.flush();
-            uploadScore(canvasStudentId, score);
-            System.out.println("uploaded.");
+            System.out.format("Uploading grade for %s [%f]%n", studentName, score);
+            grades.grade(canvasStudentId, score);
 
             //if (DEBUG) { return; }
         }
-    }
-
-    private static void uploadScore(final String studentId, final double score) throws IOException {
-        HttpRequest request;
-        GenericUrl url;
-
-        url = new GenericUrl(Common.CourseURL() + "assignments/" + ASSIGNMENT_ID + "/submissions/" + studentId);
-        url.put("submission[posted_grade]", score);
-
-        request = Common.requestFactory.buildPutRequest(url, null);
-        request.getHeaders().setAuthorization(Common.TOKEN);
-        request.execute();
+        Map<String, String> failures = grades.finish();
+        failures.forEach((id, why) -> System.out.format("  *** couldn't upload grade for %s: %s%n", id, why));
+        System.out.println("uploaded.");
     }
 
 }
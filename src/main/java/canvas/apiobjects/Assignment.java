@@ -31,6 +31,10 @@ public class Assignment {
     public String lock_at_string;
     public ZonedDateTime lock_at;
 
+    /** NB: changes whenever the assignment (or one of its overrides) is edited */
+    @Key
+    public String updated_at;
+
     public void parseTimes() {
         if (!due_at_string.isEmpty()) {
             try {
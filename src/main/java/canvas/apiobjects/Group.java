@@ -11,7 +11,7 @@ public class Group {
 
     /**
      * NB: use structural equality as there are potentially multiple identical instances of each
-     * Group
+     * Group, unless they all went through EntityRegistry
      */
     @Override
     public boolean equals(Object o) {
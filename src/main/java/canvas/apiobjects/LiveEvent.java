@@ -0,0 +1,55 @@
+package canvas.apiobjects;
+
+import com.google.api.client.util.Key;
+
+/**
+ * A Canvas Live Event, e.g., submission_created. See LiveEventListener.
+ * NB: ids are strings, and are global ids (see localId())
+ */
+public class LiveEvent {
+    @Key
+    public Metadata metadata;
+    @Key
+    public Body body;
+
+    public static class Metadata {
+        @Key
+        public String event_name;
+        @Key
+        public String event_time;
+        @Key
+        public String context_type;
+        @Key
+        public String context_id;
+    }
+
+    /** The body of a submission_created or submission_updated event */
+    public static class Body {
+        @Key
+        public String submission_id;
+        @Key
+        public String assignment_id;
+        @Key
+        public String user_id;
+        @Key
+        public String workflow_state;
+        @Key
+        public String submitted_at;
+        @Key
+        public Integer attempt;
+    }
+
+    /**
+     * @return the id within its shard, which is what the REST API uses, of a global id like 21070000000000123.
+     * NB: global ids are shard * 10^13 + local id
+     */
+    public static int localId(String globalId) {
+        return (int) (Long.parseLong(globalId) % 10_000_000_000_000L);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LiveEvent{ %s submission:%s assignment:%s user:%s attempt:%s }",
+                metadata.event_name, body.submission_id, body.assignment_id, body.user_id, body.attempt);
+    }
+}
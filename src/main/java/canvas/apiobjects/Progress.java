@@ -0,0 +1,32 @@
+package canvas.apiobjects;
+
+import com.google.api.client.util.Key;
+
+/** Returned by endpoints that kick off a background job in Canvas, e.g., submissions/update_grades */
+public class Progress {
+    @Key
+    public int id;
+    @Key
+    public String context_type;
+    @Key
+    public Integer context_id;
+    @Key
+    public String tag;
+    /** percent complete, 0-100 */
+    @Key
+    public Double completion;
+    /** queued, running, completed or failed */
+    @Key
+    public String workflow_state;
+    @Key
+    public String message;
+    /** the API URL to poll for updates */
+    @Key
+    public String url;
+
+    @Override
+    public String toString() {
+        return String.format("progress %d: %s, %.0f%% %s", id, workflow_state,
+                null == completion ? 0.0 : completion, null == message ? "" : message);
+    }
+}
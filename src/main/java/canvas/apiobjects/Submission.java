@@ -27,6 +27,9 @@ public class Submission {
     public SubmissionComment[] submission_comments;
     @Key
     public Attachment[] attachments;
+    /** unsubmitted, submitted, graded or pending_review */
+    @Key
+    public String workflow_state;
 
     // fields for our use
     public ZonedDateTime submitted_at, graded_at;
@@ -18,7 +18,7 @@ public class User {
 
     /**
      * NB: use structural equality as there are potentially multiple identical instances of each
-     * User
+     * User, unless they all went through EntityRegistry
      */
     @Override
     public boolean equals(Object o) {
@@ -1,6 +1,8 @@
 package canvas.archived;
 
 import canvas.Common;
+import canvas.CourseReplica;
+import canvas.SubmissionTable;
 import canvas.apiobjects.*;
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpRequest;
@@ -39,7 +41,6 @@ public class DockLateSubmissions {
 
     public static void main(String[] args) throws IOException {
 
-        GenericUrl url;
         Scanner scanner = new Scanner(System.in);
 
         // read command-line args
@@ -51,7 +52,8 @@ public class DockLateSubmissions {
         Common.setup();
         final String hwId = Common.pickAssignment("Lab");
 
-        final Assignment hw = Common.getAs("assignments/" + hwId, Assignment.class);
+        final CourseReplica replica = CourseReplica.sync();
+        final Assignment hw = replica.assignment(Integer.parseInt(hwId));
 
         // determine default hw due and lock dates
         try {
@@ -61,12 +63,11 @@ public class DockLateSubmissions {
         } catch (DateTimeParseException e) {
             System.err.format("*** Invalid due (%s) or lock (%s) date for hw %s%n",
                     hw.due_at_string, hw.lock_at_string, hw.name);
-            System.exit(1);
+            Common.exit(1);
         }
 
         // find overrides that change the due/lock dates for specific students
-        List<AssignmentOverride> overrides = Common.getAsList("assignments/" + hwId + "/overrides",
-                AssignmentOverride[].class);
+        List<AssignmentOverride> overrides = replica.overrides(hw.id);
         for (AssignmentOverride ao : overrides) {
             assert ao.assignment_id == hw.id;
             try {
@@ -77,7 +78,7 @@ public class DockLateSubmissions {
             } catch (DateTimeParseException e) {
                 System.err.format("*** Invalid due (%s) or lock (%s) date for hw %s%n",
                         ao.due_at_string, ao.lock_at_string, hw.name);
-                System.exit(1);
+                Common.exit(1);
             }
             for (int sid : ao.student_ids) {
                 lookupDueDate.put(sid, ao.due_at);
@@ -86,12 +87,7 @@ public class DockLateSubmissions {
         }
 
         // populate user list
-        System.out.println("Getting list of users...");
-        url = new GenericUrl(Common.CourseURL() + "users");
-        url.put("enrollment_type", "student");
-        List<User> users = Common.getAsList(url, User[].class);
-
-        for (User u : users) {
+        for (User u : replica.users()) {
             lookupUser.put(u.id, u);
         }
 
@@ -99,25 +95,22 @@ public class DockLateSubmissions {
 
         // iterate over all submissions, identifying the late ones
 
-        url = new GenericUrl(Common.CourseURL() + "assignments/" + hwId + "/submissions");
-        url.put("include", "submission_comments");
-        List<Submission> subs = Common.getAsList(url, Submission[].class);
+        // NB: the replica's submissions include their comments
+        List<Submission> subs = replica.submissions(hw.id);
 
         // NB: graded_at seems to be the only valid submission timestamp for LTI assignments
         // TODO: demos are non-LTI assignments where graded_at is the submission time :-/ Maybe just dock late demos via Gradebook?
         final boolean LTI_HW = Arrays.asList(hw.submission_types).contains("external_tool");
 
-        for (Submission sub : subs) {
-            try {
-                sub.parseTimes();
-                /*
-                if (LTI_HW) {
-                    sub.graded_at = Common.parseCanvasDate(sub.graded_at_string);
-                } else {
-                    sub.submitted_at = Common.parseCanvasDate(sub.submitted_at_string);
-                }
-                */
-            } catch (DateTimeParseException e) {
+        // NB: scan the timestamps in bulk, and only look at the Submission objects for the late ones
+        final SubmissionTable table = SubmissionTable.of(subs);
+        final long hwDueAt = hw.due_at.plus(GRACE_PERIOD).toEpochSecond();
+
+        for (int row = 0; row < table.size(); row++) {
+            final Submission sub = subs.get(row);
+            final long submittedAtSec = LTI_HW ? table.gradedAt(row) : table.submittedAt(row);
+
+            if (SubmissionTable.NO_TIME == submittedAtSec) {
                 // ignore students who didn't submit anything
                 boolean noSubmission = false;
                 if (LTI_HW) {
@@ -126,7 +119,7 @@ public class DockLateSubmissions {
                     noSubmission = sub.submitted_at_string.equals("");
                 }
 
-                if (!(noSubmission && 0 == Double.compare(sub.score, 0.0))) {
+                if (!(noSubmission && 0 == Double.compare(table.score(row), 0.0))) {
                     System.out.format("*** Invalid submitted_at (%s) or graded_at (%s) time from %s for %s (LTI=%b). They scored a %f.%n",
                             sub.submitted_at_string, sub.graded_at_string,
                             lookupUser.get(sub.user_id).name, hw.name, LTI_HW, sub.score);
@@ -134,22 +127,18 @@ public class DockLateSubmissions {
                 continue;
             }
 
-            final ZonedDateTime submittedAt = LTI_HW ? sub.graded_at : sub.submitted_at;
-            assert null != submittedAt;
-            //System.out.format("submitted at: %s, graded_at %s %n", sub.submitted_at_string, sub.graded_at_string);
-
-            ZonedDateTime dueAt = hw.due_at;
-            if (lookupDueDate.containsKey(sub.user_id)) {
-                dueAt = lookupDueDate.get(sub.user_id);
+            final ZonedDateTime dueAt = lookupDueDate.getOrDefault(table.userId(row), hw.due_at);
+            final long dueAtSec = dueAt == hw.due_at ? hwDueAt : dueAt.plus(GRACE_PERIOD).toEpochSecond();
+            if (submittedAtSec < dueAtSec) { // on-time submission
+                continue;
             }
+
+            final ZonedDateTime submittedAt = Common.parseCanvasDate(LTI_HW ? sub.graded_at_string : sub.submitted_at_string);
             ZonedDateTime lockAt = hw.lock_at;
             if (lookupLockDate.containsKey(sub.user_id)) {
                 lockAt = lookupLockDate.get(sub.user_id);
             }
 
-            if (submittedAt.isBefore(dueAt.plus(GRACE_PERIOD))) { // on-time submission
-                continue;
-            }
             System.out.format("Late submission from %s%n", lookupUser.get(sub.user_id).name);
 
             // check for comment showing we already processed this submission
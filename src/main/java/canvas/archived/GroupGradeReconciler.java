@@ -1,14 +1,12 @@
 package canvas.archived;
 
 import canvas.Common;
+import canvas.CourseReplica;
+import canvas.SubmissionTable;
 import canvas.apiobjects.Group;
-import canvas.apiobjects.Submission;
-import canvas.apiobjects.User;
-import com.google.api.client.http.GenericUrl;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Check that all members of a group have the same grade for a given assignment/quiz.
@@ -30,55 +28,53 @@ public class GroupGradeReconciler {
 
         final String HW_ID = Common.pickAssignment("Lab");
 
-        // build list of groups
-        List<Group> groups = Common.getAsList("groups", Group[].class);
+        // groups (with their members) and submissions come from the local replica, which only pulls what changed
+        final CourseReplica replica = CourseReplica.sync();
         List<Group> groupsToProcess = new LinkedList<>();
-        for (Group g : groups) {
+        for (Group g : replica.groups()) {
             if (!g.name.toLowerCase().contains(groupNameFilter)) {
                 continue;
             }
-
-            List<User> groupMembers = Common.getAsList(new GenericUrl(Common.BASE_URL + "groups/" + g.id + "/users"), User[].class);
-            if (0 == groupMembers.size()) { // skip empty groups
+            if (0 == g.members.length) { // skip empty groups
                 continue;
             }
-
-            g.members = groupMembers.toArray(new User[]{});
             groupsToProcess.add(g);
         }
 
-        // build map of user id => Submission
-        Map<Integer, Submission> subOfUser = new HashMap<>();
-        List<Submission> subs = Common.getAsList("assignments/" + HW_ID + "/submissions", Submission[].class);
+        // build map of user id => row of their Submission
         // NB: for LTI submissions, I think Canvas only tracks the latest one
-        for (Submission s : subs) {
-            subOfUser.put(s.user_id, s);
+        final SubmissionTable table = SubmissionTable.of(replica.submissions(Integer.parseInt(HW_ID)));
+        final SubmissionTable.IntIntMap rowOfUser = new SubmissionTable.IntIntMap();
+        for (int row = 0; row < table.size(); row++) {
+            rowOfUser.put(table.userId(row), row);
         }
 
         // walk over groups, checking that each member has the same grade
         for (Group g : groupsToProcess) {
 
             // get scores for each member
-            List<Double> scores = Arrays.stream(g.members)
-                    .map(m -> subOfUser.containsKey(m.id) ? subOfUser.get(m.id).score : 0.0 )
-                    .collect(Collectors.toList());
-
-            // check that all scores are the same
-            boolean allSame = (1 == scores.stream().distinct().count());
+            double[] scores = new double[g.members.length];
+            boolean allSame = true;
+            double maxScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < scores.length; i++) {
+                int row = rowOfUser.get(g.members[i].id, -1);
+                scores[i] = -1 == row || Double.isNaN(table.score(row)) ? 0.0 : table.score(row);
+                allSame &= 0 == Double.compare(scores[0], scores[i]);
+                maxScore = Math.max(maxScore, scores[i]);
+            }
 
             if (!allSame) { // give all members the max score
-                final double maxScore = scores.stream().mapToDouble(Double::doubleValue).max().getAsDouble();
-                List<String> updateNames = Arrays.stream(g.members)
-                        .filter(m -> maxScore != subOfUser.get(m.id).score)
-                        .map(m -> m.name)
-                        .collect(Collectors.toList());
-                List<String> updateScores = Arrays.stream(g.members)
-                        .filter(m -> maxScore != subOfUser.get(m.id).score)
-                        .map(m -> String.format("%f", subOfUser.get(m.id).score))
-                        .collect(Collectors.toList());
+                List<String> updateNames = new ArrayList<>();
+                List<String> updateScores = new ArrayList<>();
+                for (int i = 0; i < scores.length; i++) {
+                    if (maxScore != scores[i]) {
+                        updateNames.add(g.members[i].name);
+                        updateScores.add(String.format("%f", scores[i]));
+                    }
+                }
 
                 System.out.format("%s should have score %.2f (instead of %s) %s %n",
-                        updateNames.toString(), maxScore, updateScores.toString(), scores.toString());
+                        updateNames.toString(), maxScore, updateScores.toString(), Arrays.toString(scores));
             }
 
         }
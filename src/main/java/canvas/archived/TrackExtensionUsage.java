@@ -1,13 +1,13 @@
 package canvas.archived;
 
+import canvas.BulkGradeWriter;
 import canvas.Common;
+import canvas.CourseReplica;
+import canvas.RequestScheduler;
+import canvas.SubmissionTable;
 import canvas.apiobjects.Assignment;
 import canvas.apiobjects.Group;
-import canvas.apiobjects.Submission;
 import canvas.apiobjects.User;
-import com.google.api.client.http.GenericUrl;
-import com.google.api.client.http.HttpRequest;
-import com.google.api.client.http.HttpResponse;
 
 import java.io.IOException;
 import java.time.Duration;
@@ -30,44 +30,34 @@ public class TrackExtensionUsage {
     private static final List<String> individualHomeworks = Arrays.asList("homework 1:", "homework 2:");
 
     //
+    private static CourseReplica replica;
     private static final Map<Integer, User> lookupUser = new HashMap<>();
     private static final Map<User, Integer> IndividualExtensionsUsed = new HashMap<>();
     private static final Map<Group, Integer> GroupExtensionsUsed = new HashMap<>();
 
     private static void setup() throws IOException {
         Common.setup();
+        RequestScheduler.setPriority(RequestScheduler.Priority.BULK);
 
-        HttpResponse response;
-        GenericUrl url;
+        replica = CourseReplica.sync();
+        // NB: start from scratch, in case a Daemon has run us before
+        lookupUser.clear();
+        IndividualExtensionsUsed.clear();
+        GroupExtensionsUsed.clear();
 
         // populate user list
-        System.out.println("Getting list of users...");
-
-        url = new GenericUrl(Common.CourseURL() + "users");
-        url.put("enrollment_type", "student");
-        response = Common.get(url);
-        User[] users = response.parseAs(User[].class);
-        for (User u : users) {
+        for (User u : replica.users()) {
             lookupUser.put(u.id, u);
         }
 
-        // populate list of groups
-        System.out.println("Generating user:group mapping...");
-
-        response = Common.get("groups");
-        Group[] groups = response.parseAs(Group[].class);
-        for (Group g : groups) {
+        // populate user:group mapping
+        // NB: the replica's group members are the same (canonical) User objects as in lookupUser
+        for (Group g : replica.groups()) {
             if (!g.name.toLowerCase().startsWith("homework group ")) {
                 continue;
             }
-            response = Common.get(new GenericUrl(Common.BASE_URL + "groups/" + g.id + "/users"));
-            User[] groupMembers = response.parseAs(User[].class);
-            g.members = new User[groupMembers.length];
-
-            for (int i = 0; i < groupMembers.length; i++) {
-                User m = groupMembers[i];
-                g.members[i] = lookupUser.get(m.id);
-                g.members[i].group = g;
+            for (User m : g.members) {
+                m.group = g;
             }
         }
 
@@ -89,11 +79,7 @@ public class TrackExtensionUsage {
 
         final boolean doUpload = args.length > 0 && args[0].equals("-upload");
 
-        HttpResponse response;
-
-        response = Common.get("assignments");
-        Assignment[] hws = response.parseAs(Assignment[].class);
-        for (Assignment hw : hws) {
+        for (Assignment hw : replica.assignments()) {
 
             // ignore assignments without due dates, like the extension-tracking assignments, and
             // unpublished assignments
@@ -122,57 +108,47 @@ public class TrackExtensionUsage {
 
             System.out.format("Processing %s (group=%b)...%n", hw.name, !individualHw);
 
-            response = Common.get("assignments/" + hw.id + "/submissions");
-            Submission[] subs = response.parseAs(Submission[].class);
-
-            // find most recent submission for each user or group
-            Map<Integer, Submission> mostRecentSub = new HashMap<>();
-            for (Submission sub : subs) {
-                final User u = lookupUser.get(sub.user_id);
-                if (individualHw) {
-                    sub.users = new User[]{u};
-                } else if (u.group == null) { // doing group assignment solo
-                    sub.users = new User[]{u};
-                    u.group = new Group(); // HACK!! create fake Group for solo folks
-                    u.group.id = -1 * u.id;
-                    u.group.name = "solo group for " + u.name;
-                    u.group.members = new User[]{u};
-                } else { // group assignment submitted as part of a group
-                    sub.users = u.group.members;
-                    assert sub.users != null;
-                    assert sub.users[0].group != null;
-                }
-
-                sub.parseTimes();
-                if (null == sub.submitted_at) continue;
-
-                int subId = individualHw ? sub.user_id : sub.users[0].group.id;
-                Submission existing = mostRecentSub.get(subId);
-                if (null == existing) {
-                    mostRecentSub.put(subId, sub);
-                } else { // only insert sub if newer than existing sub
-                    if (sub.submitted_at.isAfter(existing.submitted_at)) {
-                        mostRecentSub.put(subId, sub);
+            SubmissionTable table = SubmissionTable.of(replica.submissions(hw.id));
+
+            // map each submitter to their group
+            SubmissionTable.IntIntMap groupOfUser = new SubmissionTable.IntIntMap();
+            if (!individualHw) {
+                for (int row = 0; row < table.size(); row++) {
+                    final User u = lookupUser.get(table.userId(row));
+                    if (u.group == null) { // doing group assignment solo
+                        u.group = new Group(); // HACK!! create fake Group for solo folks
+                        u.group.id = -1 * u.id;
+                        u.group.name = "solo group for " + u.name;
+                        u.group.members = new User[]{u};
                     }
+                    groupOfUser.put(u.id, u.group.id);
                 }
             }
 
+            // find most recent submission for each user or group
+            SubmissionTable.IntIntMap mostRecentSub = individualHw ?
+                    table.latestBy(row -> true, table::userId) :
+                    table.latestBy(row -> true, row -> groupOfUser.get(table.userId(row), 0));
+
             // classify each submission as on-time, late, or super-late
-            for (Submission sub : mostRecentSub.values()) {
-                if (sub.submitted_at.isAfter(hw.due_at.plus(GRACE_PERIOD))) { // late submission
-                    if (sub.submitted_at.isAfter(hw.due_at.plus(EXTENSION))) { // super-late!
+            final long lateAfter = hw.due_at.plus(GRACE_PERIOD).toEpochSecond();
+            final long superLateAfter = hw.due_at.plus(EXTENSION).toEpochSecond();
+            for (int row : mostRecentSub.values()) {
+                if (table.submittedAt(row) > lateAfter) { // late submission
+                    final User u = lookupUser.get(table.userId(row));
+                    final User[] submitters = individualHw ? new User[]{u} : u.group.members;
+                    if (table.submittedAt(row) > superLateAfter) { // super-late!
                         System.out.format("  *** SUPER-LATE submission of %s from %s%n",
-                                hw.name, names(sub.users));
+                                hw.name, names(submitters));
                     } else {
                         System.out.format("  * LATE submission of %s from %s%n",
-                                hw.name, names(sub.users));
+                                hw.name, names(submitters));
                     }
                     if (individualHw) {
-                        assert 1 == sub.users.length : names(sub.users);
-                        int e = IndividualExtensionsUsed.getOrDefault(sub.users[0], 0);
-                        IndividualExtensionsUsed.put(sub.users[0], e + 1);
+                        int e = IndividualExtensionsUsed.getOrDefault(u, 0);
+                        IndividualExtensionsUsed.put(u, e + 1);
                     } else {
-                        Group g = sub.users[0].group;
+                        Group g = u.group;
                         int e = GroupExtensionsUsed.getOrDefault(g, 0);
                         GroupExtensionsUsed.put(g, e + 1);
                     }
@@ -217,28 +193,18 @@ public class TrackExtensionUsage {
         if (doUpload) {
             // upload extension usage information for everyone
             System.out.println("\nUploading extension usage...");
-            lookupUser.forEach((uid, u) -> {
+            BulkGradeWriter individual = new BulkGradeWriter(INDIVIDUAL_EXTENSIONS_ASSIGNMENT_ID);
+            BulkGradeWriter group = new BulkGradeWriter(GROUP_EXTENSIONS_ASSIGNMENT_ID);
+            for (User u : lookupUser.values()) {
                 System.out.format(" %s...%n", u.name);
-                for (final String aid : new String[]{INDIVIDUAL_EXTENSIONS_ASSIGNMENT_ID, GROUP_EXTENSIONS_ASSIGNMENT_ID}) {
-                    GenericUrl url = new GenericUrl(Common.CourseURL() + "assignments/" + aid + "/submissions/" + u.id);
-
-                    int extsUsed;
-                    if (aid.equals(INDIVIDUAL_EXTENSIONS_ASSIGNMENT_ID)) {
-                        extsUsed = IndividualExtensionsUsed.getOrDefault(u, 0);
-                    } else {
-                        extsUsed = GroupExtensionsUsed.getOrDefault(u.group, 0);
-                    }
-                    url.put("submission[posted_grade]", extsUsed);
-
-                    try {
-                        HttpRequest request = Common.requestFactory.buildPutRequest(url, null);
-                        request.getHeaders().setAuthorization(Common.TOKEN);
-                        request.execute();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
+                individual.grade(String.valueOf(u.id), String.valueOf(IndividualExtensionsUsed.getOrDefault(u, 0)));
+                group.grade(String.valueOf(u.id), String.valueOf(GroupExtensionsUsed.getOrDefault(u.group, 0)));
+            }
+            // NB: someone can fail in both, so report each on its own
+            individual.finish().forEach((id, why) -> System.out.format(
+                    " *** couldn't upload individual extensions for %s: %s%n", lookupUser.get(Integer.valueOf(id)), why));
+            group.finish().forEach((id, why) -> System.out.format(
+                    " *** couldn't upload group extensions for %s: %s%n", lookupUser.get(Integer.valueOf(id)), why));
         }
 
         System.out.println("All done!");
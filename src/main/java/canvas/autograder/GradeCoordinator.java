@@ -1,22 +1,23 @@
 package canvas.autograder;
 
+import canvas.ApiMetrics;
+import canvas.BlockingExecutors;
 import canvas.Common;
+import canvas.CourseReplica;
+import canvas.EntityCache;
+import canvas.LiveEventListener;
+import canvas.RequestScheduler;
 import canvas.apiobjects.*;
+import canvas.json.JsonCodecs;
 import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpResponse;
-import com.google.api.client.http.json.JsonHttpContent;
-import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.client.util.Key;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 
 import javax.annotation.Nullable;
 import java.io.*;
@@ -34,7 +35,6 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 import java.util.logging.*;
 import java.util.stream.Collectors;
@@ -138,6 +138,9 @@ public class GradeCoordinator {
     private static final OptionSpec TestMode;
     private static final OptionSpec QuietMode;
     private static final OptionSpec<Integer> Port;
+    private static final OptionSpec<Integer> LiveEventsPort;
+    private static final OptionSpec<String> LiveEventsSpool;
+    private static final OptionSpec<Integer> ReconcileMinutes;
     private static final OptionParser Parser;
     private static OptionSet Options;
     static {
@@ -145,12 +148,17 @@ public class GradeCoordinator {
         TestMode = Parser.accepts("test-mode", "Grade submissions from the sandbox site instead");
         QuietMode = Parser.accepts("quiet-mode", "Don't send emails to students");
         Port = Parser.accepts("port", "listen for commands on this localhost port. Commands are a single character. Available commands: r(un) and q(uit)").withRequiredArg().ofType(Integer.class);
+        LiveEventsPort = Parser.accepts("live-events-port", "keep running, and grade submissions as soon as Canvas Live Events about them arrive on this port from our relay (see LiveEventListener)").withRequiredArg().ofType(Integer.class);
+        LiveEventsSpool = Parser.accepts("live-events-spool", "keep running, and grade submissions as soon as Canvas Live Events about them show up in this directory (see LiveEventListener)").withRequiredArg();
+        ReconcileMinutes = Parser.accepts("reconcile-minutes", "when receiving live events, also poll for new submissions this often, in case we missed an event").withRequiredArg().ofType(Integer.class).defaultsTo(15);
         Help = Parser.accepts("help", "Print this help message").forHelp();
     }
 
     private final static Logger LOG = Logger.getLogger("GradeCoordinator");
-    private final static CloseableHttpClient myHttpClient = HttpClients.createDefault();
-    private final static ExecutorService exe = Executors.newCachedThreadPool();
+    /** Max number of submissions graded at once, unless we have virtual threads */
+    private final static int MAX_GRADING_THREADS = 64;
+    /** NB: grading tasks spend minutes blocked on ssh and mail, see BlockingExecutors */
+    private final static ExecutorService exe = BlockingExecutors.unbounded("grader", MAX_GRADING_THREADS);
     private static boolean parallelGrading = true;
     private final static List<FutureTask<Boolean>> myFutures = new LinkedList<>();
 
@@ -192,32 +200,18 @@ public class GradeCoordinator {
         LOG.addHandler(mh);
 
         Common.setup();
+        RequestScheduler.setPriority(RequestScheduler.Priority.GRADING);
+
+        // NB: instead of pulling every student and submission on every run, just pull what changed since last time
+        final CourseReplica replica = CourseReplica.sync();
+        boolean replicaIsStale = false;
 
         // pull emails for each User (check their Profile if necessary)
         Map<Integer,User> userOfId = new HashMap<>();
-        GenericUrl url = new GenericUrl(Common.CourseURL() + "users");
-        url.put("enrollment_type[]","student");
-        url.put("enrollment_state[]", "active");
-        List<User> users = Common.getAsList(url, User[].class);
-        for (User u : users) {
-            if (null == u.email) {
-                // NB: have to get student's email via their Profile
-                // test students have User.email, but no Profile.primary_email
-                Profile prof = Common.getAs(new GenericUrl(Common.BASE_URL + "users/" + u.id + "/profile"), Profile.class);
-                LOG.finest("email (Profile/User): " + prof.primary_email + " / " + u.email);
-                u.email = prof.primary_email;
-                if (null == u.email) {
-                    LOG.warning(String.format("Student %s has no valid email address, setting to ''", u.name));
-                    u.email = "";
-                }
-            }
-            if (Options.has(TestMode) && u.email.startsWith("g02") && u.email.endsWith("@seas.upenn.edu")) {
-                // in test mode, replace all fake students' emails with Joe's
-                u.email = "devietti@cis.upenn.edu";
-            }
-
-            userOfId.put(u.id, u);
+        for (User u : replica.users()) {
+            userOfId.put(u.id, withEmail(u));
         }
+        replica.save(); // so next time we don't need their Profiles
 
 
         // trying to gather Submissions from unpublished Assignments causes Canvas to return error responses, so we
@@ -225,20 +219,36 @@ public class GradeCoordinator {
         final List<String> assignmentsToGrade = Arrays.stream(LABS)
                 .filter(l -> {
                     try {
-                        return Common.getAs("assignments/" + l.canvasAssnId, Assignment.class).published;
+                        return EntityCache.getAs("assignments/" + l.canvasAssnId, Assignment.class).published;
                     } catch (IOException e) { return false; }
                 })
                 .map(l -> String.valueOf(l.canvasAssnId)).collect(Collectors.toList());
+
+        // NB: with live events, we keep running and grade each submission as soon as we hear about it, and only poll
+        // for new submissions every so often, in case we missed an event
+        LiveEventListener events = null;
+        if (Options.has(LiveEventsPort) || Options.has(LiveEventsSpool)) {
+            events = new LiveEventListener(Integer.parseInt(Common.CourseID()));
+            if (Options.has(LiveEventsPort)) events.listen(Options.valueOf(LiveEventsPort));
+            if (Options.has(LiveEventsSpool)) events.watch(Paths.get(Options.valueOf(LiveEventsSpool)));
+        }
+        final Duration reconcileInterval = Duration.ofMinutes(Options.valueOf(ReconcileMinutes));
+        Instant nextReconcile = Instant.now();
+        // how long to wait for a command before checking for events
+        final int commandTimeoutMs = null != events ? 1000 : 5 * 1000;
+
         try (ServerSocket serverSocket = new ServerSocket(Options.valueOf(Port), 1, InetAddress.getByName("127.0.0.1"))) {
             Socket sock = null;
             if (Options.has(TestMode)) { // test suite uses a long-lived socket connection
                 serverSocket.setSoTimeout(120 * 1000); // 2 minutes
                 sock = serverSocket.accept();
+                if (null != events) sock.setSoTimeout(commandTimeoutMs);
             } else {
-                serverSocket.setSoTimeout(5 * 1000); // 5 seconds
+                serverSocket.setSoTimeout(commandTimeoutMs);
             }
             while (true) {
                 OutputStream sockOut = null;
+                boolean runCommand = false;
 
                 // listen for commands via a socket
                 LOG.finest("listening for command via socket");
@@ -261,6 +271,7 @@ public class GradeCoordinator {
                         continue;
                     } else if (Run.ch == c) {
                         LOG.info("run command received via socket");
+                        runCommand = true;
                     } else if (ParallelGrading.ch == c) {
                         LOG.info("parallel grading command received via socket");
                         parallelGrading = true;
@@ -282,27 +293,46 @@ public class GradeCoordinator {
                     LOG.finest("socket listen timed out, running autograder...");
                 }
 
-                url = new GenericUrl(Common.CourseURL() + "students/submissions");
-                url.put("student_ids[]", "all");
-                url.put("include[]", "group"); // to get group info
-                if (!Options.has(TestMode)) { // in test mode, get submissions to all assignments
-                    url.put("assignment_ids[]", assignmentsToGrade);
+                final List<Submission> submissions;
+                if (null == events || runCommand || !Instant.now().isBefore(nextReconcile)) {
+                    // NB: drain before refreshing, so the refresh sees whatever the events are about. The replica is
+                    // already up to date on the first round, except for events that arrived since the sync
+                    final List<LiveEvent> es = null != events ? events.drain() : Collections.emptyList();
+                    if (replicaIsStale) {
+                        replica.refresh();
+                    } else if (!es.isEmpty()) {
+                        submissionsOf(es, replica);
+                    }
+                    replicaIsStale = true;
+                    submissions = replica.submissions().stream()
+                            .filter(s -> "submitted".equals(s.workflow_state))
+                            // in test mode, get submissions to all assignments
+                            .filter(s -> Options.has(TestMode) || assignmentsToGrade.contains(String.valueOf(s.assignment_id)))
+                            .collect(Collectors.toList());
+                    if (null != events) {
+                        nextReconcile = Instant.now().plus(reconcileInterval);
+                    }
+                } else {
+                    List<LiveEvent> es = events.drain();
+                    if (es.isEmpty()) continue;
+                    submissions = submissionsOf(es, replica).stream()
+                            .filter(s -> "submitted".equals(s.workflow_state))
+                            .filter(s -> Options.has(TestMode) || assignmentsToGrade.contains(String.valueOf(s.assignment_id)))
+                            .collect(Collectors.toList());
                 }
-                url.put("workflow_state", "submitted");
-                LOG.finest(url.build());
-
-                List<Submission> submissions = Common.getAsList(url, Submission[].class);
                 LOG.finest("found " + submissions.size() + " submissions");
+                // NB: students who joined the course since we started
+                for (Submission s : submissions) {
+                    if (!userOfId.containsKey(s.user_id) && null != replica.user(s.user_id)) {
+                        userOfId.put(s.user_id, withEmail(replica.user(s.user_id)));
+                    }
+                }
 
                 // find set of Assignments that were submitted
                 Set<Integer> assnIDs = submissions.stream().map(s -> s.assignment_id).collect(Collectors.toSet());
                 for (final Integer asnID : assnIDs) {
 
-                    // build map, for this Assignment, of GroupID => List<Submission>. For a solo assignment, lists
-                    // will all be singletons NB: use negative of user ID as fake group ID
-                    Map<Integer, List<Submission>> subsOfGroupID = submissions.stream()
-                            .filter(s -> asnID == s.assignment_id)
-                            .collect(Collectors.groupingBy(s -> (null == s.group.id || 0 == s.group.id) ? -s.user_id : s.group.id));
+                    Map<Integer, List<Submission>> subsOfGroupID = submissionsByGroup(submissions, asnID);
                     LOG.finest(subsOfGroupID.toString());
                     for (List<Submission> subs : subsOfGroupID.values()) {
                         LOG.finest(subs.size() + " submissions for groupID " + subs.get(0).group.id);
@@ -320,9 +350,11 @@ public class GradeCoordinator {
                 }
 
                 waitOnFutures(sockOut);
+                LOG.info("HTTP connections: " + Common.transport().getPoolStats());
+                LOG.info(ApiMetrics.summary());
 
                 // in production mode, run once and then exit. Rely on cronjob to poll for new submissions.
-                if (!Options.has(TestMode)) {
+                if (!Options.has(TestMode) && null == events) {
                     return;
                 }
 
@@ -331,6 +363,62 @@ public class GradeCoordinator {
 
     } // end main()
 
+    /** Fill in u's email address, from their Profile if need be. @return u */
+    private static User withEmail(User u) throws IOException {
+        if (null == u.email) {
+            // NB: have to get student's email via their Profile
+            // test students have User.email, but no Profile.primary_email
+            Profile prof = EntityCache.getAs(new GenericUrl(Common.BASE_URL + "users/" + u.id + "/profile"), Profile.class);
+            LOG.finest("email (Profile/User): " + prof.primary_email + " / " + u.email);
+            u.email = prof.primary_email;
+            if (null == u.email) {
+                LOG.warning(String.format("Student %s has no valid email address, setting to ''", u.name));
+                u.email = "";
+            }
+        }
+        if (Options.has(TestMode) && u.email.startsWith("g02") && u.email.endsWith("@seas.upenn.edu")) {
+            // in test mode, replace all fake students' emails with Joe's
+            u.email = "devietti@cis.upenn.edu";
+        }
+        return u;
+    }
+
+    /**
+     * Pull the submissions that the given live events are about. For a group assignment, that's the submissions of
+     * everyone in the submitter's group, as submissionsByGroup() expects.
+     */
+    private static List<Submission> submissionsOf(List<LiveEvent> events, CourseReplica replica) throws IOException {
+        // assignment ID => students whose submissions we need
+        Map<Integer, Set<Integer>> studentsOfAsn = new HashMap<>();
+        for (LiveEvent e : events) {
+            int asnID = LiveEvent.localId(e.body.assignment_id);
+            int userID = LiveEvent.localId(e.body.user_id);
+            Set<Integer> students = studentsOfAsn.computeIfAbsent(asnID, k -> new LinkedHashSet<>());
+            students.add(userID);
+            Assignment asn = replica.assignment(asnID);
+            if (null != asn && asn.isGroupAssignment()) {
+                replica.groups().stream()
+                        .filter(g -> Arrays.stream(g.members).anyMatch(m -> userID == m.id))
+                        .forEach(g -> Arrays.stream(g.members).forEach(m -> students.add(m.id)));
+            }
+        }
+        List<Submission> subs = new ArrayList<>();
+        for (Map.Entry<Integer, Set<Integer>> e : studentsOfAsn.entrySet()) {
+            subs.addAll(replica.refreshSubmissions(e.getKey(), e.getValue()));
+        }
+        return subs;
+    }
+
+    /**
+     * @return a map, for the given Assignment, of GroupID => List<Submission>. For a solo assignment, lists will all
+     * be singletons NB: use negative of user ID as fake group ID
+     */
+    static Map<Integer, List<Submission>> submissionsByGroup(List<Submission> submissions, int asnID) {
+        return submissions.stream()
+                .filter(s -> asnID == s.assignment_id)
+                .collect(Collectors.groupingBy(s -> (null == s.group.id || 0 == s.group.id) ? -s.user_id : s.group.id));
+    }
+
     private static void waitOnFutures(OutputStream sockOut) {
         List<FutureTask<Boolean>> futuresToRemove = new LinkedList<>();
         for (FutureTask<Boolean> f : myFutures) {
@@ -360,7 +448,7 @@ public class GradeCoordinator {
         // find corresponding Canvas Assignment object
         final Assignment THE_ASSN;
         try {
-            THE_ASSN = Common.getAs("assignments/" + sub.assignment_id, Assignment.class);
+            THE_ASSN = EntityCache.getAs("assignments/" + sub.assignment_id, Assignment.class);
         } catch (IOException e) {
             LOG.severe(Common.t2s(e));
             return false;
@@ -417,13 +505,10 @@ public class GradeCoordinator {
 
         // write out submitted file
         Path submittedFile = SUBM_DIR.resolve(THE_LAB.fileToSubmit);
-        HttpGet httpget = new HttpGet(att.url);
         LOG.info(String.format("submitted file %s of type %s has size %dB",
                 THE_LAB.fileToSubmit, sub.attachments[0].content_type, sub.attachments[0].size));
-        try (FileOutputStream fos = new FileOutputStream(submittedFile.toFile()); CloseableHttpResponse r2 = myHttpClient.execute(httpget)) {
-            HttpEntity entity = r2.getEntity();
-            assert null != entity;
-            entity.writeTo(fos);
+        try (FileOutputStream fos = new FileOutputStream(submittedFile.toFile())) {
+            Common.download(att.url, fos);
         } catch (Exception e) {
             LOG.severe(Common.t2s(e));
             sendMessage(subUsers, sub.assignment_id, null, subject,
@@ -433,25 +518,11 @@ public class GradeCoordinator {
 
         // check submitted file contents
         if (null != THE_LAB.archiveContents) {
-            try (final ZipFile f = new ZipFile(submittedFile.toFile())) {
-                Set<String> actual = Collections.list(f.entries()).stream().map(ZipEntry::getName).collect(Collectors.toSet());
-                Set<String> expected = new HashSet<>(THE_LAB.archiveContents);
-
-                actual.removeIf(n -> n.equals(".DS_Store"));
-                if (!actual.equals(expected)) {
-                    if (actual.containsAll(expected)) { // extra file(s)
-                        actual.removeAll(expected);
-                        String err = String.format("%s should not contain extraneous files '%s'.",
-                                submittedFile.getFileName().toString(), String.join(",", actual));
-                        sendMessage(subUsers, sub.assignment_id, 0.0, subject, err, null);
-                        return false;
-                    } else { // missing file(s)
-                        expected.removeAll(actual);
-                        String err = String.format("%s is missing required file(s) '%s'.",
-                                submittedFile.getFileName().toString(), String.join(",", expected));
-                        sendMessage(subUsers, sub.assignment_id, 0.0, subject, err, null);
-                        return false;
-                    }
+            try {
+                String err = archiveProblem(submittedFile.toFile(), THE_LAB.archiveContents);
+                if (null != err) {
+                    sendMessage(subUsers, sub.assignment_id, 0.0, subject, err, null);
+                    return false;
                 }
             } catch (IOException e) {
                 LOG.warning(Common.t2s(e,"malformed zip archive?"));
@@ -471,6 +542,7 @@ public class GradeCoordinator {
         Collections.shuffle(biglabNodes);
         String nodeName = String.format("cis501@big%02d.seas.upenn.edu", biglabNodes.get(0));
         FutureTask<Boolean> runGradeWorker = new FutureTask<>(() -> {
+            RequestScheduler.setPriority(RequestScheduler.Priority.GRADING);
             ProcessBuilder pb = new ProcessBuilder("ssh", "-o", "StrictHostKeyChecking=no", nodeName,
                     "java", "-enableassertions", "-cp", "CanvasUtils-2.0.0-jar-with-dependencies.jar",
                     "canvas.autograder.GradeWorker", "--submitted-file", submittedFile.toString(),
@@ -493,7 +565,7 @@ public class GradeCoordinator {
                     return false;
                 }
 
-                tr = GsonFactory.getDefaultInstance().createJsonParser(stdout).parse(TestResult.class);
+                tr = JsonCodecs.parse(stdout, TestResult.class);
 
             } catch (Exception e) {
                 LOG.severe(Common.t2s(e,"ssh failure"));
@@ -600,8 +672,34 @@ public class GradeCoordinator {
         return true;
     }
 
+    /**
+     * Check that a submitted .zip archive contains exactly the expected files
+     * @return a message for the student describing what's wrong with the archive, or null if it's ok
+     * @throws IOException if the archive is malformed
+     */
+    static String archiveProblem(File zip, Collection<String> expectedContents) throws IOException {
+        try (final ZipFile f = new ZipFile(zip)) {
+            Set<String> actual = Collections.list(f.entries()).stream().map(ZipEntry::getName).collect(Collectors.toSet());
+            Set<String> expected = new HashSet<>(expectedContents);
+
+            actual.removeIf(n -> n.equals(".DS_Store"));
+            if (actual.equals(expected)) {
+                return null;
+            }
+            if (actual.containsAll(expected)) { // extra file(s)
+                actual.removeAll(expected);
+                return String.format("%s should not contain extraneous files '%s'.",
+                        zip.getName(), String.join(",", actual));
+            } else { // missing file(s)
+                expected.removeAll(actual);
+                return String.format("%s is missing required file(s) '%s'.",
+                        zip.getName(), String.join(",", expected));
+            }
+        }
+    }
+
     /** returns the last length bytes from f */
-    private static String tailOfFile(int length, File f, String tag) throws IOException {
+    static String tailOfFile(int length, File f, String tag) throws IOException {
         long fileSize = f.length();
         try (FileReader fr = new FileReader(f)) {
 
@@ -623,7 +721,7 @@ public class GradeCoordinator {
         }
     }
 
-    private static String stringFromFile(File f, String tag) throws IOException {
+    static String stringFromFile(File f, String tag) throws IOException {
         final char[] cbuf = new char[MAX_EMAIL_FILE_SIZE];
         final String trunc = "[NOTE] output truncated, exceeds email limit";
 
@@ -691,25 +789,25 @@ public class GradeCoordinator {
             GenericUrl fileUrl = new GenericUrl(Common.CourseURL() + "assignments/" + assnId + "/submissions/"+ recipients.get(0).id+"/comments/files");
             LOG.finer(fileUrl.toString());
             List<Integer> fileIDs = new LinkedList<>();
-            for (File f : Arrays.stream(attachments).filter(f -> f.length() > 0).collect(Collectors.toList())) {
-                try {
-                    CanvasFile cf = Common.uploadFile(fileUrl, f);
+            try { // NB: the files are uploaded concurrently
+                List<File> nonEmpty = Arrays.stream(attachments).filter(f -> f.length() > 0).collect(Collectors.toList());
+                for (CanvasFile cf : Common.uploadFiles(fileUrl, nonEmpty)) {
                     fileIDs.add(cf.id);
-                } catch (Exception e) {
-                    LOG.severe(Common.t2s(e,"couldn't upload file for SubmissionComment"));
-                    return;
                 }
+            } catch (Exception e) {
+                LOG.severe(Common.t2s(e,"couldn't upload file for SubmissionComment"));
+                return;
             }
             ugc.comment.file_ids = fileIDs.toArray(new Integer[]{});
         }
         LOG.finer(url.toString());
-        JsonHttpContent json = new JsonHttpContent(new GsonFactory(), ugc);
+        HttpContent json = JsonCodecs.content(ugc);
 
         HttpRequest request;
         try {
             request = Common.requestFactory.buildPutRequest(url, json);
             request.getHeaders().setAuthorization(Common.TOKEN);
-            HttpResponse resp = request.execute();
+            HttpResponse resp = Common.execute(request);
             LOG.info("SubmissionComment PUT response: " + resp.parseAsString().substring(0,40)+"...");
         } catch (IOException e) {
             LOG.severe(Common.t2s(e,"sendMessage() Canvas SubmissionComment PUT error"));
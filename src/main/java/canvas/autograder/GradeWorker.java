@@ -33,8 +33,8 @@ class StreamConsumer extends Thread {
 
     @Override
     public void run() {
-        while (true) {
-            try {
+        try {
+            while (true) {
                 final int bufRealIndex = bufVirtualIndex % curBuf.length;
                 int bytesRead = istream.read(curBuf, bufRealIndex, curBuf.length - bufRealIndex);
                 if (-1 == bytesRead) { // EOF
@@ -42,13 +42,13 @@ class StreamConsumer extends Thread {
                     return;
                 }
                 bufVirtualIndex += bytesRead;
-            } catch (IOException ioe) {
-                try { writeToDisk(); } catch (IOException e) {} // dump what we can
-                GradeWorker.LOG.warning(Common.t2s(ioe,"StreamConsumer: error processing stream"));
-                return;
-            } finally {
-                try {istream.close();} catch (IOException e) {}
             }
+        } catch (IOException ioe) {
+            try { writeToDisk(); } catch (IOException e) {} // dump what we can
+            GradeWorker.LOG.warning(Common.t2s(ioe,"StreamConsumer: error processing stream"));
+        } finally {
+            // NB: only once we're done reading; closing inside the loop cut the output off after the first read
+            try {istream.close();} catch (IOException e) {}
         }
     }
 
@@ -92,6 +92,20 @@ public class GradeWorker {
     }
 
     private static TestResult parsePoints(File f, TestResult tr, final String nonce) throws IOException {
+        TestResult newTR = readPoints(f, tr, nonce);
+
+        // strip nonce from f via sed
+        ProcessBuilder pb = new ProcessBuilder("sed", "--in-place=", "-e", "s/"+nonce+"//", f.toString());
+        try {
+            Common.check_call(pb);
+        } catch (InterruptedException e) {
+            LOG.warning(Common.t2s(e,"running sed to erase nonce"));
+        }
+        return newTR;
+    }
+
+    /** Find the score in the autograder's output f, checking that it carries our nonce */
+    static TestResult readPoints(File f, TestResult tr, final String nonce) throws IOException {
         final Pattern patEarned = Pattern.compile("<scoreActual(\\d*)>\\s*(\\d+)</scoreActual>");
         final Pattern patPossible = Pattern.compile("<scorePossible(\\d*)>\\s*(\\d+)</scorePossible>");
 
@@ -125,14 +139,6 @@ public class GradeWorker {
             }
         }
 
-        // strip nonce from f via sed
-        ProcessBuilder pb = new ProcessBuilder("sed", "--in-place=", "-e", "s/"+nonce+"//", f.toString());
-        try {
-            Common.check_call(pb);
-        } catch (InterruptedException e) {
-            LOG.warning(Common.t2s(e,"running sed to erase nonce"));
-        }
-
         if (flagged) {
             pointsEarned = 0.0;
             pointsPossible = 1.0;
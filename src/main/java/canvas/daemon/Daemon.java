@@ -0,0 +1,234 @@
+package canvas.daemon;
+
+import canvas.Common;
+import canvas.CourseReplica;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * A long-lived process that runs our tools (e.g., CreateGroupDB) for DaemonClient. Running each tool in a fresh JVM
+ * means reading canvas.properties, opening TLS connections to Canvas and syncing the course, all in cold code, before
+ * the tool does any real work. The daemon does that once; each tool it runs then reuses its connections, caches
+ * (DiskCache, EntityCache, EntityRegistry, CourseReplica) and JIT-compiled code.
+ *
+ * The daemon listens on a loopback port, which it writes along with a random key to DAEMON_FILE in its working
+ * directory. NB: a Unix-domain socket would be the natural fit, but Java only has them from 16 on. Instead, only we
+ * can read DAEMON_FILE and clients must present its key, so other users on the machine can't run tools as us. As
+ * clients look for DAEMON_FILE in their own working directory, a relative path (e.g., groups.json) means the same
+ * thing to the tool as to whoever ran the client.
+ *
+ * Each tool run gets its own connection:
+ *  - the client sends the key, the number of arguments and the arguments (as DataOutput UTF strings), where the
+ *    first argument is the tool's class, e.g., CreateGroupDB or canvas.CreateGroupDB, and then its stdin
+ *  - the daemon sends frames of (OUT or ERR, length, bytes) with the tool's stdout and stderr, then (EXIT, status)
+ * The SHUTDOWN command stops the daemon.
+ *
+ * NB: tools expect System.in/out/err to themselves, so they run one at a time. Tools should exit with Common.exit().
+ * NB: a tool's static fields live on between runs, so only run tools that start each run from scratch, e.g., that
+ * don't add to a static collection (see the Makefile for the ones we've checked)
+ */
+public class Daemon {
+
+    private static final Logger LOG = Logger.getLogger(Daemon.class.getName());
+    static final String DAEMON_FILE = ".canvas-daemon";
+    static final byte OUT = 1, ERR = 2, EXIT = 3;
+    static final String SHUTDOWN = "shutdown";
+    /** How long a client has to send its command */
+    private static final int COMMAND_TIMEOUT_MS = 5 * 1000;
+
+    public static void main(String[] args) throws IOException {
+        Common.setup();
+        Common.runResident();
+
+        // NB: open connections to Canvas, load the course, and get the code that does so JIT-compiled
+        long start = System.currentTimeMillis();
+        CourseReplica.sync();
+        LOG.info(String.format("course synced in %dms", System.currentTimeMillis() - start));
+
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        final String key = hex(random);
+
+        final Path daemonFile = Paths.get(DAEMON_FILE);
+        try (ServerSocket serverSocket = new ServerSocket(0, 16, InetAddress.getLoopbackAddress())) {
+            writeDaemonFile(daemonFile, serverSocket.getLocalPort() + " " + key);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(daemonFile);
+                } catch (IOException e) {
+                    LOG.warning(Common.t2s(e, "couldn't delete " + daemonFile));
+                }
+            }));
+            System.out.format("canvas-utils daemon running in %s, port %d%n",
+                    Paths.get("").toAbsolutePath(), serverSocket.getLocalPort());
+
+            while (true) {
+                if (!serve(serverSocket.accept(), key)) break;
+            }
+        }
+        LOG.info("shutting down");
+        System.exit(0); // NB: stop any non-daemon threads a tool left behind
+    }
+
+    /** @return false if the daemon should shut down */
+    private static boolean serve(Socket socket, String key) {
+        try (Socket s = socket) {
+            s.setSoTimeout(COMMAND_TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            String clientKey = in.readUTF();
+            if (!MessageDigest.isEqual(key.getBytes(StandardCharsets.US_ASCII),
+                    clientKey.getBytes(StandardCharsets.US_ASCII))) {
+                LOG.warning("rejecting client with the wrong key");
+                return true;
+            }
+            String[] argv = new String[in.readInt()];
+            for (int i = 0; i < argv.length; i++) {
+                argv[i] = in.readUTF();
+            }
+            s.setSoTimeout(0); // NB: the tool may wait on its stdin for as long as it likes
+
+            final int status;
+            if (argv.length > 0 && SHUTDOWN.equals(argv[0])) {
+                status = 0;
+            } else {
+                LOG.info("running " + String.join(" ", argv));
+                long start = System.currentTimeMillis();
+                status = run(argv, in, out);
+                LOG.info(String.format("%s exited with %d after %dms", argv[0], status, System.currentTimeMillis() - start));
+            }
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(status);
+                out.flush();
+            }
+            // NB: wait for the client to hang up. Closing with unread stdin still in our buffer would reset the
+            // connection, and the client could lose our last frames
+            s.shutdownOutput();
+            s.setSoTimeout(1000);
+            try {
+                while (-1 != in.read()) { /* discard */ }
+            } catch (SocketTimeoutException e) {
+                // the client is still sending stdin, give up on it
+            }
+            return !(argv.length > 0 && SHUTDOWN.equals(argv[0]));
+        } catch (IOException e) {
+            LOG.warning(Common.t2s(e, "problem talking to client"));
+            return true;
+        }
+    }
+
+    /** Run a tool's main() with our System.in/out/err redirected to the client. @return its exit status */
+    private static int run(String[] argv, InputStream in, DataOutputStream out) {
+        InputStream oldIn = System.in;
+        PrintStream oldOut = System.out, oldErr = System.err;
+        PrintStream toolOut = new PrintStream(new FrameOutputStream(out, OUT), true);
+        PrintStream toolErr = new PrintStream(new FrameOutputStream(out, ERR), true);
+        System.setIn(in);
+        System.setOut(toolOut);
+        System.setErr(toolErr);
+        try {
+            if (0 == argv.length) {
+                System.err.println("usage: DaemonClient <tool> [args...], or DaemonClient " + SHUTDOWN);
+                return 2;
+            }
+            Method main = mainOf(argv[0]);
+            if (null == main) {
+                System.err.println("no such tool: " + argv[0]);
+                return 2;
+            }
+            main.invoke(null, (Object) Arrays.copyOfRange(argv, 1, argv.length));
+            return 0;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Common.ExitException) {
+                return ((Common.ExitException) e.getCause()).status;
+            }
+            e.getCause().printStackTrace();
+            return 1;
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            return 1;
+        } finally {
+            toolOut.flush();
+            toolErr.flush();
+            System.setIn(oldIn);
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+        }
+    }
+
+    /** @return the main() of the given tool, or null if there's no such tool. NB: only our own classes are tools */
+    private static Method mainOf(String tool) {
+        String className = tool.startsWith("canvas.") ? tool : "canvas." + tool;
+        try {
+            Method main = Class.forName(className).getMethod("main", String[].class);
+            return Modifier.isStatic(main.getModifiers()) ? main : null;
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static void writeDaemonFile(Path daemonFile, String contents) throws IOException {
+        Path tmp = daemonFile.resolveSibling(DAEMON_FILE + ".tmp");
+        Files.deleteIfExists(tmp);
+        try {
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(tmp); // not a POSIX filesystem
+        }
+        Files.write(tmp, contents.getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp, daemonFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /** Sends everything written to it to the client, as frames of the given kind */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte kind;
+
+        FrameOutputStream(DataOutputStream out, byte kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (0 == len) return;
+            synchronized (out) {
+                out.writeByte(kind);
+                out.writeInt(len);
+                out.write(b, off, len);
+                // NB: flush every write, so the client sees prompts (which don't end in a newline) before we block
+                // on stdin
+                out.flush();
+            }
+        }
+    }
+}
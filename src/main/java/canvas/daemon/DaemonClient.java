@@ -0,0 +1,85 @@
+package canvas.daemon;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+
+/**
+ * Runs a tool in the Daemon running in this directory, e.g., DaemonClient CreateGroupDB groups.json. Our stdin goes
+ * to the tool, and its output comes back to our stdout and stderr; we exit with the tool's exit status.
+ *
+ * NB: this is all the JVM loads, so keep it small. In particular, don't touch Common, which sets up HTTP transports.
+ */
+public class DaemonClient {
+
+    public static void main(String[] args) throws IOException {
+        final String[] portAndKey;
+        try {
+            portAndKey = new String(Files.readAllBytes(Paths.get(Daemon.DAEMON_FILE)), StandardCharsets.US_ASCII)
+                    .trim().split(" ");
+        } catch (NoSuchFileException e) {
+            System.err.println("no daemon is running in this directory, start one with: make daemon");
+            System.exit(2);
+            return;
+        }
+
+        final Socket s;
+        try {
+            s = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(portAndKey[0]));
+        } catch (ConnectException e) {
+            System.err.format("the daemon in this directory isn't running, remove %s and start it again with: make daemon%n",
+                    Daemon.DAEMON_FILE);
+            System.exit(2);
+            return;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        out.writeUTF(portAndKey[1]);
+        out.writeInt(args.length);
+        for (String a : args) {
+            out.writeUTF(a);
+        }
+        out.flush();
+
+        Thread stdin = new Thread(() -> {
+            byte[] buf = new byte[8192];
+            try {
+                int n;
+                while (-1 != (n = System.in.read(buf))) {
+                    out.write(buf, 0, n);
+                    out.flush();
+                }
+                s.shutdownOutput();
+            } catch (IOException e) {
+                // the tool is done, or the daemon hung up
+            }
+        }, "stdin");
+        stdin.setDaemon(true);
+        stdin.start();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        try {
+            while (true) {
+                byte kind = in.readByte();
+                if (Daemon.EXIT == kind) {
+                    int status = in.readInt();
+                    System.out.flush();
+                    System.exit(status);
+                }
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                PrintStream ps = Daemon.OUT == kind ? System.out : System.err;
+                ps.write(bytes);
+                ps.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("the daemon hung up (wrong key?)");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package canvas.graphql;
+
+import canvas.CanvasClient;
+import canvas.Common;
+import canvas.EntityRegistry;
+import canvas.apiobjects.Group;
+import canvas.apiobjects.Submission;
+import canvas.apiobjects.User;
+import canvas.json.JsonCodecs;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+
+import java.io.IOException;
+import java.util.*;
+
+import static canvas.graphql.GraphQLTypes.*;
+
+/**
+ * Reads from Canvas' GraphQL endpoint, which can return related objects (e.g., each group with its members) in a
+ * single request where the REST API needs one request per object. Results are returned as the usual
+ * canvas.apiobjects types, though only with the fields listed in the queries below. Users and Groups are the
+ * canonical instances from EntityRegistry.
+ *
+ * Requests go through Common's transport and RequestScheduler like any other API call, with client's token.
+ * GraphQL queries are POSTs, but they're read-only, so they're retried like GETs after a transient failure.
+ *
+ * Lists come back in pages of PAGE_SIZE; we follow each connection's pageInfo until we have all of it. Nested
+ * lists, like a group's members, are assumed to fit in a single page.
+ */
+public class GraphQLClient {
+
+    static final int PAGE_SIZE = 100;
+
+    private static final String USER_FIELDS = "_id name email sisId loginId";
+    private static final String GROUP_FIELDS = "_id name membersConnection { nodes { user { " + USER_FIELDS + " } } }";
+    private static final String SUBMISSION_FIELDS = "attempt score submittedAt gradedAt user { _id }";
+    private static final String PAGE_INFO = "pageInfo { hasNextPage endCursor }";
+
+    private static final String GROUPS = "groupsConnection(first: " + PAGE_SIZE + ", after: $groupsAfter) { "
+            + "nodes { " + GROUP_FIELDS + " } " + PAGE_INFO + " }";
+    // NB: by default Canvas leaves out unsubmitted submissions, but the REST API (and so our callers) include them
+    private static final String SUBMISSIONS = "submissionsConnection(first: " + PAGE_SIZE + ", after: $subsAfter, "
+            + "filter: { states: [unsubmitted, submitted, pending_review, graded, ungraded] }) { "
+            + "nodes { " + SUBMISSION_FIELDS + " } " + PAGE_INFO + " }";
+    private static final String STUDENTS = "usersConnection(first: " + PAGE_SIZE + ", after: $usersAfter, "
+            + "filter: { enrollmentTypes: [StudentEnrollment], enrollmentStates: [active] }) { "
+            + "nodes { " + USER_FIELDS + " } " + PAGE_INFO + " }";
+
+    private static final String GROUPS_QUERY = "query($course: ID!, $groupsAfter: String) { "
+            + "course(id: $course) { " + GROUPS + " } }";
+    private static final String SUBMISSIONS_QUERY = "query($assignment: ID!, $subsAfter: String) { "
+            + "assignment(id: $assignment) { " + SUBMISSIONS + " } }";
+    private static final String GROUPS_AND_SUBMISSIONS_QUERY =
+            "query($course: ID!, $assignment: ID!, $groupsAfter: String, $subsAfter: String) { "
+                    + "course(id: $course) { " + GROUPS + " } "
+                    + "assignment(id: $assignment) { " + SUBMISSIONS + " } }";
+    private static final String STUDENTS_QUERY = "query($course: ID!, $usersAfter: String) { "
+            + "course(id: $course) { " + STUDENTS + " } }";
+
+    /** The groups in a course, with their members, and the submissions for one assignment */
+    public static class GroupsAndSubmissions {
+        public final List<Group> groups;
+        public final List<Submission> submissions;
+
+        GroupsAndSubmissions(List<Group> groups, List<Submission> submissions) {
+            this.groups = groups;
+            this.submissions = submissions;
+        }
+
+        /** @return the submissions, keyed by user id */
+        public Map<Integer, Submission> submissionOfUser() {
+            Map<Integer, Submission> m = new HashMap<>();
+            for (Submission s : submissions) {
+                m.put(s.user_id, s);
+            }
+            return m;
+        }
+    }
+
+    private final CanvasClient client;
+    private final GenericUrl endpoint;
+
+    /** A client for the GraphQL endpoint on client's site, e.g., https://upenn.instructure.com/api/graphql */
+    public GraphQLClient(CanvasClient client) {
+        this(client, client.baseUrl().replaceFirst("v1/$", "") + "graphql");
+    }
+
+    /** A client for the given GraphQL endpoint, e.g., a stub server in a test */
+    public GraphQLClient(CanvasClient client, String endpoint) {
+        this.client = client;
+        this.endpoint = new GenericUrl(endpoint);
+    }
+
+    /** @return all groups in the course (like GET courses/:id/groups), with their members filled in */
+    public List<Group> groups() throws IOException {
+        return EntityRegistry.groups(moreGroups(new ArrayList<>(), null));
+    }
+
+    /** @return all submissions for the given assignment, like GET courses/:id/assignments/:id/submissions */
+    public List<Submission> submissions(String assignmentId) throws IOException {
+        return moreSubmissions(new ArrayList<>(), assignmentId, null);
+    }
+
+    /**
+     * @return all groups in the course with their members, and all submissions for the given assignment. If
+     * neither list needs more than one page, this takes a single request.
+     */
+    public GroupsAndSubmissions groupsAndSubmissions(String assignmentId) throws IOException {
+        ResponseData d = query(GROUPS_AND_SUBMISSIONS_QUERY,
+                vars("course", client.courseId(), "assignment", assignmentId));
+        GroupConnection gc = course(d).groupsConnection;
+        SubmissionConnection sc = assignment(d, assignmentId).submissionsConnection;
+
+        List<Group> groups = new ArrayList<>();
+        addGroups(groups, gc);
+        if (gc.pageInfo.hasMore()) {
+            moreGroups(groups, gc.pageInfo.endCursor);
+        }
+        List<Submission> subs = new ArrayList<>();
+        addSubmissions(subs, sc, assignmentId);
+        if (sc.pageInfo.hasMore()) {
+            moreSubmissions(subs, assignmentId, sc.pageInfo.endCursor);
+        }
+        return new GroupsAndSubmissions(EntityRegistry.groups(groups), subs);
+    }
+
+    /**
+     * @return the active students in the course, like GET courses/:id/users with enrollment_type[]=student and
+     * enrollment_state[]=active. NB: email is only filled in if our token is allowed to see it.
+     */
+    public List<User> students() throws IOException {
+        List<User> users = new ArrayList<>();
+        String after = null;
+        do {
+            ResponseData d = query(STUDENTS_QUERY, vars("course", client.courseId(), "usersAfter", after));
+            UserConnection uc = course(d).usersConnection;
+            if (present(uc.nodes)) {
+                for (GqlUser u : uc.nodes) {
+                    users.add(u.toUser());
+                }
+            }
+            after = uc.pageInfo.hasMore() ? uc.pageInfo.endCursor : null;
+        } while (null != after);
+        return EntityRegistry.users(users);
+    }
+
+    /** Add groups, from the page after the given cursor (or from the start, if it's null) on */
+    private List<Group> moreGroups(List<Group> groups, String after) throws IOException {
+        do {
+            ResponseData d = query(GROUPS_QUERY, vars("course", client.courseId(), "groupsAfter", after));
+            GroupConnection gc = course(d).groupsConnection;
+            addGroups(groups, gc);
+            after = gc.pageInfo.hasMore() ? gc.pageInfo.endCursor : null;
+        } while (null != after);
+        return groups;
+    }
+
+    /** Add submissions, from the page after the given cursor (or from the start, if it's null) on */
+    private List<Submission> moreSubmissions(List<Submission> subs, String assignmentId, String after)
+            throws IOException {
+        do {
+            ResponseData d = query(SUBMISSIONS_QUERY, vars("assignment", assignmentId, "subsAfter", after));
+            SubmissionConnection sc = assignment(d, assignmentId).submissionsConnection;
+            addSubmissions(subs, sc, assignmentId);
+            after = sc.pageInfo.hasMore() ? sc.pageInfo.endCursor : null;
+        } while (null != after);
+        return subs;
+    }
+
+    private static void addGroups(List<Group> groups, GroupConnection gc) {
+        if (!present(gc.nodes)) return;
+        for (GqlGroup g : gc.nodes) {
+            groups.add(g.toGroup());
+        }
+    }
+
+    private static void addSubmissions(List<Submission> subs, SubmissionConnection sc, String assignmentId) {
+        if (!present(sc.nodes)) return;
+        int aid = Integer.parseInt(assignmentId);
+        for (GqlSubmission s : sc.nodes) {
+            subs.add(s.toSubmission(aid));
+        }
+    }
+
+    // NB: Canvas returns null, rather than an error, for an object that doesn't exist or that we can't see
+
+    private Course course(ResponseData d) throws GraphQLException {
+        if (!present(d.course)) {
+            throw new GraphQLException(Collections.singletonList("no course with id " + client.courseId()));
+        }
+        return d.course;
+    }
+
+    private static Assignment assignment(ResponseData d, String assignmentId) throws GraphQLException {
+        if (!present(d.assignment)) {
+            throw new GraphQLException(Collections.singletonList("no assignment with id " + assignmentId));
+        }
+        return d.assignment;
+    }
+
+    /** @return query variables from alternating names and values, leaving out those whose value is null */
+    private static Map<String, String> vars(String... namesAndValues) {
+        Map<String, String> v = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (null != namesAndValues[i + 1]) v.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return v;
+    }
+
+    /** Send a query to Canvas, returning the response's data */
+    private ResponseData query(String query, Map<String, String> variables) throws IOException {
+        Request body = new Request();
+        body.query = query;
+        body.variables = variables;
+
+        HttpRequest request = Common.requestFactory.buildPostRequest(endpoint, JsonCodecs.content(body));
+        request.getHeaders().setAuthorization(client.token());
+        HttpResponse response = Common.executeIdempotent(request);
+        Response r = JsonCodecs.parse(response.getContent(), response.getContentCharset(), Response.class);
+
+        if (present(r.errors) && r.errors.length > 0) {
+            List<String> messages = new ArrayList<>();
+            for (QueryError e : r.errors) {
+                messages.add(e.message);
+            }
+            throw new GraphQLException(messages);
+        }
+        if (!present(r.data)) {
+            throw new GraphQLException(Collections.singletonList("response has no data"));
+        }
+        return r.data;
+    }
+}
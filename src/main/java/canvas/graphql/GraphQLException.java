@@ -0,0 +1,27 @@
+package canvas.graphql;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when Canvas answers a GraphQL query with errors, e.g., because the query asks for a field that doesn't
+ * exist or for an object we aren't allowed to see. (HTTP-level failures are reported as usual, via
+ * HttpResponseException.)
+ */
+public class GraphQLException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> messages;
+
+    GraphQLException(List<String> messages) {
+        super("GraphQL query failed: " + String.join("; ", messages));
+        this.messages = Collections.unmodifiableList(messages);
+    }
+
+    /** @return the message of each error that Canvas reported */
+    public List<String> getMessages() {
+        return messages;
+    }
+}
@@ -0,0 +1,184 @@
+package canvas.graphql;
+
+import canvas.apiobjects.Group;
+import canvas.apiobjects.Submission;
+import canvas.apiobjects.User;
+import com.google.api.client.util.Data;
+import com.google.api.client.util.Key;
+
+import java.util.Map;
+
+/**
+ * The shapes of the requests we send to, and the responses we get from, Canvas' GraphQL endpoint. Only the fields
+ * that GraphQLClient's queries ask for are here. GraphQL uses string ids and camelCase names, so each type knows how
+ * to convert itself into the matching canvas.apiobjects type.
+ *
+ * NB: the nested classes are public so that google-http-client can instantiate them when generated codecs are off.
+ */
+final class GraphQLTypes {
+
+    private GraphQLTypes() {
+    }
+
+    /** @return true if o was in the response and wasn't a JSON null */
+    static boolean present(Object o) {
+        return null != o && !Data.isNull(o);
+    }
+
+    /** @return the numeric (REST) id for a GraphQL _id, which is a string */
+    static int legacyId(String id) {
+        return Integer.parseInt(id);
+    }
+
+    public static class Request {
+        @Key
+        String query;
+        @Key
+        Map<String, String> variables;
+    }
+
+    public static class Response {
+        @Key
+        ResponseData data;
+        @Key
+        QueryError[] errors;
+    }
+
+    public static class QueryError {
+        @Key
+        String message;
+    }
+
+    /** The top-level fields of all of our queries, only some of which are in any one response */
+    public static class ResponseData {
+        @Key
+        Course course;
+        @Key
+        Assignment assignment;
+    }
+
+    public static class PageInfo {
+        @Key
+        Boolean hasNextPage;
+        @Key
+        String endCursor;
+
+        boolean hasMore() {
+            return present(hasNextPage) && hasNextPage && present(endCursor);
+        }
+    }
+
+    public static class Course {
+        @Key
+        GroupConnection groupsConnection;
+        @Key
+        UserConnection usersConnection;
+    }
+
+    public static class Assignment {
+        @Key
+        SubmissionConnection submissionsConnection;
+    }
+
+    public static class GroupConnection {
+        @Key
+        GqlGroup[] nodes;
+        @Key
+        PageInfo pageInfo;
+    }
+
+    public static class UserConnection {
+        @Key
+        GqlUser[] nodes;
+        @Key
+        PageInfo pageInfo;
+    }
+
+    public static class SubmissionConnection {
+        @Key
+        GqlSubmission[] nodes;
+        @Key
+        PageInfo pageInfo;
+    }
+
+    public static class MembershipConnection {
+        @Key
+        Membership[] nodes;
+    }
+
+    public static class Membership {
+        @Key
+        GqlUser user;
+    }
+
+    public static class GqlUser {
+        @Key
+        String _id;
+        @Key
+        String name;
+        @Key
+        String email;
+        @Key
+        String sisId;
+        @Key
+        String loginId;
+
+        User toUser() {
+            User u = new User();
+            u.id = legacyId(_id);
+            u.name = name;
+            u.email = email;
+            u.sis_user_id = sisId;
+            u.login_id = loginId;
+            return u;
+        }
+    }
+
+    public static class GqlGroup {
+        @Key
+        String _id;
+        @Key
+        String name;
+        @Key
+        MembershipConnection membersConnection;
+
+        Group toGroup() {
+            Group g = new Group();
+            g.id = legacyId(_id);
+            g.name = name;
+            Membership[] ms = present(membersConnection) && present(membersConnection.nodes)
+                    ? membersConnection.nodes : new Membership[0];
+            g.members = new User[ms.length];
+            for (int i = 0; i < ms.length; i++) {
+                g.members[i] = ms[i].user.toUser();
+                g.members[i].group = g;
+            }
+            return g;
+        }
+    }
+
+    public static class GqlSubmission {
+        @Key
+        Integer attempt;
+        @Key
+        Double score;
+        @Key
+        String submittedAt;
+        @Key
+        String gradedAt;
+        @Key
+        GqlUser user;
+
+        Submission toSubmission(int assignmentId) {
+            Submission s = new Submission();
+            s.assignment_id = assignmentId;
+            s.user_id = legacyId(user._id);
+            s.attempt = attempt;
+            s.score = score;
+            // like the REST API's parser, use "" for a missing date so that parseTimes() works
+            s.submitted_at_string = present(submittedAt) ? submittedAt : Data.NULL_STRING;
+            s.graded_at_string = present(gradedAt) ? gradedAt : Data.NULL_STRING;
+            return s;
+        }
+    }
+}
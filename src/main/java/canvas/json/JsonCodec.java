@@ -0,0 +1,19 @@
+package canvas.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes one class of JSON objects without reflection. Codecs for the @Key classes are generated at
+ * compile time by the processor in the codecs module; use JsonCodecs.lookup() to find one.
+ */
+public interface JsonCodec<T> {
+
+    /** Read the next value from in. Like google-http-client, a JSON null becomes Data.nullOf(T). */
+    T read(JsonReader in) throws IOException;
+
+    /** Write value to out. Fields that are null are left out, and Data.nullOf() sentinels become JSON null. */
+    void write(JsonWriter out, T value) throws IOException;
+}
@@ -0,0 +1,386 @@
+package canvas.json;
+
+import com.google.api.client.http.AbstractHttpContent;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.JsonObjectParser;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.ArrayMap;
+import com.google.api.client.util.Data;
+import com.google.api.client.util.ObjectParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the generated JsonCodec for a class, and parses/serializes JSON with it. Classes without a generated codec
+ * (e.g., GenericJson subclasses, or when the codecs module wasn't on the compiler's processor path) fall back to
+ * google-http-client's reflective @Key mapping, so callers never need to care which one they get.
+ *
+ * The static read/write helpers below are for the generated code. They follow google-http-client's conventions:
+ * a JSON null becomes a Data.nullOf() sentinel (e.g., an empty String for a String field), and a JSON null for
+ * a primitive field is an error.
+ */
+public class JsonCodecs {
+
+    /** Generated codecs live next to their class, e.g., canvas.autograder.GradeCoordinator_UploadGradeCommentJsonCodec */
+    public static final String CODEC_SUFFIX = "JsonCodec";
+
+    /** Parser for HttpResponse.parseAs(), see Common.requestFactory */
+    public static final ObjectParser PARSER = new Parser();
+
+    private static final GsonFactory gson = GsonFactory.getDefaultInstance();
+    private static final JsonObjectParser reflectiveParser = new JsonObjectParser(gson);
+    private static volatile boolean enabled = !"false".equals(System.getProperty("canvas.codecs"));
+
+    private static final ClassValue<JsonCodec<?>> codecs = new ClassValue<JsonCodec<?>>() {
+        @Override
+        protected JsonCodec<?> computeValue(Class<?> clazz) {
+            if (clazz.isArray()) {
+                JsonCodec<?> element = get(clazz.getComponentType());
+                return null == element ? null : new ArrayCodec<>(clazz, element);
+            }
+            try {
+                String name = clazz.getName().replace('$', '_') + CODEC_SUFFIX;
+                return (JsonCodec<?>) Class.forName(name, true, clazz.getClassLoader()).getField("INSTANCE").get(null);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+    };
+
+    /** Turn the generated codecs on or off (e.g., to compare against the reflective path). On by default. */
+    public static void setEnabled(boolean e) {
+        enabled = e;
+    }
+
+    /** @return the generated codec for clazz (or for its elements, if clazz is an array), or null if there isn't one */
+    @SuppressWarnings("unchecked")
+    public static <T> JsonCodec<T> lookup(Class<T> clazz) {
+        return enabled ? (JsonCodec<T>) codecs.get(clazz) : null;
+    }
+
+    public static <T> T parse(InputStream in, Charset charset, Class<T> clazz) throws IOException {
+        JsonCodec<T> codec = lookup(clazz);
+        if (null == codec) {
+            return reflectiveParser.parseAndClose(in, charset, clazz);
+        }
+        try (Reader r = new InputStreamReader(in, charset)) {
+            return read(r, codec);
+        }
+    }
+
+    public static <T> T parse(byte[] json, Class<T> clazz) throws IOException {
+        return parse(new ByteArrayInputStream(json), StandardCharsets.UTF_8, clazz);
+    }
+
+    public static <T> T parse(String json, Class<T> clazz) throws IOException {
+        JsonCodec<T> codec = lookup(clazz);
+        if (null == codec) {
+            return gson.createJsonParser(json).parse(clazz);
+        }
+        return read(new StringReader(json), codec);
+    }
+
+    private static <T> T read(Reader r, JsonCodec<T> codec) throws IOException {
+        JsonReader in = new JsonReader(r);
+        in.setLenient(true); // like GsonParser
+        return codec.read(in);
+    }
+
+    /** @return a request body with o encoded as JSON */
+    public static HttpContent content(Object o) {
+        return content(o, null);
+    }
+
+    /**
+     * @return a request body with o encoded as JSON
+     * @param wrapperKey create an outer object with "wrapperKey" mapping to o (null for no wrapper key)
+     */
+    @SuppressWarnings("unchecked")
+    public static HttpContent content(Object o, String wrapperKey) {
+        JsonCodec<Object> codec = (JsonCodec<Object>) lookup(o.getClass());
+        if (null == codec) {
+            JsonHttpContent content = new JsonHttpContent(gson, o);
+            if (null != wrapperKey) content.setWrapperKey(wrapperKey);
+            return content;
+        }
+        return new AbstractHttpContent(Json.MEDIA_TYPE) {
+            @Override
+            public void writeTo(OutputStream os) throws IOException {
+                JsonWriter out = new JsonWriter(new OutputStreamWriter(os, getCharset()));
+                if (null != wrapperKey) {
+                    out.beginObject();
+                    out.name(wrapperKey);
+                }
+                codec.write(out, o);
+                if (null != wrapperKey) out.endObject();
+                out.flush();
+            }
+        };
+    }
+
+    private static class Parser implements ObjectParser {
+        @Override
+        public <T> T parseAndClose(InputStream in, Charset charset, Class<T> dataClass) throws IOException {
+            return parse(in, charset, dataClass);
+        }
+
+        @Override
+        public Object parseAndClose(InputStream in, Charset charset, Type dataType) throws IOException {
+            if (dataType instanceof Class) return parse(in, charset, (Class<?>) dataType);
+            return reflectiveParser.parseAndClose(in, charset, dataType);
+        }
+
+        @Override
+        public <T> T parseAndClose(Reader reader, Class<T> dataClass) throws IOException {
+            JsonCodec<T> codec = lookup(dataClass);
+            if (null == codec) return reflectiveParser.parseAndClose(reader, dataClass);
+            try (Reader r = reader) {
+                return read(r, codec);
+            }
+        }
+
+        @Override
+        public Object parseAndClose(Reader reader, Type dataType) throws IOException {
+            if (dataType instanceof Class) return parseAndClose(reader, (Class<?>) dataType);
+            return reflectiveParser.parseAndClose(reader, dataType);
+        }
+    }
+
+    private static class ArrayCodec<E> implements JsonCodec<Object> {
+        private final Class<?> arrayClass;
+        private final JsonCodec<E> element;
+
+        @SuppressWarnings("unchecked")
+        ArrayCodec(Class<?> arrayClass, JsonCodec<?> element) {
+            this.arrayClass = arrayClass;
+            this.element = (JsonCodec<E>) element;
+        }
+
+        @Override
+        public Object read(JsonReader in) throws IOException {
+            return readArray(in, arrayClass, element::read);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void write(JsonWriter out, Object value) throws IOException {
+            writeArray(out, (E[]) value, (w, e) -> writeObject(w, e, element));
+        }
+    }
+
+    // helpers for generated codecs
+
+    public interface ElementReader<E> {
+        E read(JsonReader in) throws IOException;
+    }
+
+    public interface ElementWriter<E> {
+        void write(JsonWriter out, E value) throws IOException;
+    }
+
+    /** If the next value is a JSON null, consume it and return true */
+    public static boolean nextIsNull(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.NULL) return false;
+        in.nextNull();
+        return true;
+    }
+
+    private static void checkNotNull(JsonReader in) throws IOException {
+        if (nextIsNull(in)) {
+            throw new IllegalArgumentException("primitive number field but found a JSON null");
+        }
+    }
+
+    public static int readInt(JsonReader in) throws IOException {
+        checkNotNull(in);
+        return in.nextInt();
+    }
+
+    public static long readLong(JsonReader in) throws IOException {
+        checkNotNull(in);
+        return in.nextLong();
+    }
+
+    public static double readDouble(JsonReader in) throws IOException {
+        checkNotNull(in);
+        return in.nextDouble();
+    }
+
+    public static boolean readBoolean(JsonReader in) throws IOException {
+        checkNotNull(in);
+        return in.nextBoolean();
+    }
+
+    public static Integer readInteger(JsonReader in) throws IOException {
+        return nextIsNull(in) ? Data.NULL_INTEGER : Integer.valueOf(in.nextInt());
+    }
+
+    public static Long readLongObject(JsonReader in) throws IOException {
+        return nextIsNull(in) ? Data.NULL_LONG : Long.valueOf(in.nextLong());
+    }
+
+    public static Double readDoubleObject(JsonReader in) throws IOException {
+        return nextIsNull(in) ? Data.NULL_DOUBLE : Double.valueOf(in.nextDouble());
+    }
+
+    public static Boolean readBooleanObject(JsonReader in) throws IOException {
+        return nextIsNull(in) ? Data.NULL_BOOLEAN : Boolean.valueOf(in.nextBoolean());
+    }
+
+    public static String readString(JsonReader in) throws IOException {
+        return nextIsNull(in) ? Data.NULL_STRING : in.nextString();
+    }
+
+    public static Map<String, String> readStringMap(JsonReader in) throws IOException {
+        if (nextIsNull(in)) return Data.nullOf(ArrayMap.class);
+        Map<String, String> map = ArrayMap.create();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            map.put(name, readString(in));
+        }
+        in.endObject();
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <A, E> A readArray(JsonReader in, Class<?> arrayClass, ElementReader<E> element) throws IOException {
+        if (nextIsNull(in)) return (A) Data.nullOf(arrayClass);
+        List<E> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(element.read(in));
+        }
+        in.endArray();
+        return (A) list.toArray((E[]) Array.newInstance(arrayClass.getComponentType(), list.size()));
+    }
+
+    public static int[] readIntArray(JsonReader in) throws IOException {
+        if (nextIsNull(in)) return Data.nullOf(int[].class);
+        int[] a = new int[16];
+        int n = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (n == a.length) a = Arrays.copyOf(a, 2 * n);
+            a[n++] = readInt(in);
+        }
+        in.endArray();
+        return Arrays.copyOf(a, n);
+    }
+
+    public static long[] readLongArray(JsonReader in) throws IOException {
+        if (nextIsNull(in)) return Data.nullOf(long[].class);
+        long[] a = new long[16];
+        int n = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (n == a.length) a = Arrays.copyOf(a, 2 * n);
+            a[n++] = readLong(in);
+        }
+        in.endArray();
+        return Arrays.copyOf(a, n);
+    }
+
+    public static double[] readDoubleArray(JsonReader in) throws IOException {
+        if (nextIsNull(in)) return Data.nullOf(double[].class);
+        double[] a = new double[16];
+        int n = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (n == a.length) a = Arrays.copyOf(a, 2 * n);
+            a[n++] = readDouble(in);
+        }
+        in.endArray();
+        return Arrays.copyOf(a, n);
+    }
+
+    public static void writeString(JsonWriter out, String value) throws IOException {
+        if (Data.isNull(value)) out.nullValue();
+        else out.value(value);
+    }
+
+    public static void writeNumber(JsonWriter out, Number value) throws IOException {
+        if (Data.isNull(value)) out.nullValue();
+        else out.value(value);
+    }
+
+    public static void writeBoolean(JsonWriter out, Boolean value) throws IOException {
+        if (Data.isNull(value)) out.nullValue();
+        else out.value(value.booleanValue());
+    }
+
+    public static void writeStringMap(JsonWriter out, Map<String, String> value) throws IOException {
+        if (Data.isNull(value)) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (Map.Entry<String, String> e : value.entrySet()) {
+            if (null == e.getValue()) continue;
+            out.name(e.getKey());
+            writeString(out, e.getValue());
+        }
+        out.endObject();
+    }
+
+    public static <T> void writeObject(JsonWriter out, T value, JsonCodec<T> codec) throws IOException {
+        if (Data.isNull(value)) out.nullValue();
+        else codec.write(out, value);
+    }
+
+    public static <E> void writeArray(JsonWriter out, E[] value, ElementWriter<E> element) throws IOException {
+        if (Data.isNull(value)) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (E e : value) {
+            if (null == e) out.nullValue();
+            else element.write(out, e);
+        }
+        out.endArray();
+    }
+
+    public static void writeIntArray(JsonWriter out, int[] value) throws IOException {
+        if (Data.isNull(value)) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (int i : value) out.value(i);
+        out.endArray();
+    }
+
+    public static void writeLongArray(JsonWriter out, long[] value) throws IOException {
+        if (Data.isNull(value)) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (long l : value) out.value(l);
+        out.endArray();
+    }
+
+    public static void writeDoubleArray(JsonWriter out, double[] value) throws IOException {
+        if (Data.isNull(value)) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (double d : value) out.value(d);
+        out.endArray();
+    }
+}
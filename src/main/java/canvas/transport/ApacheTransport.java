@@ -0,0 +1,253 @@
+package canvas.transport;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.*;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CanvasTransport backed by Apache HttpClient, with a pool of keep-alive connections. HttpClient also takes care
+ * of decompressing gzip'ed responses.
+ */
+public class ApacheTransport extends CanvasTransport {
+
+    private final PoolingHttpClientConnectionManager pool;
+    private final CloseableHttpClient client;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+
+    private final int connectionRequestTimeout;
+
+    public ApacheTransport(int maxConnections, int maxConnectionsPerRoute) {
+        this(maxConnections, maxConnectionsPerRoute, CONNECTION_REQUEST_TIMEOUT_MS);
+    }
+
+    /**
+     * @param connectionRequestTimeout how long (in ms) a request waits for a free connection before failing with
+     *                                 ConnectionPoolTimeoutException
+     */
+    public ApacheTransport(int maxConnections, int maxConnectionsPerRoute, int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+        pool = new PoolingHttpClientConnectionManager((HttpRoute route, ConnectionConfig config) -> {
+            connectionsOpened.incrementAndGet();
+            return ManagedHttpClientConnectionFactory.INSTANCE.create(route, config);
+        });
+        pool.setMaxTotal(maxConnections);
+        pool.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        client = HttpClients.custom()
+                .setConnectionManager(pool)
+                // google-http-client follows redirects itself (dropping our Authorization header along the way)
+                .disableRedirectHandling()
+                .disableCookieManagement()
+                .build();
+    }
+
+    @Override
+    public boolean supportsMethod(String method) {
+        return true;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) {
+        final HttpRequestBase request;
+        switch (method) {
+            case "GET":
+                request = new HttpGet(url);
+                break;
+            case "DELETE":
+                request = new HttpDelete(url);
+                break;
+            case "HEAD":
+                request = new HttpHead(url);
+                break;
+            default:
+                request = new HttpEntityEnclosingRequestBase() {
+                    @Override
+                    public String getMethod() {
+                        return method;
+                    }
+                };
+                request.setURI(URI.create(url));
+        }
+        requests.incrementAndGet();
+        return new ApacheRequest(client, request, connectionRequestTimeout);
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        org.apache.http.pool.PoolStats ps = pool.getTotalStats();
+        return new PoolStats(requests.get(), connectionsOpened.get(),
+                ps.getLeased(), ps.getAvailable(), ps.getPending());
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        client.close();
+    }
+
+    private static class ApacheRequest extends LowLevelHttpRequest {
+        private final CloseableHttpClient client;
+        private final HttpRequestBase request;
+        private final RequestConfig.Builder config = RequestConfig.custom();
+
+        ApacheRequest(CloseableHttpClient client, HttpRequestBase request, int connectionRequestTimeout) {
+            this.client = client;
+            this.request = request;
+            config.setConnectionRequestTimeout(connectionRequestTimeout);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            request.addHeader(name, value);
+        }
+
+        @Override
+        public void setTimeout(int connectTimeout, int readTimeout) {
+            config.setConnectTimeout(connectTimeout).setSocketTimeout(readTimeout);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            if (null != getStreamingContent()) {
+                if (!(request instanceof HttpEntityEnclosingRequest)) {
+                    throw new IllegalArgumentException(request.getMethod() + " requests can't have content");
+                }
+                StreamingEntity entity = new StreamingEntity(getContentLength(), getStreamingContent());
+                entity.setContentType(getContentType());
+                entity.setContentEncoding(getContentEncoding());
+                ((HttpEntityEnclosingRequest) request).setEntity(entity);
+            }
+            request.setConfig(config.build());
+            return new ApacheResponse(request, client.execute(request));
+        }
+    }
+
+    /** Writes a google-http-client request body straight to the connection */
+    private static class StreamingEntity extends AbstractHttpEntity {
+        private final long length;
+        private final StreamingContent content;
+
+        StreamingEntity(long length, StreamingContent content) {
+            this.length = length;
+            this.content = content;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public InputStream getContent() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (0 != length) {
+                content.writeTo(out);
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return true;
+        }
+    }
+
+    private static class ApacheResponse extends LowLevelHttpResponse {
+        private final HttpRequestBase request;
+        private final CloseableHttpResponse response;
+        private final Header[] headers;
+
+        ApacheResponse(HttpRequestBase request, CloseableHttpResponse response) {
+            this.request = request;
+            this.response = response;
+            this.headers = response.getAllHeaders();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            // NB: once the caller reads this to the end and closes it, the connection goes back into the pool
+            HttpEntity entity = response.getEntity();
+            return null == entity ? null : entity.getContent();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            HttpEntity entity = response.getEntity();
+            if (null == entity || null == entity.getContentEncoding()) return null;
+            return entity.getContentEncoding().getValue();
+        }
+
+        @Override
+        public long getContentLength() {
+            HttpEntity entity = response.getEntity();
+            return null == entity ? -1 : entity.getContentLength();
+        }
+
+        @Override
+        public String getContentType() {
+            HttpEntity entity = response.getEntity();
+            if (null == entity || null == entity.getContentType()) return null;
+            return entity.getContentType().getValue();
+        }
+
+        @Override
+        public String getStatusLine() {
+            return response.getStatusLine().toString();
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.getStatusLine().getStatusCode();
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            return response.getStatusLine().getReasonPhrase();
+        }
+
+        @Override
+        public int getHeaderCount() {
+            return headers.length;
+        }
+
+        @Override
+        public String getHeaderName(int index) {
+            return headers[index].getName();
+        }
+
+        @Override
+        public String getHeaderValue(int index) {
+            return headers[index].getValue();
+        }
+
+        @Override
+        public void disconnect() {
+            request.abort();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package canvas.transport;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+
+import java.io.IOException;
+
+/**
+ * The HTTP backend underneath Common.requestFactory. All of our HTTP traffic (Canvas API calls as well as
+ * downloads of submitted files) goes through a single CanvasTransport, so that it shares one pool of keep-alive
+ * connections.
+ *
+ * Backends:
+ *  - "apache": Apache HttpClient with a connection pool (the default)
+ *  - "jdk": the JDK's java.net.http.HttpClient, which multiplexes requests over HTTP/2. Only available when
+ *    built and run on Java 11+.
+ */
+public abstract class CanvasTransport extends HttpTransport {
+
+    /** Max connections across all hosts */
+    public static final int MAX_CONNECTIONS = 64;
+    /** Max connections to any one host, e.g., upenn.instructure.com */
+    public static final int MAX_CONNECTIONS_PER_ROUTE = 16;
+    /**
+     * How long a request waits for a connection when all of them are in use. NB: a response holds on to its
+     * connection until it's read, ignore()d or disconnect()ed, so without this a few forgotten responses would
+     * eventually make every request hang
+     */
+    public static final int CONNECTION_REQUEST_TIMEOUT_MS = 60 * 1000;
+
+    /**
+     * Create the backend with the given name.
+     * @param name "apache" or "jdk"
+     */
+    public static CanvasTransport create(String name) {
+        switch (name) {
+            case "apache":
+                return new ApacheTransport(MAX_CONNECTIONS, MAX_CONNECTIONS_PER_ROUTE);
+            case "jdk":
+                try {
+                    // NB: JdkTransport is only compiled on Java 11+, see the jdk11 profile in canvasutils-pom.xml
+                    return (CanvasTransport) Class.forName("canvas.transport.JdkTransport")
+                            .getConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    throw new IllegalArgumentException("jdk transport requires Java 11+", e);
+                }
+            default:
+                throw new IllegalArgumentException("unknown HTTP transport: " + name);
+        }
+    }
+
+    /**
+     * Start a request. This is just HttpTransport.buildRequest(), made visible so that one CanvasTransport can
+     * wrap another.
+     */
+    public LowLevelHttpRequest open(String method, String url) throws IOException {
+        return buildRequest(method, url);
+    }
+
+    /** @return a snapshot of this transport's connection usage */
+    public abstract PoolStats getPoolStats();
+}
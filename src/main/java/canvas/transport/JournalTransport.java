@@ -0,0 +1,494 @@
+package canvas.transport;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records all HTTP traffic to a journal file, or replays it from one, so that scripts and the GradeCoordinator can
+ * be profiled repeatably without touching the real Canvas. Turn it on with the HttpJournal property (the journal's
+ * path; gzip'ed if it ends in .gz) and HttpJournalMode:
+ *  - "record": send requests as usual via the real transport, and append each exchange to the journal
+ *  - "replay": answer requests from the journal, waiting as long as Canvas originally took
+ *  - "replay-fast": answer requests from the journal immediately
+ *
+ * The journal has one JSON object per line with the request (method, URL, headers, body), the response (status,
+ * headers, body) and timing. Authorization headers, cookies and access_token parameters (including the ones
+ * Canvas echoes back in Link headers) are scrubbed before anything is written.
+ *
+ * On replay, a request gets the next unused response recorded for the same method, URL and body; failing that,
+ * the next one for the same method and URL (for bodies with timestamps in them); and once those run out, the last
+ * one again, so that polling loops can run longer than they did while recording. A request that was never
+ * recorded gets a 404.
+ *
+ * NB: response bodies are held in memory while they're recorded, so this isn't meant for huge downloads.
+ */
+public class JournalTransport extends CanvasTransport {
+
+    private static final String SCRUBBED = "SCRUBBED";
+    private static final Set<String> SECRET_HEADERS = new HashSet<>(Arrays.asList(
+            "authorization", "cookie", "set-cookie", "proxy-authorization"));
+    /** NB: also stops at the end of a URL inside a header, e.g., Link: <...?access_token=...>; rel="next" */
+    private static final Pattern ACCESS_TOKEN = Pattern.compile("(?<=[?&]access_token=)[^&#>\"\\s]*");
+
+    /** null when replaying */
+    private final CanvasTransport delegate;
+    private final Writer journal;
+    private final long started = System.nanoTime();
+    private final AtomicLong requests = new AtomicLong();
+
+    private final boolean realTime;
+    private final Map<String, List<Exchange>> byRequest = new HashMap<>();
+    private final Map<String, List<Exchange>> byUrl = new HashMap<>();
+
+    /** One request and its response */
+    private static class Exchange {
+        String method;
+        String url;
+        List<String[]> requestHeaders = new ArrayList<>();
+        String requestContentType;
+        byte[] requestBody;
+        /** ms since the journal was started */
+        double at;
+        /** ms from sending the request until we had the whole response */
+        double ms;
+        int status;
+        String statusLine;
+        String reason;
+        String contentType;
+        String contentEncoding;
+        List<String[]> headers = new ArrayList<>();
+        byte[] body;
+        boolean served = false;
+    }
+
+    private JournalTransport(CanvasTransport delegate, Writer journal, boolean realTime) {
+        this.delegate = delegate;
+        this.journal = journal;
+        this.realTime = realTime;
+    }
+
+    /** @return a transport that sends requests with delegate, appending them to the journal at file */
+    public static JournalTransport record(CanvasTransport delegate, Path file) throws IOException {
+        OutputStream out = Files.newOutputStream(file);
+        if (file.toString().endsWith(".gz")) {
+            out = new GZIPOutputStream(out, true);
+        }
+        final JournalTransport t = new JournalTransport(delegate,
+                new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), false);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                t.journal.close();
+            } catch (IOException e) {
+                // nothing more we can do
+            }
+        }, "canvas-journal-exit"));
+        return t;
+    }
+
+    /**
+     * @param realTime whether to take as long to answer each request as Canvas originally did
+     * @return a transport that answers requests from the journal at file
+     */
+    public static JournalTransport replay(Path file, boolean realTime) throws IOException {
+        JournalTransport t = new JournalTransport(null, null, realTime);
+        InputStream in = Files.newInputStream(file);
+        if (file.toString().endsWith(".gz")) {
+            in = new TruncatedGzipStream(in);
+        }
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while (null != (line = r.readLine())) {
+                if (line.isEmpty()) continue;
+                Exchange e = read(line);
+                t.byRequest.computeIfAbsent(requestKey(e.method, e.url, e.requestBody), k -> new ArrayList<>()).add(e);
+                t.byUrl.computeIfAbsent(urlKey(e.method, e.url), k -> new ArrayList<>()).add(e);
+            }
+        }
+        return t;
+    }
+
+    /**
+     * A gzip'ed journal from a run that's still going (or that crashed) has no gzip trailer, but every line we wrote
+     * was flushed, so treat a truncated stream as the end of the journal.
+     */
+    private static class TruncatedGzipStream extends FilterInputStream {
+        TruncatedGzipStream(InputStream in) throws IOException {
+            super(new GZIPInputStream(in));
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @param mode "record", "replay" or "replay-fast"
+     * @param real the transport to record from (ignored when replaying)
+     */
+    public static JournalTransport create(String mode, Path file, CanvasTransport real) throws IOException {
+        switch (mode) {
+            case "record":
+                return record(real, file);
+            case "replay":
+                return replay(file, true);
+            case "replay-fast":
+                return replay(file, false);
+            default:
+                throw new IllegalArgumentException("unknown HttpJournalMode: " + mode);
+        }
+    }
+
+    static String scrubUrl(String url) {
+        return ACCESS_TOKEN.matcher(url).replaceAll(SCRUBBED);
+    }
+
+    private static String urlKey(String method, String url) {
+        return method + " " + url;
+    }
+
+    private static String requestKey(String method, String url, byte[] body) {
+        if (null == body) return urlKey(method, url);
+        try {
+            return urlKey(method, url) + " " + Base64.getEncoder().encodeToString(
+                    MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // every JVM has SHA-256
+        }
+    }
+
+    @Override
+    public boolean supportsMethod(String method) throws IOException {
+        return null == delegate || delegate.supportsMethod(method);
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        requests.incrementAndGet();
+        return new JournalRequest(method, url, null == delegate ? null : delegate.open(method, url));
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return null != delegate ? delegate.getPoolStats() : new PoolStats(requests.get(), 0, 0, 0, 0);
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        if (null != journal) journal.close();
+        if (null != delegate) delegate.shutdown();
+    }
+
+    private synchronized Exchange lookup(String method, String url, byte[] body) {
+        Exchange e = next(byRequest.get(requestKey(method, url, body)));
+        if (null == e) e = next(byUrl.get(urlKey(method, url)));
+        if (null == e) return null;
+        e.served = true;
+        return e;
+    }
+
+    /** @return the first exchange that hasn't been served yet, or the last one if they all have */
+    private static Exchange next(List<Exchange> es) {
+        if (null == es) return null;
+        for (Exchange e : es) {
+            if (!e.served) return e;
+        }
+        return es.get(es.size() - 1);
+    }
+
+    private void append(Exchange e) throws IOException {
+        StringWriter sw = new StringWriter();
+        write(new JsonWriter(sw), e);
+        synchronized (journal) {
+            journal.write(sw.toString());
+            journal.write('\n');
+            journal.flush();
+        }
+    }
+
+    private class JournalRequest extends LowLevelHttpRequest {
+        private final LowLevelHttpRequest real;
+        private final Exchange exchange = new Exchange();
+
+        JournalRequest(String method, String url, LowLevelHttpRequest real) {
+            this.real = real;
+            exchange.method = method;
+            exchange.url = scrubUrl(url);
+        }
+
+        @Override
+        public void addHeader(String name, String value) throws IOException {
+            if (null != real) real.addHeader(name, value);
+            exchange.requestHeaders.add(new String[]{name, scrubHeader(name, value)});
+        }
+
+        @Override
+        public void setTimeout(int connectTimeout, int readTimeout) throws IOException {
+            if (null != real) real.setTimeout(connectTimeout, readTimeout);
+        }
+
+        @Override
+        public void setWriteTimeout(int writeTimeout) throws IOException {
+            if (null != real) real.setWriteTimeout(writeTimeout);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            final StreamingContent content = getStreamingContent();
+            if (null != content) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                content.writeTo(bytes);
+                exchange.requestBody = bytes.toByteArray();
+                exchange.requestContentType = getContentType();
+            }
+            return null == real ? replay() : record();
+        }
+
+        private LowLevelHttpResponse replay() throws IOException {
+            Exchange e = lookup(exchange.method, exchange.url, exchange.requestBody);
+            if (null == e) {
+                e = new Exchange();
+                e.status = 404;
+                e.reason = "Not Found";
+                e.statusLine = "HTTP/1.1 404 Not Found";
+                e.contentType = "application/json";
+                e.body = "{\"errors\":[{\"message\":\"not in the HTTP journal\"}]}".getBytes(StandardCharsets.UTF_8);
+            } else if (realTime) {
+                try {
+                    TimeUnit.MICROSECONDS.sleep((long) (e.ms * 1000));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while replaying " + e.url);
+                }
+            }
+            return new JournalResponse(e);
+        }
+
+        private LowLevelHttpResponse record() throws IOException {
+            if (null != exchange.requestBody) {
+                final byte[] body = exchange.requestBody;
+                real.setContentType(getContentType());
+                real.setContentEncoding(getContentEncoding());
+                real.setContentLength(body.length);
+                real.setStreamingContent(os -> os.write(body));
+            }
+            long start = System.nanoTime();
+            exchange.at = (start - started) / 1e6;
+            LowLevelHttpResponse r = real.execute();
+            try {
+                exchange.status = r.getStatusCode();
+                exchange.statusLine = r.getStatusLine();
+                exchange.reason = r.getReasonPhrase();
+                exchange.contentType = r.getContentType();
+                exchange.contentEncoding = r.getContentEncoding();
+                for (int i = 0; i < r.getHeaderCount(); i++) {
+                    exchange.headers.add(new String[]{r.getHeaderName(i),
+                            scrubHeader(r.getHeaderName(i), r.getHeaderValue(i))});
+                }
+                InputStream in = r.getContent();
+                if (null != in) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (InputStream body = in) {
+                        byte[] buf = new byte[8192];
+                        int n;
+                        while ((n = body.read(buf)) > 0) {
+                            bytes.write(buf, 0, n);
+                        }
+                    }
+                    exchange.body = bytes.toByteArray();
+                }
+            } finally {
+                r.disconnect();
+            }
+            exchange.ms = (System.nanoTime() - start) / 1e6;
+            append(exchange);
+            return new JournalResponse(exchange);
+        }
+    }
+
+    private static String scrubHeader(String name, String value) {
+        return SECRET_HEADERS.contains(name.toLowerCase()) ? SCRUBBED : null == value ? null : scrubUrl(value);
+    }
+
+    /** A recorded (or replayed) response */
+    private static class JournalResponse extends LowLevelHttpResponse {
+        private final Exchange e;
+
+        JournalResponse(Exchange e) {
+            this.e = e;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return null == e.body ? null : new ByteArrayInputStream(e.body);
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return e.contentEncoding;
+        }
+
+        @Override
+        public long getContentLength() {
+            return null == e.body ? 0 : e.body.length;
+        }
+
+        @Override
+        public String getContentType() {
+            return e.contentType;
+        }
+
+        @Override
+        public String getStatusLine() {
+            return e.statusLine;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return e.status;
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            return e.reason;
+        }
+
+        @Override
+        public int getHeaderCount() {
+            return e.headers.size();
+        }
+
+        @Override
+        public String getHeaderName(int index) {
+            return e.headers.get(index)[0];
+        }
+
+        @Override
+        public String getHeaderValue(int index) {
+            return e.headers.get(index)[1];
+        }
+    }
+
+    // journal format
+
+    /**
+     * @return true if a body of this type can go in the journal as text, rather than base64. NB: a body with a
+     * content encoding (e.g., gzip, which JdkTransport doesn't undo for us) is binary, whatever its type
+     */
+    private static boolean isText(String contentType, String contentEncoding) {
+        if (null == contentType || null != contentEncoding) return false;
+        String t = contentType.toLowerCase();
+        return t.startsWith("text/") || t.contains("json") || t.contains("xml") || t.contains("javascript")
+                || t.startsWith("application/x-www-form-urlencoded");
+    }
+
+    private static void write(JsonWriter w, Exchange e) throws IOException {
+        w.beginObject();
+        w.name("at").value(Math.round(e.at * 10) / 10.0);
+        w.name("ms").value(Math.round(e.ms * 10) / 10.0);
+        w.name("method").value(e.method);
+        w.name("url").value(e.url);
+        writeHeaders(w, "requestHeaders", e.requestHeaders);
+        if (null != e.requestContentType) w.name("requestContentType").value(e.requestContentType);
+        writeBody(w, "requestBody", e.requestBody, e.requestContentType, null);
+        w.name("status").value(e.status);
+        if (null != e.statusLine) w.name("statusLine").value(e.statusLine);
+        if (null != e.reason) w.name("reason").value(e.reason);
+        if (null != e.contentType) w.name("contentType").value(e.contentType);
+        if (null != e.contentEncoding) w.name("contentEncoding").value(e.contentEncoding);
+        writeHeaders(w, "headers", e.headers);
+        writeBody(w, "body", e.body, e.contentType, e.contentEncoding);
+        w.endObject();
+        w.flush();
+    }
+
+    private static void writeHeaders(JsonWriter w, String name, List<String[]> headers) throws IOException {
+        w.name(name).beginArray();
+        for (String[] h : headers) {
+            w.beginArray().value(h[0]).value(h[1]).endArray();
+        }
+        w.endArray();
+    }
+
+    private static void writeBody(JsonWriter w, String name, byte[] body, String contentType, String contentEncoding)
+            throws IOException {
+        if (null == body) return;
+        if (isText(contentType, contentEncoding)) {
+            w.name(name).value(new String(body, StandardCharsets.UTF_8));
+        } else {
+            w.name(name + "Base64").value(Base64.getEncoder().encodeToString(body));
+        }
+    }
+
+    private static Exchange read(String line) throws IOException {
+        Exchange e = new Exchange();
+        JsonReader r = new JsonReader(new StringReader(line));
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            switch (name) {
+                case "at": e.at = r.nextDouble(); break;
+                case "ms": e.ms = r.nextDouble(); break;
+                case "method": e.method = r.nextString(); break;
+                case "url": e.url = r.nextString(); break;
+                case "requestHeaders": e.requestHeaders = readHeaders(r); break;
+                case "requestContentType": e.requestContentType = r.nextString(); break;
+                case "requestBody": e.requestBody = r.nextString().getBytes(StandardCharsets.UTF_8); break;
+                case "requestBodyBase64": e.requestBody = Base64.getDecoder().decode(r.nextString()); break;
+                case "status": e.status = r.nextInt(); break;
+                case "statusLine": e.statusLine = r.nextString(); break;
+                case "reason": e.reason = r.nextString(); break;
+                case "contentType": e.contentType = r.nextString(); break;
+                case "contentEncoding": e.contentEncoding = r.nextString(); break;
+                case "headers": e.headers = readHeaders(r); break;
+                case "body": e.body = r.nextString().getBytes(StandardCharsets.UTF_8); break;
+                case "bodyBase64": e.body = Base64.getDecoder().decode(r.nextString()); break;
+                default: r.skipValue();
+            }
+        }
+        r.endObject();
+        return e;
+    }
+
+    private static List<String[]> readHeaders(JsonReader r) throws IOException {
+        List<String[]> headers = new ArrayList<>();
+        r.beginArray();
+        while (r.peek() != JsonToken.END_ARRAY) {
+            r.beginArray();
+            headers.add(new String[]{r.nextString(), r.nextString()});
+            r.endArray();
+        }
+        r.endArray();
+        return headers;
+    }
+}
@@ -0,0 +1,29 @@
+package canvas.transport;
+
+/** A snapshot of how a CanvasTransport is using its connections */
+public class PoolStats {
+    /** requests sent since the transport was created */
+    public final long requests;
+    /** connections opened since the transport was created (each one costs a TLS handshake), or -1 if unknown */
+    public final long connectionsOpened;
+    /** connections currently in use */
+    public final int leased;
+    /** idle connections waiting in the pool */
+    public final int available;
+    /** requests waiting for a connection */
+    public final int pending;
+
+    public PoolStats(long requests, long connectionsOpened, int leased, int available, int pending) {
+        this.requests = requests;
+        this.connectionsOpened = connectionsOpened;
+        this.leased = leased;
+        this.available = available;
+        this.pending = pending;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PoolStats{ requests: %d, connections opened: %d, leased: %d, available: %d, pending: %d }",
+                requests, connectionsOpened, leased, available, pending);
+    }
+}
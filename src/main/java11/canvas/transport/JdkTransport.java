@@ -0,0 +1,295 @@
+package canvas.transport;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CanvasTransport backed by the JDK's HttpClient, which multiplexes concurrent requests to a host over a single
+ * HTTP/2 connection instead of opening a connection per request. Responses are requested gzip'ed, and
+ * google-http-client decompresses them.
+ *
+ * NB: only compiled on Java 11+, see the jdk11 profile in canvasutils-pom.xml.
+ */
+public class JdkTransport extends CanvasTransport {
+
+    /** Threads for HttpClient's own work, e.g., handing responses and request bodies over to our threads */
+    public static final int DEFAULT_THREADS = 8;
+    /** How much of a request body we buffer on its way to HttpClient */
+    private static final int BODY_BUFFER_SIZE = 64 * 1024;
+
+    /** HttpClient won't let us set these headers ourselves */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "content-length", "expect", "host", "upgrade"));
+
+    private final ExecutorService executor;
+    private final HttpClient client;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+
+    public JdkTransport() {
+        this(DEFAULT_THREADS);
+    }
+
+    /** @param threads how many threads HttpClient gets for its own work. NB: requests are sent from our threads */
+    public JdkTransport(int threads) {
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "canvas-jdk-http");
+            t.setDaemon(true);
+            return t;
+        });
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                // google-http-client follows redirects itself (dropping our Authorization header along the way)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(executor)
+                .build();
+    }
+
+    /** NB: HttpClient has no way to close its connections before Java 21, they go when it's garbage collected */
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public boolean supportsMethod(String method) {
+        return true;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) {
+        requests.incrementAndGet();
+        return new JdkRequest(method, url);
+    }
+
+    /** NB: HttpClient doesn't expose its connections, so we can't count them */
+    @Override
+    public PoolStats getPoolStats() {
+        return new PoolStats(requests.get(), -1, (int) inFlight.get(), 0, 0);
+    }
+
+    private class JdkRequest extends LowLevelHttpRequest {
+        private final String method;
+        private final HttpRequest.Builder builder;
+
+        JdkRequest(String method, String url) {
+            this.method = method;
+            this.builder = HttpRequest.newBuilder(URI.create(url));
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!RESTRICTED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                builder.header(name, value);
+            }
+        }
+
+        @Override
+        public void setTimeout(int connectTimeout, int readTimeout) {
+            if (readTimeout > 0) {
+                builder.timeout(Duration.ofMillis(readTimeout));
+            }
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            if (null != getStreamingContent()) {
+                if (null != getContentType()) builder.header("Content-Type", getContentType());
+                if (null != getContentEncoding()) builder.header("Content-Encoding", getContentEncoding());
+            }
+            inFlight.incrementAndGet();
+            try {
+                if (null == getStreamingContent() || 0 == getContentLength()) {
+                    builder.method(method, HttpRequest.BodyPublishers.noBody());
+                    return new JdkResponse(client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream()));
+                }
+                return sendWithBody();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted during " + method + " request");
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        /**
+         * Send the request while we write its body into a pipe that HttpClient reads from, so that a big upload
+         * (see Common.uploadFile) never has to be in memory all at once
+         */
+        private LowLevelHttpResponse sendWithBody() throws IOException, InterruptedException {
+            BodyPipe in = new BodyPipe();
+            PipedOutputStream out = new PipedOutputStream(in);
+            AtomicBoolean opened = new AtomicBoolean(), answered = new AtomicBoolean();
+            // NB: the body can only be read once, so HttpClient mustn't resend the request by itself
+            HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.ofInputStream(() ->
+                    opened.compareAndSet(false, true) ? in : new AlreadySent());
+            long length = getContentLength();
+            builder.method(method, length > 0 ? HttpRequest.BodyPublishers.fromPublisher(body, length) : body);
+
+            CompletableFuture<HttpResponse<InputStream>> response =
+                    client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+            // if Canvas answers (or the request fails) before it's read the whole body, stop writing it
+            response.whenComplete((r, e) -> {
+                answered.set(true);
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            });
+            IOException writeFailure = null;
+            try {
+                getStreamingContent().writeTo(out);
+            } catch (IOException e) {
+                // e.g., we couldn't read the file we're uploading. Fail the request rather than send part of it
+                if (!answered.get()) {
+                    writeFailure = e;
+                    in.fail(e);
+                }
+            } finally {
+                out.close();
+            }
+
+            try {
+                return new JdkResponse(response.get());
+            } catch (InterruptedException e) {
+                response.cancel(true);
+                throw e;
+            } catch (ExecutionException e) {
+                if (null != writeFailure) throw writeFailure;
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+    }
+
+    /** A request body on its way from our thread to HttpClient's */
+    private static class BodyPipe extends PipedInputStream {
+        private volatile IOException failure;
+
+        BodyPipe() {
+            super(BODY_BUFFER_SIZE);
+        }
+
+        /** Have the reader fail with e once it's read what was written, instead of reaching the end of the body */
+        void fail(IOException e) {
+            failure = e;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            return checked(super.read());
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            return checked(super.read(b, off, len));
+        }
+
+        private int checked(int n) throws IOException {
+            if (-1 == n && null != failure) throw failure;
+            return n;
+        }
+    }
+
+    /** In place of a streamed request body that's already been sent */
+    private static class AlreadySent extends InputStream {
+        @Override
+        public int read() throws IOException {
+            throw new IOException("can't resend a streamed request body");
+        }
+    }
+
+    private static class JdkResponse extends LowLevelHttpResponse {
+        private final HttpResponse<InputStream> response;
+        private final List<String> names = new ArrayList<>();
+        private final List<String> values = new ArrayList<>();
+
+        JdkResponse(HttpResponse<InputStream> response) {
+            this.response = response;
+            response.headers().map().forEach((name, vs) -> {
+                if (name.startsWith(":")) return; // HTTP/2 pseudo-headers
+                for (String v : vs) {
+                    names.add(name);
+                    values.add(v);
+                }
+            });
+        }
+
+        private String header(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public InputStream getContent() {
+            return response.body();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return header("Content-Encoding");
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        }
+
+        @Override
+        public String getContentType() {
+            return header("Content-Type");
+        }
+
+        @Override
+        public String getStatusLine() {
+            return response.version() + " " + response.statusCode();
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.statusCode();
+        }
+
+        /** NB: HTTP/2 has no reason phrases */
+        @Override
+        public String getReasonPhrase() {
+            return null;
+        }
+
+        @Override
+        public int getHeaderCount() {
+            return names.size();
+        }
+
+        @Override
+        public String getHeaderName(int index) {
+            return names.get(index);
+        }
+
+        @Override
+        public String getHeaderValue(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        public void disconnect() throws IOException {
+            response.body().close();
+        }
+    }
+}
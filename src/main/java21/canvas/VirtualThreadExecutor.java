@@ -0,0 +1,67 @@
+package canvas;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each task on its own virtual thread, at most maxConcurrency of them at once. See BlockingExecutors.
+ *
+ * NB: only compiled on Java 21+, see the jdk21 profile in canvasutils-pom.xml.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+
+    private final ExecutorService threads;
+    /** null if there's no limit */
+    private final Semaphore permits;
+
+    public VirtualThreadExecutor(String name, int maxConcurrency) {
+        threads = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        permits = Integer.MAX_VALUE == maxConcurrency ? null : new Semaphore(maxConcurrency);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (null == permits) {
+            threads.execute(task);
+            return;
+        }
+        threads.execute(() -> {
+            // NB: parks just this virtual thread, not a platform thread
+            permits.acquireUninterruptibly();
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        threads.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return threads.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return threads.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return threads.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threads.awaitTermination(timeout, unit);
+    }
+}
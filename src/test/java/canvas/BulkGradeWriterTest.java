@@ -0,0 +1,116 @@
+package canvas;
+
+import canvas.apiobjects.Assignment;
+import canvas.apiobjects.Submission;
+import canvas.apiobjects.User;
+import canvas.sim.CanvasSimulator;
+import canvas.sim.SimCourse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that BulkGradeWriter's grades land in Canvas, and which students it blames when a batch fails, against a
+ * CanvasSimulator's submissions/update_grades.
+ */
+public class BulkGradeWriterTest {
+
+    /** no such student, so the batch it's in fails */
+    private static final String BAD_ID = "999999";
+
+    private CanvasSimulator sim;
+    private CanvasClient client;
+    private Assignment hw;
+    private List<User> students;
+
+    @Before
+    public void setUp() throws IOException {
+        sim = new CanvasSimulator(new SimCourse(1000, 2 * BulkGradeWriter.MAX_STUDENTS_PER_BATCH + 10, 2, 1, 42))
+                .jobTime(0).start(0);
+        client = sim.client("bulk-grades");
+        hw = sim.course().assignments().get(0);
+        students = sim.course().students();
+    }
+
+    @After
+    public void tearDown() {
+        sim.close();
+    }
+
+    private BulkGradeWriter writer() {
+        return new BulkGradeWriter(client, String.valueOf(hw.id));
+    }
+
+    private static double scoreOf(User u) {
+        return u.id % 100;
+    }
+
+    private Double simScore(User u) {
+        return sim.course().score(hw.id, u.id);
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void gradesLandInEveryBatch() throws IOException {
+        BulkGradeWriter w = writer();
+        for (User u : students) {
+            w.grade(String.valueOf(u.id), scoreOf(u));
+        }
+        assertEquals(Collections.emptyMap(), w.finish());
+        for (User u : students) {
+            assertEquals(scoreOf(u), simScore(u), 0.0);
+        }
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void failedBatchIsSplitToFindTheBadStudent() throws IOException {
+        List<User> batch = students.subList(0, 7);
+        BulkGradeWriter w = writer();
+        for (User u : batch) {
+            w.grade(String.valueOf(u.id), scoreOf(u));
+        }
+        w.grade(BAD_ID, 1.0);
+
+        Map<String, String> failures = w.finish();
+
+        assertEquals(Collections.singleton(BAD_ID), failures.keySet());
+        // everyone else's grades were re-sent without the bad id
+        for (User u : batch) {
+            assertEquals(scoreOf(u), simScore(u), 0.0);
+        }
+    }
+
+    private int comments(User u) throws IOException {
+        Submission s = client.getAs("assignments/" + hw.id + "/submissions/" + u.id, Submission.class);
+        return null == s.submission_comments ? 0 : s.submission_comments.length;
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void failedBatchWithCommentsIsNotResent() throws IOException {
+        List<User> batch = students.subList(0, 7);
+        int[] before = new int[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            before[i] = comments(batch.get(i));
+        }
+        BulkGradeWriter w = writer();
+        for (User u : batch) {
+            w.grade(String.valueOf(u.id), scoreOf(u)).comment(String.valueOf(u.id), "nice work");
+        }
+        w.grade(BAD_ID, 1.0);
+
+        Map<String, String> failures = w.finish();
+
+        // NB: Canvas may have applied part of the batch, so it's on us to check on them, not on a re-send
+        assertEquals(batch.size() + 1, failures.size());
+        for (int i = 0; i < batch.size(); i++) {
+            assertTrue(failures.containsKey(String.valueOf(batch.get(i).id)));
+            assertEquals(before[i], comments(batch.get(i)));
+        }
+    }
+}
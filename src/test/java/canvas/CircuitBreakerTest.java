@@ -0,0 +1,192 @@
+package canvas;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/** Checks when a CircuitBreaker opens, lets a probe through and closes again */
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final CircuitBreaker breaker = new CircuitBreaker("canvas.invalid", now::get);
+
+    private void request(Boolean failed) throws CircuitBreaker.OpenException {
+        breaker.after(breaker.before(), failed);
+    }
+
+    private boolean isOpen() {
+        try {
+            breaker.after(breaker.before(), null);
+        } catch (CircuitBreaker.OpenException e) {
+            return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void opensAfterThresholdFailuresInARow() throws IOException {
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            request(true);
+        }
+        assertFalse(isOpen());
+        request(true);
+        assertTrue(isOpen());
+        now.addAndGet(CircuitBreaker.OPEN_MILLIS - 1);
+        assertTrue(isOpen());
+    }
+
+    @Test
+    public void successResetsTheCount() throws IOException {
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            request(true);
+        }
+        request(false);
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            request(true);
+        }
+        assertFalse(isOpen());
+    }
+
+    @Test
+    public void unknownOutcomesDontCount() throws IOException {
+        for (int i = 0; i < 2 * CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            request(null);
+        }
+        assertFalse(isOpen());
+    }
+
+    @Test
+    public void halfOpenLetsOneProbeThrough() throws IOException {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            request(true);
+        }
+        now.addAndGet(CircuitBreaker.OPEN_MILLIS);
+
+        assertTrue(breaker.before()); // the probe
+        try {
+            breaker.before();
+            fail("only one probe at a time");
+        } catch (CircuitBreaker.OpenException e) {
+            // expected
+        }
+        breaker.after(true, false);
+        assertFalse(isOpen());
+        // and it takes a whole run of failures to open again
+        request(true);
+        assertFalse(isOpen());
+    }
+
+    @Test
+    public void failedProbeReopens() throws IOException {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            request(true);
+        }
+        now.addAndGet(CircuitBreaker.OPEN_MILLIS);
+        request(true); // the probe
+        assertTrue(isOpen());
+        now.addAndGet(CircuitBreaker.OPEN_MILLIS - 1);
+        assertTrue(isOpen());
+        now.addAndGet(1);
+        request(false);
+        assertFalse(isOpen());
+    }
+
+    @Test
+    public void slowRequestsDontSpeakForTheProbe() throws IOException {
+        // a request sent while the breaker was still closed...
+        assertFalse(breaker.before());
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            request(true);
+        }
+        now.addAndGet(CircuitBreaker.OPEN_MILLIS);
+        assertTrue(breaker.before()); // the probe
+        // ...that fails while the probe is out doesn't reopen the breaker, nor end the probe
+        breaker.after(false, true);
+        try {
+            breaker.before();
+            fail("only one probe at a time");
+        } catch (CircuitBreaker.OpenException e) {
+            // expected
+        }
+        breaker.after(true, false);
+        assertFalse(isOpen());
+    }
+
+    @Test
+    public void otherRequestsDontEndTheProbe() throws IOException {
+        // two requests sent while the breaker was still closed
+        assertFalse(breaker.before());
+        assertFalse(breaker.before());
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            request(true);
+        }
+        now.addAndGet(CircuitBreaker.OPEN_MILLIS);
+        assertTrue(breaker.before()); // the probe
+
+        breaker.after(false, null); // interrupted
+        breaker.after(false, false); // finally got through
+        try {
+            breaker.before();
+            fail("still waiting on the probe");
+        } catch (CircuitBreaker.OpenException e) {
+            // expected
+        }
+        breaker.after(true, true);
+        assertTrue(isOpen());
+    }
+
+    /** @return a request to host that always gets a 503, counting its attempts */
+    private static HttpRequest unavailable(String host, AtomicInteger attempts) throws IOException {
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                attempts.incrementAndGet();
+                // NB: Retry-After: 0, so we don't wait between attempts
+                return new MockLowLevelHttpRequest(url).setResponse(
+                        new MockLowLevelHttpResponse().setStatusCode(503).addHeader("Retry-After", "0"));
+            }
+        };
+        return transport.createRequestFactory().buildGetRequest(new GenericUrl("https://" + host + "/api/v1/users"));
+    }
+
+    @Test
+    public void countsRequestsNotAttempts() throws IOException {
+        final String host = "retries.canvas.invalid";
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            RequestScheduler.execute(unavailable(host, attempts), RequestScheduler.Priority.INTERACTIVE, false);
+            fail("expected a 503");
+        } catch (HttpResponseException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals(RetryPolicy.MAX_ATTEMPTS, attempts.get());
+
+        CircuitBreaker b = CircuitBreaker.forHost(host);
+        b.after(b.before(), null); // one request retrying shouldn't open the breaker by itself
+
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            try {
+                RequestScheduler.execute(unavailable(host, attempts), RequestScheduler.Priority.INTERACTIVE, false);
+            } catch (HttpResponseException e) {
+                // expected
+            }
+        }
+        try {
+            RequestScheduler.execute(unavailable(host, attempts), RequestScheduler.Priority.INTERACTIVE, false);
+            fail("expected the breaker to be open");
+        } catch (CircuitBreaker.OpenException e) {
+            // expected
+        }
+    }
+}
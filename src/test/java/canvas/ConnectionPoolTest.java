@@ -0,0 +1,78 @@
+package canvas;
+
+import canvas.apiobjects.Conversation;
+import canvas.sim.CanvasSimulator;
+import canvas.sim.SimCourse;
+import canvas.transport.ApacheTransport;
+import canvas.transport.CanvasTransport;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that responses we don't read give their connections back to the pool, and that running out of connections
+ * fails requests instead of hanging them. Runs against a CanvasSimulator.
+ */
+public class ConnectionPoolTest {
+
+    private CanvasSimulator sim;
+    private CanvasTransport oldTransport;
+    private CanvasClient client;
+    private GenericUrl conversations;
+
+    @Before
+    public void setUp() throws IOException {
+        sim = new CanvasSimulator(new SimCourse(1000, 4, 2, 1, 42)).start(0);
+        client = sim.client("pool-test");
+        conversations = new GenericUrl(sim.baseUrl() + "conversations");
+        oldTransport = Common.transport();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        CanvasTransport t = Common.transport();
+        Common.useTransport(oldTransport);
+        if (t != oldTransport) t.shutdown();
+        sim.close();
+    }
+
+    private HttpResponse post() throws IOException {
+        Conversation conv = new Conversation();
+        conv.recipients = new int[]{1};
+        conv.subject = "pool test";
+        conv.body = "hello";
+        return client.postJSON(conversations, conv, null);
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void ignoredResponsesFreeTheirConnections() throws IOException {
+        Common.useTransport(new ApacheTransport(CanvasTransport.MAX_CONNECTIONS, CanvasTransport.MAX_CONNECTIONS_PER_ROUTE));
+        for (int i = 0; i < 3 * CanvasTransport.MAX_CONNECTIONS_PER_ROUTE; i++) {
+            post().ignore();
+        }
+        assertEquals(0, Common.transport().getPoolStats().leased);
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void exhaustedPoolTimesOut() throws IOException {
+        Common.useTransport(new ApacheTransport(4, 2, 500));
+        HttpResponse a = post(), b = post();
+        try {
+            post();
+            fail("expected the third unread request to time out waiting for a connection");
+        } catch (ConnectionPoolTimeoutException e) {
+            // expected
+        }
+        a.disconnect();
+        b.ignore();
+        post().ignore();
+        assertEquals(0, Common.transport().getPoolStats().leased);
+    }
+}
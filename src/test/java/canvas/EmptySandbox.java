@@ -23,7 +23,7 @@ public class EmptySandbox {
             GenericUrl url = new GenericUrl(Common.CourseURL() + "assignments/" + asn.id);
             HttpRequest request = requestFactory.buildDeleteRequest(url);
             request.getHeaders().setAuthorization(TOKEN);
-            HttpResponse response = request.execute();
+            HttpResponse response = Common.execute(request);
             assertEquals(200, response.getStatusCode());
         }
     }
@@ -0,0 +1,224 @@
+package canvas;
+
+import canvas.apiobjects.Group;
+import canvas.apiobjects.Submission;
+import canvas.apiobjects.User;
+import canvas.graphql.GraphQLClient;
+import canvas.graphql.GraphQLException;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.Data;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the queries GraphQLClient sends, how it follows pageInfo, and how it turns responses (and errors) into
+ * canvas.apiobjects, against a stub GraphQL endpoint.
+ */
+public class GraphQLClientTest {
+
+    private static final String COURSE = "1000";
+
+    private HttpServer server;
+    /** the requests the stub has seen, as {query, variables} */
+    private final List<GenericJson> requests = Collections.synchronizedList(new ArrayList<>());
+    /** the stub's response (JSON) to each request */
+    private volatile Function<GenericJson, String> answer;
+    private GraphQLClient gql;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/graphql", this::serve);
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v1/";
+        // NB: leave the endpoint for GraphQLClient to work out from the REST base URL
+        gql = new GraphQLClient(new CanvasClient(base, COURSE, "Bearer test"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange x) throws IOException {
+        try {
+            GenericJson request = GsonFactory.getDefaultInstance().fromString(
+                    IOUtils.toString(x.getRequestBody(), StandardCharsets.UTF_8), GenericJson.class);
+            requests.add(request);
+            byte[] body = answer.apply(request).getBytes(StandardCharsets.UTF_8);
+            x.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            x.sendResponseHeaders(200, body.length);
+            x.getResponseBody().write(body);
+        } finally {
+            x.close();
+        }
+    }
+
+    private static String query(GenericJson request) {
+        return (String) request.get("query");
+    }
+
+    /** @return the given query variable of request, or null if it wasn't sent */
+    private static String var(GenericJson request, String name) {
+        Map<?, ?> vars = (Map<?, ?>) request.get("variables");
+        return null == vars ? null : (String) vars.get(name);
+    }
+
+    private static String user(int id) {
+        return String.format("{\"_id\":\"%d\",\"name\":\"Student %d\",\"email\":\"s%d@example.edu\","
+                + "\"sisId\":\"sis%d\",\"loginId\":\"login%d\"}", id, id, id, id, id);
+    }
+
+    private static String group(int id, int... members) {
+        StringBuilder sb = new StringBuilder();
+        for (int m : members) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append("{\"user\":").append(user(m)).append('}');
+        }
+        return String.format("{\"_id\":\"%d\",\"name\":\"Homework Group %d\",\"membersConnection\":{\"nodes\":[%s]}}",
+                id, id, sb);
+    }
+
+    private static String submission(int userId, Integer attempt, Double score, String submittedAt) {
+        return String.format("{\"attempt\":%s,\"score\":%s,\"submittedAt\":%s,\"gradedAt\":null,\"user\":{\"_id\":\"%d\"}}",
+                attempt, score, null == submittedAt ? "null" : "\"" + submittedAt + "\"", userId);
+    }
+
+    /** @return a connection with the given nodes, and the cursor of the next page (or null if it's the last) */
+    private static String connection(String name, String nextCursor, String... nodes) {
+        return String.format("\"%s\":{\"nodes\":[%s],\"pageInfo\":{\"hasNextPage\":%s,\"endCursor\":%s}}",
+                name, String.join(",", nodes), null != nextCursor, null == nextCursor ? "null" : "\"" + nextCursor + "\"");
+    }
+
+    @Test
+    public void groupsFollowPageInfo() throws IOException {
+        answer = r -> null == var(r, "groupsAfter")
+                ? "{\"data\":{\"course\":{" + connection("groupsConnection", "MQ", group(10, 1, 2)) + "}}}"
+                : "{\"data\":{\"course\":{" + connection("groupsConnection", null, group(11, 3)) + "}}}";
+
+        List<Group> groups = gql.groups();
+
+        assertEquals(2, requests.size());
+        assertTrue(query(requests.get(0)).contains("groupsConnection(first: 100, after: $groupsAfter)"));
+        assertEquals(COURSE, var(requests.get(0), "course"));
+        assertNull(var(requests.get(0), "groupsAfter"));
+        assertEquals("MQ", var(requests.get(1), "groupsAfter"));
+
+        assertEquals(2, groups.size());
+        Group g = groups.get(0);
+        assertEquals(Integer.valueOf(10), g.id);
+        assertEquals("Homework Group 10", g.name);
+        assertEquals(2, g.members.length);
+        User u = g.members[1];
+        assertEquals(2, u.id);
+        assertEquals("Student 2", u.name);
+        assertEquals("s2@example.edu", u.email);
+        assertEquals("sis2", u.sis_user_id);
+        assertEquals("login2", u.login_id);
+        assertSame(g, u.group);
+        assertEquals(3, groups.get(1).members[0].id);
+    }
+
+    @Test
+    public void submissions() throws IOException {
+        answer = r -> "{\"data\":{\"assignment\":{" + connection("submissionsConnection", null,
+                submission(1, 2, 9.5, "2020-02-01T12:00:00Z"), submission(2, null, null, null)) + "}}}";
+
+        List<Submission> subs = gql.submissions("5");
+
+        assertEquals(1, requests.size());
+        assertEquals("5", var(requests.get(0), "assignment"));
+        // NB: we ask for unsubmitted ones too, as the REST API returns them
+        assertTrue(query(requests.get(0)).contains("unsubmitted"));
+        assertEquals(2, subs.size());
+        Submission s = subs.get(0);
+        assertEquals(5, s.assignment_id);
+        assertEquals(1, s.user_id);
+        assertEquals(Integer.valueOf(2), s.attempt);
+        assertEquals(9.5, s.score, 0.0);
+        assertEquals("2020-02-01T12:00:00Z", s.submitted_at_string);
+        assertEquals("", s.graded_at_string);
+        Submission unsubmitted = subs.get(1);
+        assertEquals(2, unsubmitted.user_id);
+        // NB: like the REST API's parsers, a JSON null is Data's null, not Java's
+        assertTrue(Data.isNull(unsubmitted.score));
+        assertEquals("", unsubmitted.submitted_at_string);
+    }
+
+    @Test
+    public void groupsAndSubmissionsTogether() throws IOException {
+        answer = r -> {
+            if (query(r).contains("course(id: $course)") && query(r).contains("assignment(id: $assignment)")) {
+                return "{\"data\":{\"course\":{" + connection("groupsConnection", null, group(20, 21, 22)) + "},"
+                        + "\"assignment\":{" + connection("submissionsConnection", "Mg", submission(21, 1, 1.0, null)) + "}}}";
+            }
+            // only the submissions need another page
+            assertEquals("Mg", var(r, "subsAfter"));
+            assertFalse(query(r).contains("groupsConnection"));
+            return "{\"data\":{\"assignment\":{" + connection("submissionsConnection", null, submission(22, 1, 2.0, null)) + "}}}";
+        };
+
+        GraphQLClient.GroupsAndSubmissions gs = gql.groupsAndSubmissions("6");
+
+        assertEquals(2, requests.size());
+        assertEquals(1, gs.groups.size());
+        assertEquals(2, gs.groups.get(0).members.length);
+        assertEquals(2, gs.submissions.size());
+        assertEquals(2.0, gs.submissionOfUser().get(22).score, 0.0);
+    }
+
+    @Test
+    public void studentsFollowPageInfo() throws IOException {
+        answer = r -> null == var(r, "usersAfter")
+                ? "{\"data\":{\"course\":{" + connection("usersConnection", "Mw", user(31), user(32)) + "}}}"
+                : "{\"data\":{\"course\":{" + connection("usersConnection", null, user(33)) + "}}}";
+
+        List<User> students = gql.students();
+
+        assertEquals(2, requests.size());
+        assertTrue(query(requests.get(0)).contains("StudentEnrollment"));
+        assertEquals("Mw", var(requests.get(1), "usersAfter"));
+        assertEquals(Arrays.asList(31, 32, 33), Arrays.asList(students.get(0).id, students.get(1).id, students.get(2).id));
+    }
+
+    @Test
+    public void errorsAreThrown() {
+        answer = r -> "{\"data\":null,\"errors\":[{\"message\":\"Field 'nope' doesn't exist\"},{\"message\":\"bang\"}]}";
+        try {
+            gql.groups();
+            fail("expected a GraphQLException");
+        } catch (GraphQLException e) {
+            assertEquals(Arrays.asList("Field 'nope' doesn't exist", "bang"), e.getMessages());
+        } catch (IOException e) {
+            fail("expected a GraphQLException, not " + e);
+        }
+    }
+
+    @Test
+    public void missingObjectsAreErrors() {
+        // Canvas returns null, not an error, for a course we can't see
+        answer = r -> "{\"data\":{\"course\":null}}";
+        try {
+            gql.students();
+            fail("expected a GraphQLException");
+        } catch (GraphQLException e) {
+            assertEquals(Collections.singletonList("no course with id " + COURSE), e.getMessages());
+        } catch (IOException e) {
+            fail("expected a GraphQLException, not " + e);
+        }
+    }
+}
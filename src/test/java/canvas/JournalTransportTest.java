@@ -0,0 +1,168 @@
+package canvas;
+
+import canvas.sim.CanvasSimulator;
+import canvas.sim.SimCourse;
+import canvas.transport.CanvasTransport;
+import canvas.transport.JournalTransport;
+import canvas.transport.PoolStats;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records a CanvasSimulator's answers with JournalTransport, checks that no credentials make it into the journal,
+ * and replays it.
+ */
+public class JournalTransportTest {
+
+    private static final String TOKEN = "bearer-secret-1234";
+    private static final String QUERY_TOKEN = "query-secret-5678";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private CanvasSimulator sim;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        sim = new CanvasSimulator(new SimCourse(1000, 10, 2, 1, 42)).start(0);
+        file = tmp.getRoot().toPath().resolve("journal.jsonl");
+    }
+
+    @After
+    public void tearDown() {
+        sim.close();
+    }
+
+    private String quizzesUrl(String accessToken) {
+        return sim.baseUrl() + "courses/" + sim.courseId() + "/quizzes?access_token=" + accessToken;
+    }
+
+    private String eventsUrl() {
+        return sim.baseUrl() + "calendar_events";
+    }
+
+    private static String get(HttpRequestFactory f, String url) throws IOException {
+        return send(f.buildGetRequest(new GenericUrl(url)));
+    }
+
+    private static String post(HttpRequestFactory f, String url, String form) throws IOException {
+        return send(f.buildPostRequest(new GenericUrl(url), ByteArrayContent.fromString(
+                "application/x-www-form-urlencoded", form)));
+    }
+
+    private static String send(HttpRequest request) throws IOException {
+        request.getHeaders().setAuthorization("Bearer " + TOKEN);
+        request.setThrowExceptionOnExecuteError(false);
+        HttpResponse r = request.execute();
+        try {
+            return r.getStatusCode() + " " + r.parseAsString();
+        } finally {
+            r.disconnect();
+        }
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void credentialsStayOutOfTheJournal() throws IOException {
+        JournalTransport recorder = JournalTransport.record(CanvasTransport.create("apache"), file);
+        HttpRequestFactory f = recorder.createRequestFactory();
+        assertTrue(get(f, quizzesUrl(QUERY_TOKEN)).startsWith("200 "));
+        assertTrue(post(f, eventsUrl(), "calendar_event[title]=a").startsWith("200 "));
+        recorder.shutdown();
+
+        String journal = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertFalse(journal.contains(TOKEN));
+        assertFalse(journal.contains(QUERY_TOKEN));
+        assertTrue(journal.contains("access_token=SCRUBBED"));
+        assertTrue(journal.contains("calendar_event[title]=a"));
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void replayMatchesByBodyThenUrlThenRepeatsTheLast() throws IOException {
+        JournalTransport recorder = JournalTransport.record(CanvasTransport.create("apache"), file);
+        HttpRequestFactory f = recorder.createRequestFactory();
+        String quizzes = get(f, quizzesUrl(QUERY_TOKEN));
+        String a = post(f, eventsUrl(), "calendar_event[title]=a");
+        String b = post(f, eventsUrl(), "calendar_event[title]=b");
+        recorder.shutdown();
+        assertNotEquals(a, b); // each POST makes a new event
+
+        JournalTransport replayer = JournalTransport.replay(file, false);
+        HttpRequestFactory r = replayer.createRequestFactory();
+        // the access_token was scrubbed from the recorded URL, so any token matches
+        assertEquals(quizzes, get(r, quizzesUrl("another-token")));
+        // out of order, but the body says which one
+        assertEquals(b, post(r, eventsUrl(), "calendar_event[title]=b"));
+        // a body we never sent: the first response to that URL that hasn't been served yet...
+        assertEquals(a, post(r, eventsUrl(), "calendar_event[title]=c"));
+        // ...and once they all have been, the last one again
+        assertEquals(b, post(r, eventsUrl(), "calendar_event[title]=c"));
+        assertEquals(b, post(r, eventsUrl(), "calendar_event[title]=b"));
+        assertTrue(get(r, sim.baseUrl() + "courses/" + sim.courseId() + "/assignments").startsWith("404 "));
+        replayer.shutdown();
+    }
+
+    @Test
+    public void encodedBodiesAreRecordedAsBase64() throws IOException {
+        String json = "{\"id\":1,\"title\":\"gzip'ed\"}";
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        String url = sim.baseUrl() + "calendar_events/1";
+
+        JournalTransport recorder = JournalTransport.record(new GzipTransport(gz.toByteArray()), file);
+        assertEquals("200 " + json, get(recorder.createRequestFactory(), url));
+        recorder.shutdown();
+
+        String journal = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertTrue(journal.contains("\"bodyBase64\""));
+        assertFalse(journal.contains("gzip'ed"));
+
+        JournalTransport replayer = JournalTransport.replay(file, false);
+        assertEquals("200 " + json, get(replayer.createRequestFactory(), url));
+        replayer.shutdown();
+    }
+
+    /** Answers every request with the same gzip'ed JSON, like JdkTransport passes along a gzip'ed response */
+    private static class GzipTransport extends CanvasTransport {
+        private final byte[] body;
+
+        GzipTransport(byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        protected LowLevelHttpRequest buildRequest(String method, String url) {
+            return new MockLowLevelHttpRequest(url).setResponse(new MockLowLevelHttpResponse()
+                    .setContentType("application/json; charset=utf-8")
+                    .setContentEncoding("gzip")
+                    .setContent(body));
+        }
+
+        @Override
+        public PoolStats getPoolStats() {
+            return new PoolStats(0, 0, 0, 0, 0);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package canvas;
+
+import canvas.apiobjects.Assignment;
+import canvas.apiobjects.Group;
+import canvas.apiobjects.Submission;
+import canvas.apiobjects.User;
+import canvas.json.JsonCodecs;
+import com.google.api.client.json.gson.GsonFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the build generated JSON codecs for our @Key classes, and that they parse the same objects as
+ * google-http-client's reflective parsing, on pages like the ones GradeCoordinator and CreateRosterForGradescope fetch.
+ * For how fast each one is, see KeyParsingBenchmark in the benchmarks module.
+ */
+public class JsonCodecsTest {
+
+    @After
+    public void tearDown() {
+        JsonCodecs.setEnabled(true);
+    }
+
+    @Test
+    public void codecsAreGenerated() {
+        for (Class<?> c : new Class<?>[]{Submission.class, User.class, Assignment.class, Group.class}) {
+            assertNotNull("no generated codec for " + c.getSimpleName() + ", is the codecs module in the build?",
+                    JsonCodecs.lookup(c));
+        }
+    }
+
+    @Test
+    public void submissionsParseTheSame() throws IOException {
+        assertSame(submissionsPage(100), Submission[].class);
+    }
+
+    @Test
+    public void usersParseTheSame() throws IOException {
+        assertSame(usersPage(100), User[].class);
+    }
+
+    /** Make sure both paths produce the same objects, by serializing them reflectively */
+    private static void assertSame(String page, Class<?> clazz) throws IOException {
+        byte[] json = page.getBytes(StandardCharsets.UTF_8);
+        GsonFactory gson = GsonFactory.getDefaultInstance();
+        JsonCodecs.setEnabled(false);
+        String reflective = gson.toString(JsonCodecs.parse(json, clazz));
+        JsonCodecs.setEnabled(true);
+        String generated = gson.toString(JsonCodecs.parse(json, clazz));
+        assertEquals(clazz.getSimpleName(), reflective, generated);
+    }
+
+    private static String submissionsPage(int n) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(String.format("{\"id\":%d,\"user_id\":%d,\"assignment_id\":8675309,\"attempt\":%s," +
+                            "\"score\":%s,\"grade\":\"%d\",\"seconds_late\":%d,\"workflow_state\":\"graded\"," +
+                            "\"submitted_at\":\"2020-02-0%dT12:34:56Z\",\"graded_at\":null,\"late\":false," +
+                            "\"group\":{\"id\":%d,\"name\":\"Group %d\"}," +
+                            "\"submission_comments\":[{\"id\":%d,\"author_id\":1,\"author_name\":\"Grader\"," +
+                            "\"comment\":\"Score: %d/100\",\"created_at\":\"2020-02-03T00:00:00Z\"}]," +
+                            "\"attachments\":[{\"id\":%d,\"display_name\":\"submit.zip\",\"filename\":\"submit.zip\"," +
+                            "\"content-type\":\"application/zip\",\"url\":\"https://example.com/files/%d/download\"," +
+                            "\"size\":%d,\"created_at\":\"2020-02-01T12:34:56Z\",\"locked\":false}]}",
+                    i, 1000 + i, i % 3 == 0 ? "null" : "1", i % 5 == 0 ? "null" : (i % 100) + ".5", i % 100,
+                    i % 7 * 60, 1 + i % 9, i / 2, i / 2, 5000 + i, i % 100, 9000 + i, 9000 + i, 1024 * i));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String usersPage(int n) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(String.format("{\"id\":%d,\"name\":\"Student %d\",\"sortable_name\":\"%d, Student\"," +
+                    "\"short_name\":\"Student %d\",\"login_id\":\"student%d\",\"email\":\"student%d@example.com\"," +
+                    "\"avatar_url\":\"https://example.com/avatar/%d.png\"}", 1000 + i, i, i, i, i, i, i));
+        }
+        return sb.append(']').toString();
+    }
+}
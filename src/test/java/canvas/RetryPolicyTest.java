@@ -0,0 +1,111 @@
+package canvas;
+
+import com.google.api.client.http.*;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/** Checks which failed requests RetryPolicy re-sends, and how long it waits first */
+public class RetryPolicyTest {
+
+    private static final GenericUrl URL = new GenericUrl("https://canvas.invalid/api/v1/courses/1/users");
+
+    private static HttpRequestFactory factory(MockLowLevelHttpResponse response) {
+        return new MockHttpTransport.Builder().setLowLevelHttpResponse(response).build().createRequestFactory();
+    }
+
+    private static HttpRequest get() throws IOException {
+        return factory(new MockLowLevelHttpResponse()).buildGetRequest(URL);
+    }
+
+    private static HttpRequest post() throws IOException {
+        return factory(new MockLowLevelHttpResponse())
+                .buildPostRequest(URL, new UrlEncodedContent(Collections.singletonMap("comment", "hi")));
+    }
+
+    /** @return a response with the given status (and Retry-After header, if it's not null) */
+    private static HttpResponse respond(int status, String retryAfter) throws IOException {
+        MockLowLevelHttpResponse r = new MockLowLevelHttpResponse().setStatusCode(status);
+        if (null != retryAfter) r.addHeader("Retry-After", retryAfter);
+        HttpRequest request = factory(r).buildGetRequest(URL);
+        request.setThrowExceptionOnExecuteError(false);
+        return request.execute();
+    }
+
+    @Test
+    public void transientFailures() throws IOException {
+        assertTrue(RetryPolicy.isTransient(respond(503, null), null));
+        assertTrue(RetryPolicy.isTransient(respond(500, null), null));
+        assertFalse(RetryPolicy.isTransient(respond(404, null), null));
+        assertFalse(RetryPolicy.isTransient(respond(200, null), null));
+        assertTrue(RetryPolicy.isTransient(null, new SocketException("Connection reset")));
+        assertTrue(RetryPolicy.isTransient(null, new SocketTimeoutException("Read timed out")));
+        assertFalse(RetryPolicy.isTransient(null, new InterruptedIOException()));
+    }
+
+    @Test
+    public void exponentialBackoffWithJitter() throws IOException {
+        HttpResponse unavailable = respond(503, null);
+        for (int attempt = 1; attempt < RetryPolicy.MAX_ATTEMPTS; attempt++) {
+            long cap = Math.min(30_000, 500L << (attempt - 1));
+            for (int i = 0; i < 20; i++) {
+                long delay = RetryPolicy.delayBeforeRetry(get(), unavailable, null, attempt, false);
+                assertTrue("attempt " + attempt + " waited " + delay, delay >= cap / 2 && delay <= cap);
+            }
+        }
+        assertEquals(-1, RetryPolicy.delayBeforeRetry(get(), unavailable, null, RetryPolicy.MAX_ATTEMPTS, false));
+    }
+
+    @Test
+    public void permanentFailuresAreNotRetried() throws IOException {
+        assertEquals(-1, RetryPolicy.delayBeforeRetry(get(), respond(404, null), null, 1, false));
+        assertEquals(-1, RetryPolicy.delayBeforeRetry(get(), respond(401, null), null, 1, false));
+        assertEquals(-1, RetryPolicy.delayBeforeRetry(get(), null, new InterruptedIOException(), 1, false));
+    }
+
+    @Test
+    public void retryAfter() throws IOException {
+        assertEquals(7_000, RetryPolicy.delayBeforeRetry(get(), respond(503, "7"), null, 1, false));
+        assertEquals(0, RetryPolicy.delayBeforeRetry(get(), respond(503, "0"), null, 1, false));
+        // we'd rather give up than tie up a thread for that long
+        assertEquals(-1, RetryPolicy.delayBeforeRetry(get(), respond(503, "600"), null, 1, false));
+
+        String in10s = ZonedDateTime.now().plusSeconds(10).format(DateTimeFormatter.RFC_1123_DATE_TIME);
+        long delay = RetryPolicy.delayBeforeRetry(get(), respond(503, in10s), null, 1, false);
+        assertTrue("waited " + delay, delay > 8_000 && delay <= 10_000);
+        String past = ZonedDateTime.now().minusSeconds(10).format(DateTimeFormatter.RFC_1123_DATE_TIME);
+        assertEquals(0, RetryPolicy.delayBeforeRetry(get(), respond(503, past), null, 1, false));
+
+        // garbage is ignored, so we fall back to backoff
+        delay = RetryPolicy.delayBeforeRetry(get(), respond(503, "soon"), null, 1, false);
+        assertTrue("waited " + delay, delay >= 250 && delay <= 500);
+    }
+
+    @Test
+    public void postsAreOnlyRetriedIfCanvasNeverSawThem() throws IOException {
+        // Canvas may have acted on these before failing
+        assertEquals(-1, RetryPolicy.delayBeforeRetry(post(), respond(503, null), null, 1, false));
+        assertEquals(-1, RetryPolicy.delayBeforeRetry(post(), null, new SocketTimeoutException(), 1, false));
+        assertEquals(-1, RetryPolicy.delayBeforeRetry(post(), null, new SocketException("Connection reset"), 1, false));
+        // ...but not these
+        assertTrue(RetryPolicy.delayBeforeRetry(post(), null, new ConnectException("Connection refused"), 1, false) >= 0);
+        assertEquals(2_000, RetryPolicy.delayBeforeRetry(post(), respond(429, "2"), null, 1, false));
+        // unless the caller says it's safe (see Common.executeIdempotent())
+        assertTrue(RetryPolicy.delayBeforeRetry(post(), respond(503, null), null, 1, true) >= 0);
+        // PUT is idempotent
+        HttpRequest put = factory(new MockLowLevelHttpResponse())
+                .buildPutRequest(URL, new UrlEncodedContent(Collections.singletonMap("grade", "A")));
+        assertTrue(RetryPolicy.delayBeforeRetry(put, respond(503, null), null, 1, false) >= 0);
+    }
+}
@@ -0,0 +1,869 @@
+package canvas.sim;
+
+import canvas.CanvasClient;
+import canvas.SubmissionTable;
+import canvas.apiobjects.*;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An embeddable stand-in for the parts of the Canvas REST API that our tools use, serving a SimCourse from a local
+ * HttpServer. Point a tool at it with Common.useSite(sim.baseUrl(), sim.courseId()) (or -Dcanvas.site and
+ * -Dcanvas.course), or use sim.client(token), to load-test it offline. Any Bearer token is accepted.
+ *
+ * Like Canvas, the simulator paginates lists (with numbered pages, or with opaque bookmarks), meters each token with
+ * a leaky bucket and answers "403 Forbidden (Rate Limit Exceeded)" when it runs dry, runs update_grades in the
+ * background, and uploads files in two steps. Every response can be delayed by a fixed latency plus random jitter.
+ *
+ * Endpoints, relative to /api/v1/:
+ *   courses/:id, courses/:id/assignments(/:id), courses/:id/assignments/:id/overrides, courses/:id/users,
+ *   courses/:id/groups, groups/:id/users, users/:id/profile, courses/:id/quizzes(/:id),
+ *   courses/:id/students/submissions, courses/:id/assignments/:id/submissions(/:user) (GET and PUT),
+ *   courses/:id/assignments/:id/submissions/update_grades, progress/:id,
+ *   courses/:id/assignments/:id/submissions/:user/comments/files, files/:id(/status),
+ *   calendar_events(/:id) (GET, POST, PUT and DELETE), conversations (POST)
+ * and, at /api/graphql, just the groups query of GraphQLClient (which CourseReplica pulls the roster with).
+ *
+ * Usage: CanvasSimulator --help
+ */
+public class CanvasSimulator implements Closeable {
+
+    private static final JsonFactory JSON = GsonFactory.getDefaultInstance();
+    private static final String API = "/api/v1/";
+    private static final String GRAPHQL = "/api/graphql";
+    /** Canvas charges each request this much quota up front, and refunds it when the request finishes */
+    static final double UPFRONT_COST = 50.0;
+
+    private final SimCourse course;
+    private final List<Route> routes = new ArrayList<>();
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
+    /** upload id => file name and size from step 1 of an upload */
+    private final Map<Integer, String[]> pendingUploads = new ConcurrentHashMap<>();
+    /** file id => when Canvas finishes fetching it, for uploads from a URL */
+    private final Map<Integer, Long> fileReadyAt = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong(), throttled = new AtomicLong();
+
+    private volatile long latencyMillis = 0, jitterMillis = 0;
+    private volatile int maxPageSize = 100;
+    private volatile boolean bookmarks = false;
+    /** bucket size, or 0 for no rate limit */
+    private volatile double bucketCapacity = 0, refillPerSecond, requestCost;
+    private volatile long jobMillis = 200;
+
+    private HttpServer server;
+    private ExecutorService pool;
+
+    /** A request, with its query and body parameters flattened Rails-style, e.g., comment[text_comment] */
+    private static class Call {
+        final HttpExchange x;
+        final Map<String, List<String>> params = new HashMap<>();
+        /** objects in the response, which drives its cost */
+        int items = 1;
+
+        Call(HttpExchange x) throws IOException {
+            this.x = x;
+            decodeForm(x.getRequestURI().getRawQuery(), params);
+            String type = x.getRequestHeaders().getFirst("Content-Type");
+            if (null != type && type.startsWith("application/json")) {
+                flatten("", JSON.fromInputStream(x.getRequestBody(), GenericJson.class), params);
+            } else if (null != type && type.startsWith("application/x-www-form-urlencoded")) {
+                decodeForm(IOUtils.toString(x.getRequestBody(), StandardCharsets.UTF_8), params);
+            }
+        }
+
+        String method() {
+            return x.getRequestMethod();
+        }
+
+        String param(String name) {
+            List<String> vs = params.get(name);
+            return null == vs || vs.isEmpty() ? null : vs.get(0);
+        }
+
+        List<String> params(String name) {
+            return params.getOrDefault(name, Collections.emptyList());
+        }
+
+        String token() {
+            String auth = x.getRequestHeaders().getFirst("Authorization");
+            return null != auth && auth.startsWith("Bearer ") ? auth.substring(7) : null;
+        }
+
+        /** @return this request's URL, with the given page parameter instead of its own */
+        String urlOfPage(String page) throws IOException {
+            StringBuilder url = new StringBuilder("http://" + x.getRequestHeaders().getFirst("Host")
+                    + x.getRequestURI().getRawPath() + "?");
+            String query = x.getRequestURI().getRawQuery();
+            if (null != query) {
+                for (String kv : query.split("&")) {
+                    if (!kv.startsWith("page=") && !kv.isEmpty()) url.append(kv).append('&');
+                }
+            }
+            return url.append("page=").append(URLEncoder.encode(page, "UTF-8")).toString();
+        }
+    }
+
+    /** An error response, with Canvas' JSON error body */
+    private static class SimError extends IOException {
+        final int status;
+
+        SimError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        /** @return the object (or list of objects) to send back as JSON */
+        Object handle(Call c, Matcher m) throws IOException;
+    }
+
+    private static class Route {
+        final String method;
+        final Pattern path;
+        final Handler handler;
+
+        Route(String method, String path, Handler handler) {
+            this.method = method;
+            this.path = Pattern.compile(path);
+            this.handler = handler;
+        }
+    }
+
+    /** A token's leaky bucket, see RequestScheduler */
+    private class Bucket {
+        private double remaining = bucketCapacity;
+        private long lastUpdate = System.nanoTime();
+
+        /** @return whether there was enough quota to start a request */
+        synchronized boolean start() {
+            refill();
+            if (remaining < UPFRONT_COST) return false;
+            remaining -= UPFRONT_COST;
+            return true;
+        }
+
+        /** @return the quota left after a request that cost the given amount */
+        synchronized double finish(double cost) {
+            refill();
+            remaining += UPFRONT_COST - cost;
+            return remaining;
+        }
+
+        synchronized double remaining() {
+            refill();
+            return remaining;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            remaining = Math.min(bucketCapacity, remaining + refillPerSecond * (now - lastUpdate) / 1e9);
+            lastUpdate = now;
+        }
+    }
+
+    /** An update_grades job */
+    private static class Job {
+        final Progress progress = new Progress();
+        final long start = System.currentTimeMillis();
+        final long duration;
+        final int assignmentId;
+        /** student id => (field => value) */
+        final Map<String, Map<String, String>> grades;
+
+        Job(int id, long duration, int assignmentId, Map<String, Map<String, String>> grades) {
+            this.duration = duration;
+            this.assignmentId = assignmentId;
+            this.grades = grades;
+            progress.id = id;
+            progress.tag = "submissions_update";
+            progress.context_type = "Course";
+            progress.workflow_state = "queued";
+            progress.completion = 0.0;
+        }
+    }
+
+    public CanvasSimulator(SimCourse course) {
+        this.course = course;
+        final String c = "courses/(\\d+)/", a = c + "assignments/(\\d+)/";
+
+        route("GET", "courses/(\\d+)/?", (call, m) -> course(m).course);
+        route("GET", c + "assignments", (call, m) -> page(call, course(m).assignments));
+        route("GET", c + "assignments/(\\d+)", (call, m) -> assignment(m));
+        route("GET", a + "overrides", (call, m) -> page(call, Collections.emptyList()));
+        route("GET", c + "users", this::users);
+        route("GET", "users/(\\d+)/profile", (call, m) -> found(course.profileOfId.get(id(m, 1)), "user"));
+        route("GET", c + "groups", (call, m) -> {
+            if (!call.params("include[]").contains("users")) return page(call, course(m).groups);
+            List<GenericJson> gs = new ArrayList<>();
+            for (Group g : course(m).groups) {
+                GenericJson gj = new GenericJson();
+                gj.set("id", g.id);
+                gj.set("name", g.name);
+                gj.set("users", g.members);
+                gs.add(gj);
+            }
+            return page(call, gs);
+        });
+        route("POST", GRAPHQL, (call, m) -> graphqlGroups(call));
+        route("GET", "groups/(\\d+)/users", (call, m) -> {
+            int g = id(m, 1) - SimCourse.FIRST_GROUP_ID;
+            if (g < 0 || g >= course.groups.size()) throw new SimError(404, "no such group");
+            return page(call, Arrays.asList(course.groups.get(g).members));
+        });
+        route("GET", c + "quizzes/?", (call, m) -> page(call, course(m).quizzes));
+        route("GET", c + "quizzes/(\\d+)", (call, m) -> found(course(m).quizzes.stream()
+                .filter(q -> q.id == id(m, 2)).findFirst().orElse(null), "quiz"));
+
+        route("GET", c + "students/submissions", this::studentSubmissions);
+        route("GET", a + "submissions", (call, m) -> page(call, course.submissions.get(assignment(m).id)));
+        route("GET", a + "submissions/(\\d+)", (call, m) -> submission(m));
+        route("PUT", a + "submissions/(\\d+)", this::putSubmission);
+        route("POST", a + "submissions/update_grades", this::updateGrades);
+        route("GET", "progress/(\\d+)", (call, m) -> progress(found(jobs.get(id(m, 1)), "progress")));
+
+        route("POST", a + "submissions/(\\d+)/comments/files", this::startUpload);
+        route("GET", "files/(\\d+)", (call, m) -> found(course.files.get(id(m, 1)), "file"));
+        route("GET", "files/(\\d+)/status", (call, m) -> {
+            long readyAt = found(fileReadyAt.get(id(m, 1)), "file");
+            StatusResponse s = new StatusResponse();
+            s.upload_status = System.currentTimeMillis() < readyAt ? "pending" : "ready";
+            return s;
+        });
+
+        route("GET", "calendar_events", (call, m) -> {
+            List<String> contexts = call.params("context_codes[]");
+            List<CalendarEvent> events = new ArrayList<>();
+            for (CalendarEvent ce : course.calendarEvents.values()) {
+                if (contexts.isEmpty() || contexts.contains(ce.context_code)) events.add(ce);
+            }
+            return page(call, events);
+        });
+        route("GET", "calendar_events/(\\d+)", (call, m) -> calendarEvent(m));
+        route("POST", "calendar_events", (call, m) -> {
+            CalendarEvent ce = new CalendarEvent();
+            ce.id = course.nextId();
+            ce.context_code = "course_" + course.id;
+            editCalendarEvent(call, ce);
+            course.calendarEvents.put(ce.id, ce);
+            call.x.getResponseHeaders().set("Location", baseUrl() + "calendar_events/" + ce.id);
+            return ce;
+        });
+        route("PUT", "calendar_events/(\\d+)", (call, m) -> editCalendarEvent(call, calendarEvent(m)));
+        route("DELETE", "calendar_events/(\\d+)", (call, m) -> course.calendarEvents.remove(calendarEvent(m).id));
+
+        route("POST", "conversations", (call, m) -> {
+            GenericJson conv = new GenericJson();
+            conv.set("id", course.nextId());
+            conv.set("subject", call.param("subject"));
+            conv.set("last_message", call.param("body"));
+            conv.set("participants", call.params("recipients[]"));
+            return Collections.singletonList(conv);
+        });
+    }
+
+    private void route(String method, String path, Handler handler) {
+        routes.add(new Route(method, path, handler));
+    }
+
+    /** Wait this long (plus up to jitterMillis) before answering each request */
+    public CanvasSimulator latency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    /** Never return more than this many objects per page, whatever per_page asks for. Canvas' limit is 100. */
+    public CanvasSimulator pageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+        return this;
+    }
+
+    /** Paginate with opaque bookmarks and no last link, like Canvas does for some big lists, instead of page numbers */
+    public CanvasSimulator bookmarks(boolean bookmarks) {
+        this.bookmarks = bookmarks;
+        return this;
+    }
+
+    /**
+     * Meter each token with a leaky bucket, like Canvas
+     * @param capacity the bucket's size, e.g., 700
+     * @param refillPerSecond how fast the bucket refills, e.g., 10
+     * @param requestCost what a request costs, on top of 1% of that per object in the response
+     */
+    public CanvasSimulator rateLimit(double capacity, double refillPerSecond, double requestCost) {
+        this.bucketCapacity = capacity;
+        this.refillPerSecond = refillPerSecond;
+        this.requestCost = requestCost;
+        buckets.clear();
+        return this;
+    }
+
+    /** How long background jobs (update_grades, uploads from a URL) take */
+    public CanvasSimulator jobTime(long jobMillis) {
+        this.jobMillis = jobMillis;
+        return this;
+    }
+
+    /** Start serving, on the given port (or any free port, if it's 0) on localhost */
+    public CanvasSimulator start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 128);
+        // NB: a thread per request, so that concurrent requests overlap their latency like they would on Canvas
+        pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "canvas-sim");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(pool);
+        server.createContext("/", this::serve);
+        server.start();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (null == server) return;
+        server.stop(0);
+        pool.shutdownNow();
+        server = null;
+    }
+
+    public SimCourse course() {
+        return course;
+    }
+
+    /** @return the API's base URL, e.g., http://127.0.0.1:8080/api/v1/ */
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + API;
+    }
+
+    public String courseId() {
+        return String.valueOf(course.id);
+    }
+
+    /** @return a client for the simulated course */
+    public CanvasClient client(String token) {
+        return new CanvasClient(baseUrl(), courseId(), "Bearer " + token);
+    }
+
+    /** @return how many API requests we've answered, including throttled ones */
+    public long requests() {
+        return requests.get();
+    }
+
+    /** @return how many API requests we've throttled */
+    public long throttled() {
+        return throttled.get();
+    }
+
+    private void serve(HttpExchange x) throws IOException {
+        try {
+            long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0);
+            if (delay > 0) Thread.sleep(delay);
+
+            String path = x.getRequestURI().getPath();
+            Matcher upload = Pattern.compile("/sim/upload/(\\d+)").matcher(path);
+            if ("POST".equals(x.getRequestMethod()) && upload.matches()) { // NB: not metered, like Canvas' file store
+                respond(x, 201, finishUpload(x, Integer.parseInt(upload.group(1))));
+                return;
+            }
+            if (GRAPHQL.equals(path)) { // NB: metered like the REST API
+                api(x, path);
+                return;
+            }
+            if (!path.startsWith(API)) {
+                respond(x, 404, error("not an API path: " + path));
+                return;
+            }
+            api(x, path.substring(API.length()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SimError e) {
+            respond(x, e.status, error(e.getMessage()));
+        } catch (RuntimeException | IOException e) {
+            respond(x, 500, error(e.toString()));
+        } finally {
+            x.close();
+        }
+    }
+
+    private void api(HttpExchange x, String path) throws IOException {
+        requests.incrementAndGet();
+        Call call = new Call(x);
+        String token = call.token();
+        if (null == token) throw new SimError(401, "user authorization required");
+
+        Bucket bucket = bucketCapacity > 0 ? buckets.computeIfAbsent(token, t -> new Bucket()) : null;
+        if (null != bucket && !bucket.start()) {
+            throttled.incrementAndGet();
+            // NB: RequestScheduler recognizes throttling from a non-positive X-Rate-Limit-Remaining
+            x.getResponseHeaders().set("X-Rate-Limit-Remaining", String.valueOf(bucket.remaining() - UPFRONT_COST));
+            respond(x, 403, "403 Forbidden (Rate Limit Exceeded)".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        int status = 200;
+        byte[] body;
+        try {
+            body = handle(call, path);
+        } catch (SimError e) {
+            status = e.status;
+            body = error(e.getMessage());
+        }
+        if (null != bucket) {
+            double cost = requestCost * (1 + call.items / 100.0);
+            // NB: not in the default locale, RequestScheduler can't parse "12,5000"
+            x.getResponseHeaders().set("X-Request-Cost", String.format(Locale.ROOT, "%.4f", cost));
+            x.getResponseHeaders().set("X-Rate-Limit-Remaining",
+                    String.format(Locale.ROOT, "%.4f", bucket.finish(cost)));
+        }
+        respond(x, status, body);
+    }
+
+    private byte[] handle(Call call, String path) throws IOException {
+        boolean pathMatched = false;
+        for (Route r : routes) {
+            Matcher m = r.path.matcher(path);
+            if (!m.matches()) continue;
+            pathMatched = true;
+            if (!r.method.equals(call.method())) continue;
+            // NB: handlers are quick, so one lock for the whole course keeps things simple
+            synchronized (course) {
+                Object result = r.handler.handle(call, m);
+                return null == result ? "{}".getBytes(StandardCharsets.UTF_8) : JSON.toByteArray(result);
+            }
+        }
+        throw pathMatched ? new SimError(405, call.method() + " not allowed for " + path)
+                : new SimError(404, "The specified resource does not exist.");
+    }
+
+    private static void respond(HttpExchange x, int status, byte[] body) throws IOException {
+        if (!x.getResponseHeaders().containsKey("Content-Type")) {
+            x.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        }
+        x.sendResponseHeaders(status, body.length);
+        try (OutputStream out = x.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] error(String message) throws IOException {
+        GenericJson e = new GenericJson();
+        e.set("message", message);
+        GenericJson errors = new GenericJson();
+        errors.set("errors", Collections.singletonList(e));
+        return JSON.toByteArray(errors);
+    }
+
+    /** @return one page of the given list, adding the Link header for the rest */
+    private <T> List<T> page(Call c, List<T> all) throws IOException {
+        int perPage = Math.max(1, Math.min(maxPageSize, null == c.param("per_page") ? 10
+                : Integer.parseInt(c.param("per_page"))));
+        String p = c.param("page");
+        int offset = 0;
+        if (null != p && p.startsWith("bookmark:")) {
+            String json = new String(Base64.getUrlDecoder().decode(p.substring("bookmark:".length())),
+                    StandardCharsets.UTF_8);
+            offset = Integer.parseInt(json.replaceAll("[\\[\\]]", ""));
+        } else if (null != p) {
+            offset = (Integer.parseInt(p) - 1) * perPage;
+        }
+        offset = Math.max(0, Math.min(offset, all.size()));
+        int end = Math.min(all.size(), offset + perPage);
+
+        List<String> links = new ArrayList<>();
+        if (bookmarks) {
+            links.add(link(c.urlOfPage(bookmark(offset)), "current"));
+            if (end < all.size()) links.add(link(c.urlOfPage(bookmark(end)), "next"));
+            links.add(link(c.urlOfPage(bookmark(0)), "first"));
+        } else {
+            int page = offset / perPage + 1, last = Math.max(1, (all.size() + perPage - 1) / perPage);
+            links.add(link(c.urlOfPage(String.valueOf(page)), "current"));
+            if (end < all.size()) links.add(link(c.urlOfPage(String.valueOf(page + 1)), "next"));
+            if (page > 1) links.add(link(c.urlOfPage(String.valueOf(page - 1)), "prev"));
+            links.add(link(c.urlOfPage("1"), "first"));
+            links.add(link(c.urlOfPage(String.valueOf(last)), "last"));
+        }
+        c.x.getResponseHeaders().set("Link", String.join(",", links));
+        c.items = end - offset;
+        return new ArrayList<>(all.subList(offset, end));
+    }
+
+    private static String bookmark(int offset) {
+        String json = "[" + offset + "]";
+        return "bookmark:" + Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String link(String url, String rel) {
+        return "<" + url + ">; rel=\"" + rel + "\"";
+    }
+
+    /** Answer GraphQLClient's groups query, a page of groups with their members */
+    private GenericJson graphqlGroups(Call call) throws SimError {
+        String query = call.param("query");
+        Matcher first = Pattern.compile("groupsConnection\\(first: (\\d+)").matcher(null == query ? "" : query);
+        if (!first.find()) throw new SimError(400, "the simulator only answers GraphQLClient's groups query");
+        if (!String.valueOf(course.id).equals(call.param("variables[course]"))) {
+            throw new SimError(404, "no such course");
+        }
+        String after = call.param("variables[groupsAfter]");
+        int offset = null == after ? 0 : Math.max(0, Math.min(Integer.parseInt(after), course.groups.size()));
+        int end = Math.min(course.groups.size(), offset + Math.min(maxPageSize, Integer.parseInt(first.group(1))));
+
+        List<GenericJson> nodes = new ArrayList<>();
+        for (Group g : course.groups.subList(offset, end)) {
+            List<GenericJson> members = new ArrayList<>();
+            for (User u : g.members) {
+                GenericJson gu = new GenericJson();
+                gu.set("_id", String.valueOf(u.id));
+                gu.set("name", u.name);
+                gu.set("email", u.email);
+                gu.set("sisId", u.sis_user_id);
+                gu.set("loginId", u.login_id);
+                members.add(new GenericJson().set("user", gu));
+            }
+            nodes.add(new GenericJson().set("_id", String.valueOf(g.id)).set("name", g.name)
+                    .set("membersConnection", new GenericJson().set("nodes", members)));
+        }
+        GenericJson pageInfo = new GenericJson().set("hasNextPage", end < course.groups.size())
+                .set("endCursor", String.valueOf(end));
+        GenericJson groups = new GenericJson().set("nodes", nodes).set("pageInfo", pageInfo);
+        call.items = end - offset;
+        return new GenericJson().set("data", new GenericJson().set("course",
+                new GenericJson().set("groupsConnection", groups)));
+    }
+
+    private SimCourse course(Matcher m) throws SimError {
+        if (id(m, 1) != course.id) throw new SimError(404, "no such course");
+        return course;
+    }
+
+    private Assignment assignment(Matcher m) throws SimError {
+        int aid = id(m, 2);
+        for (Assignment a : course(m).assignments) {
+            if (a.id == aid) return a;
+        }
+        throw new SimError(404, "no such assignment");
+    }
+
+    private Submission submission(Matcher m) throws SimError {
+        return found(course.submission(assignment(m).id, id(m, 3)), "submission");
+    }
+
+    private CalendarEvent calendarEvent(Matcher m) throws SimError {
+        return found(course.calendarEvents.get(id(m, 1)), "calendar event");
+    }
+
+    private static int id(Matcher m, int group) {
+        return Integer.parseInt(m.group(group));
+    }
+
+    private static <T> T found(T t, String what) throws SimError {
+        if (null == t) throw new SimError(404, "no such " + what);
+        return t;
+    }
+
+    private Object users(Call c, Matcher m) throws IOException {
+        List<String> types = new ArrayList<>(c.params("enrollment_type"));
+        types.addAll(c.params("enrollment_type[]"));
+        List<User> users = new ArrayList<>();
+        if (types.isEmpty() || types.contains("teacher")) users.add(course(m).teacher);
+        if (types.isEmpty() || types.contains("student")) users.addAll(course(m).students);
+        return page(c, users);
+    }
+
+    /** @return the epoch second of a submitted_since/graded_since param, or NO_TIME if there isn't one */
+    private static long since(String param) {
+        return null == param ? SubmissionTable.NO_TIME : Instant.parse(param).getEpochSecond();
+    }
+
+    private Object studentSubmissions(Call c, Matcher m) throws IOException {
+        course(m);
+        List<String> aids = c.params("assignment_ids[]");
+        List<String> sids = c.params("student_ids[]");
+        String state = c.param("workflow_state");
+        long submittedSince = since(c.param("submitted_since"));
+        long gradedSince = since(c.param("graded_since"));
+        boolean allStudents = sids.isEmpty() || sids.contains("all");
+        List<Submission> subs = new ArrayList<>();
+        for (Map.Entry<Integer, List<Submission>> e : course.submissions.entrySet()) {
+            if (!aids.isEmpty() && !aids.contains(String.valueOf(e.getKey()))) continue;
+            for (Submission s : e.getValue()) {
+                if ((allStudents || sids.contains(String.valueOf(s.user_id)))
+                        && (null == state || state.equals(s.workflow_state))
+                        && SubmissionTable.epochSecond(s.submitted_at_string) >= submittedSince
+                        && SubmissionTable.epochSecond(s.graded_at_string) >= gradedSince) {
+                    subs.add(s);
+                }
+            }
+        }
+        return page(c, subs);
+    }
+
+    private Object putSubmission(Call c, Matcher m) throws IOException {
+        Assignment a = assignment(m);
+        Submission s = submission(m);
+        // NB: like Canvas, a grade or group comment on a group assignment goes to everyone in the group
+        List<Submission> targets = new ArrayList<>();
+        if (null != a.group_category_id) {
+            for (User u : course.groupOfUser.get(s.user_id).members) {
+                targets.add(course.submission(a.id, u.id));
+            }
+        } else {
+            targets.add(s);
+        }
+        String grade = c.param("submission[posted_grade]");
+        String text = c.param("comment[text_comment]");
+        List<String> fileIds = new ArrayList<>(c.params("comment[file_ids]"));
+        fileIds.addAll(c.params("comment[file_ids][]"));
+        boolean groupComment = "true".equals(c.param("comment[group_comment]"));
+        try {
+            for (Submission t : targets) {
+                if (null != grade) course.grade(t, grade);
+                if ((null != text || !fileIds.isEmpty()) && (groupComment || t == s)) {
+                    course.comment(t, null == text ? "" : text, fileIds.stream().mapToInt(Integer::parseInt).toArray());
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new SimError(400, "bad grade or file id: " + e.getMessage());
+        }
+        return s;
+    }
+
+    private static final Pattern GRADE_DATA = Pattern.compile("grade_data\\[([^\\]]+)\\]\\[(\\w+)\\]");
+
+    private Object updateGrades(Call c, Matcher m) throws IOException {
+        Assignment a = assignment(m);
+        Map<String, Map<String, String>> grades = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> p : c.params.entrySet()) {
+            Matcher g = GRADE_DATA.matcher(p.getKey());
+            if (g.matches() && !p.getValue().isEmpty()) {
+                grades.computeIfAbsent(g.group(1), k -> new HashMap<>()).put(g.group(2), p.getValue().get(0));
+            }
+        }
+        if (grades.isEmpty()) throw new SimError(400, "no grade_data");
+        Job job = new Job(course.nextId(), jobMillis, a.id, grades);
+        job.progress.context_id = course.id;
+        job.progress.url = baseUrl() + "progress/" + job.progress.id;
+        jobs.put(job.progress.id, job);
+        return job.progress;
+    }
+
+    /** Bring a job's Progress up to date, applying its grades once it's done */
+    private Progress progress(Job job) {
+        Progress p = job.progress;
+        if ("completed".equals(p.workflow_state) || "failed".equals(p.workflow_state)) return p;
+        long elapsed = System.currentTimeMillis() - job.start;
+        if (elapsed < job.duration) {
+            p.workflow_state = elapsed < job.duration / 10 ? "queued" : "running";
+            p.completion = Math.floor(100.0 * elapsed / job.duration);
+            return p;
+        }
+        // NB: Canvas applies all of a job's grades, or (e.g., when a student id is bad) none of them
+        List<String> bad = new ArrayList<>();
+        Map<Submission, Map<String, String>> updates = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, String>> g : job.grades.entrySet()) {
+            Submission s = null;
+            try {
+                s = course.submission(job.assignmentId, Integer.parseInt(g.getKey()));
+            } catch (NumberFormatException e) {
+                // e.g., sis_user_id:..., which we don't support
+            }
+            if (null == s) bad.add(g.getKey());
+            else updates.put(s, g.getValue());
+        }
+        p.completion = 100.0;
+        if (!bad.isEmpty()) {
+            p.workflow_state = "failed";
+            p.message = "Couldn't find User(s) with API ids " + bad;
+            return p;
+        }
+        for (Map.Entry<Submission, Map<String, String>> u : updates.entrySet()) {
+            String grade = u.getValue().get("posted_grade");
+            if (null != grade) course.grade(u.getKey(), grade);
+            String text = u.getValue().get("text_comment");
+            if (null != text) course.comment(u.getKey(), text, new int[0]);
+        }
+        p.workflow_state = "completed";
+        return p;
+    }
+
+    /** Step 1 of a file upload, see CanvasClient.uploadFile() */
+    private Object startUpload(Call c, Matcher m) throws IOException {
+        submission(m);
+        String name = c.param("name");
+        String size = c.param("size");
+        if (null == name || null == size) throw new SimError(400, "name and size are required");
+        if (null != c.param("url")) { // Canvas fetches the file itself
+            CanvasFile f = newFile(name, Integer.parseInt(size));
+            fileReadyAt.put(f.id, System.currentTimeMillis() + jobMillis);
+            UploadHandleURL h = new UploadHandleURL();
+            h.id = f.id;
+            h.upload_status = "pending";
+            h.status_url = baseUrl() + "files/" + f.id + "/status";
+            return h;
+        }
+        int uploadId = course.nextId();
+        pendingUploads.put(uploadId, new String[]{name, size});
+        UploadHandlePOST h = new UploadHandlePOST();
+        h.upload_url = baseUrl().replace(API, "/sim/upload/") + uploadId;
+        h.upload_params = new HashMap<>();
+        h.upload_params.put("filename", name);
+        h.upload_params.put("content_type", "text/plain");
+        return h;
+    }
+
+    /** Step 2 of a file upload: the multipart POST of the file itself */
+    private byte[] finishUpload(HttpExchange x, int uploadId) throws IOException {
+        String[] pending = found(pendingUploads.remove(uploadId), "upload");
+        byte[] body = IOUtils.toByteArray(x.getRequestBody());
+        String type = x.getRequestHeaders().getFirst("Content-Type");
+        Matcher b = Pattern.compile("boundary=\"?([^\";]+)").matcher(null == type ? "" : type);
+        if (!b.find()) throw new SimError(400, "not a multipart upload");
+        int length = fileLength(new String(body, StandardCharsets.ISO_8859_1), b.group(1));
+        if (length != Integer.parseInt(pending[1])) {
+            throw new SimError(400, String.format("expected %s bytes but got %d", pending[1], length));
+        }
+        CanvasFile f = newFile(pending[0], length);
+        x.getResponseHeaders().set("Location", baseUrl() + "files/" + f.id);
+        synchronized (course) {
+            return JSON.toByteArray(f);
+        }
+    }
+
+    /** @return the length of the part named "file" in a multipart body */
+    private static int fileLength(String body, String boundary) throws SimError {
+        int part = body.indexOf("name=\"file\"");
+        int start = part < 0 ? -1 : body.indexOf("\r\n\r\n", part);
+        int end = start < 0 ? -1 : body.indexOf("\r\n--" + boundary, start + 4);
+        if (end < 0) throw new SimError(400, "no file in upload");
+        return end - (start + 4);
+    }
+
+    private CanvasFile newFile(String name, int size) {
+        CanvasFile f = new CanvasFile();
+        f.id = course.nextId();
+        f.filename = name;
+        f.size = size;
+        f.workflow_state = "processed";
+        synchronized (course) {
+            course.files.put(f.id, f);
+        }
+        return f;
+    }
+
+    private static CalendarEvent editCalendarEvent(Call c, CalendarEvent ce) {
+        String v;
+        if (null != (v = c.param("calendar_event[title]"))) ce.title = v;
+        if (null != (v = c.param("calendar_event[description]"))) ce.description = v;
+        if (null != (v = c.param("calendar_event[location_name]"))) ce.location_name = v;
+        if (null != (v = c.param("calendar_event[context_code]"))) ce.context_code = v;
+        if (null != (v = c.param("calendar_event[start_at]"))) ce.start_at_string = Instant.parse(v).toString();
+        if (null != (v = c.param("calendar_event[end_at]"))) ce.end_at_string = Instant.parse(v).toString();
+        return ce;
+    }
+
+    private static void decodeForm(String form, Map<String, List<String>> params) throws IOException {
+        if (null == form || form.isEmpty()) return;
+        for (String kv : form.split("&")) {
+            if (kv.isEmpty()) continue;
+            int eq = kv.indexOf('=');
+            String k = URLDecoder.decode(eq < 0 ? kv : kv.substring(0, eq), "UTF-8");
+            String v = eq < 0 ? "" : URLDecoder.decode(kv.substring(eq + 1), "UTF-8");
+            params.computeIfAbsent(k, x -> new ArrayList<>()).add(v);
+        }
+    }
+
+    /** Flatten a JSON body into Rails-style parameters, e.g., {"comment": {"file_ids": [1]}} to comment[file_ids][] */
+    private static void flatten(String prefix, Object value, Map<String, List<String>> params) {
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                String k = prefix.isEmpty() ? e.getKey().toString() : prefix + "[" + e.getKey() + "]";
+                flatten(k, e.getValue(), params);
+            }
+        } else if (value instanceof Collection) {
+            for (Object v : (Collection<?>) value) {
+                flatten(prefix + "[]", v, params);
+            }
+        } else if (null != value) {
+            // NB: Gson parses all JSON numbers as BigDecimal, so 85 would otherwise be "85.0" as a posted grade
+            String s = value instanceof java.math.BigDecimal ? ((java.math.BigDecimal) value).stripTrailingZeros()
+                    .toPlainString() : value.toString();
+            params.computeIfAbsent(prefix, x -> new ArrayList<>()).add(s);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<Integer> port = parser.accepts("port", "listen on this localhost port")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(8080);
+        OptionSpec<Integer> students = parser.accepts("students", "students in the course")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(10_000);
+        OptionSpec<Integer> groupSize = parser.accepts("group-size", "students per group")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(2);
+        OptionSpec<Integer> assignments = parser.accepts("assignments", "assignments in the course")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(10);
+        OptionSpec<Long> seed = parser.accepts("seed", "seed for the synthetic course")
+                .withRequiredArg().ofType(Long.class).defaultsTo(501L);
+        OptionSpec<Long> latency = parser.accepts("latency", "ms before each response")
+                .withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        OptionSpec<Long> jitter = parser.accepts("jitter", "up to this many more ms before each response")
+                .withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        OptionSpec<Integer> pageSize = parser.accepts("page-size", "max objects per page")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(100);
+        OptionSpec bookmarks = parser.accepts("bookmarks", "paginate with bookmarks instead of page numbers");
+        OptionSpec<Double> rateLimit = parser.accepts("rate-limit", "rate-limit bucket size, e.g., 700")
+                .withRequiredArg().ofType(Double.class);
+        OptionSpec<Double> refill = parser.accepts("refill", "rate-limit bucket refill per second")
+                .withRequiredArg().ofType(Double.class).defaultsTo(10.0);
+        OptionSpec<Double> cost = parser.accepts("cost", "rate-limit cost of a request")
+                .withRequiredArg().ofType(Double.class).defaultsTo(1.0);
+        OptionSpec<Long> jobTime = parser.accepts("job-time", "ms that background jobs take")
+                .withRequiredArg().ofType(Long.class).defaultsTo(200L);
+        OptionSpec help = parser.accepts("help", "Print this help message").forHelp();
+        OptionSet options = parser.parse(args);
+        if (options.has(help)) {
+            parser.printHelpOn(System.out);
+            return;
+        }
+
+        SimCourse course = new SimCourse(1_000, options.valueOf(students), options.valueOf(groupSize),
+                options.valueOf(assignments), options.valueOf(seed));
+        CanvasSimulator sim = new CanvasSimulator(course)
+                .latency(options.valueOf(latency), options.valueOf(jitter))
+                .pageSize(options.valueOf(pageSize))
+                .bookmarks(options.has(bookmarks))
+                .jobTime(options.valueOf(jobTime));
+        if (options.has(rateLimit)) {
+            sim.rateLimit(options.valueOf(rateLimit), options.valueOf(refill), options.valueOf(cost));
+        }
+        sim.start(options.valueOf(port));
+        System.out.format("simulating course %s with %d students at %s%n", sim.courseId(), course.students.size(),
+                sim.baseUrl());
+        System.out.format("run tools with -Dcanvas.site=%s -Dcanvas.course=%s%n", sim.baseUrl(), sim.courseId());
+        Thread.currentThread().join(); // until we're killed
+    }
+}
@@ -0,0 +1,231 @@
+package canvas.sim;
+
+import canvas.apiobjects.*;
+import com.google.api.client.util.Data;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * A synthetic Canvas course for CanvasSimulator: students with profiles, groups, assignments (every other one a
+ * group assignment) with a submission per student, quizzes and calendar events. Generated from a seed, so the same
+ * arguments always give the same course.
+ *
+ * The simulator changes the course as requests come in (grades, comments, calendar events, files), so all access
+ * goes through this object's lock.
+ */
+public class SimCourse {
+
+    static final int FIRST_STUDENT_ID = 1_000_000;
+    static final int FIRST_GROUP_ID = 50_000;
+    static final int FIRST_ASSIGNMENT_ID = 7_000_000;
+    static final int FIRST_QUIZ_ID = 800_000;
+    static final int TEACHER_ID = 999_999;
+    static final int GROUP_CATEGORY_ID = 4_000;
+
+    /** what Canvas sends as the group of a submission for an individual assignment */
+    private static final Group NO_GROUP = new Group();
+    static {
+        NO_GROUP.id = Data.nullOf(Integer.class);
+        NO_GROUP.name = Data.nullOf(String.class);
+    }
+
+    final int id;
+    final Course course = new Course();
+    final User teacher = new User();
+    final List<User> students = new ArrayList<>();
+    final Map<Integer, User> userOfId = new HashMap<>();
+    final Map<Integer, Profile> profileOfId = new HashMap<>();
+    final List<Group> groups = new ArrayList<>();
+    final Map<Integer, Group> groupOfUser = new HashMap<>();
+    final List<Assignment> assignments = new ArrayList<>();
+    /** assignment id => submissions, in the same order as students */
+    final Map<Integer, List<Submission>> submissions = new LinkedHashMap<>();
+    final List<Quiz> quizzes = new ArrayList<>();
+    final Map<Integer, CalendarEvent> calendarEvents = new TreeMap<>();
+    final Map<Integer, CanvasFile> files = new HashMap<>();
+    private int nextId = 10_000_000;
+
+    /**
+     * @param id the course id
+     * @param students how many students to enroll
+     * @param groupSize students per group, for group assignments
+     * @param assignmentCount how many assignments to create
+     * @param seed for the pseudo-random parts, e.g., who has submitted what
+     */
+    public SimCourse(int id, int students, int groupSize, int assignmentCount, long seed) {
+        this.id = id;
+        Random random = new Random(seed);
+        course.id = id;
+        course.name = "SIM " + id + ": Simulated Course";
+        teacher.id = TEACHER_ID;
+        teacher.name = "Ima Teacher";
+        teacher.login_id = "teacher";
+        teacher.email = "teacher@example.edu";
+        userOfId.put(teacher.id, teacher);
+        profileOfId.put(teacher.id, profile(teacher));
+
+        for (int i = 0; i < students; i++) {
+            User u = new User();
+            u.id = FIRST_STUDENT_ID + i;
+            u.name = "Student " + i;
+            u.login_id = "student" + i;
+            u.sis_user_id = String.format(Locale.ROOT, "%08d", 10_000_000 + i);
+            u.email = ""; // NB: like Penn, see User
+            this.students.add(u);
+            userOfId.put(u.id, u);
+            profileOfId.put(u.id, profile(u));
+        }
+
+        for (int i = 0; i * groupSize < students; i++) {
+            Group g = new Group();
+            g.id = FIRST_GROUP_ID + i;
+            g.name = "Group " + i;
+            List<User> members = this.students.subList(i * groupSize, Math.min(students, (i + 1) * groupSize));
+            g.members = members.toArray(new User[0]);
+            for (User m : members) {
+                groupOfUser.put(m.id, g);
+            }
+            groups.add(g);
+        }
+
+        Instant start = Instant.parse("2020-01-15T17:00:00Z");
+        for (int i = 0; i < assignmentCount; i++) {
+            Assignment a = new Assignment();
+            a.id = FIRST_ASSIGNMENT_ID + i;
+            a.name = (0 == i % 2 ? "hw" : "lab") + (i / 2 + 1);
+            a.group_category_id = 0 == i % 2 ? null : GROUP_CATEGORY_ID;
+            a.published = i < assignmentCount - 1; // the last one isn't out yet
+            a.points_possible = 100.0;
+            a.submission_types = new String[]{"online_upload"};
+            a.allowed_extensions = new String[]{"zip", "v"};
+            Instant due = start.plus(7L * (i + 1), ChronoUnit.DAYS);
+            a.due_at_string = due.toString();
+            a.lock_at_string = due.plus(3, ChronoUnit.DAYS).toString();
+            assignments.add(a);
+
+            List<Submission> subs = new ArrayList<>(students);
+            for (User u : this.students) {
+                Submission s = new Submission();
+                s.user_id = u.id;
+                s.assignment_id = a.id;
+                // NB: Canvas only sends this with include[]=group, but it's harmless to always send it
+                s.group = null != a.group_category_id ? groupOfUser.get(u.id) : NO_GROUP;
+                double r = random.nextDouble();
+                if (!a.published || r < 0.1) {
+                    s.workflow_state = "unsubmitted";
+                    s.submitted_at_string = Data.nullOf(String.class);
+                    s.graded_at_string = Data.nullOf(String.class);
+                } else {
+                    s.attempt = 1 + random.nextInt(3);
+                    s.submitted_at_string = due.minus(random.nextInt(72 * 60), ChronoUnit.MINUTES).toString();
+                    if (r < 0.6) {
+                        s.workflow_state = "graded";
+                        s.score = (double) (50 + random.nextInt(51));
+                        s.graded_at_string = due.plus(1, ChronoUnit.DAYS).toString();
+                    } else {
+                        s.workflow_state = "submitted";
+                        s.graded_at_string = Data.nullOf(String.class);
+                    }
+                }
+                s.submission_comments = new SubmissionComment[0];
+                s.attachments = new Attachment[0];
+                subs.add(s);
+            }
+            submissions.put(a.id, subs);
+        }
+
+        for (int i = 0; i < Math.max(1, assignmentCount / 2); i++) {
+            Quiz q = new Quiz();
+            q.id = FIRST_QUIZ_ID + i;
+            q.title = "Quiz " + (i + 1);
+            quizzes.add(q);
+        }
+
+        for (int i = 0; i < 28; i++) { // two lectures a week
+            CalendarEvent ce = new CalendarEvent();
+            ce.id = nextId();
+            ce.title = "Lecture " + (i + 1);
+            ce.context_code = "course_" + id;
+            ce.location_name = "Towne 100";
+            Instant lecture = start.plus(7L * (i / 2) + 2 * (i % 2), ChronoUnit.DAYS);
+            ce.start_at_string = lecture.toString();
+            ce.end_at_string = lecture.plus(90, ChronoUnit.MINUTES).toString();
+            calendarEvents.put(ce.id, ce);
+        }
+    }
+
+    /** A course with 10k students in groups of 2, and 10 assignments */
+    public static SimCourse large() {
+        return new SimCourse(1_000, 10_000, 2, 10, 501);
+    }
+
+    private static Profile profile(User u) {
+        Profile p = new Profile();
+        p.id = u.id;
+        p.name = u.name;
+        p.primary_email = u.login_id + "@example.edu";
+        return p;
+    }
+
+    /** @return a fresh id for a new object, e.g., a calendar event or file */
+    synchronized int nextId() {
+        return nextId++;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public List<User> students() {
+        return Collections.unmodifiableList(students);
+    }
+
+    public List<Assignment> assignments() {
+        return Collections.unmodifiableList(assignments);
+    }
+
+    /** @return the given student's submission for the given assignment, or null if there is no such submission */
+    synchronized Submission submission(int assignmentId, int userId) {
+        List<Submission> subs = submissions.get(assignmentId);
+        int i = userId - FIRST_STUDENT_ID;
+        return null == subs || i < 0 || i >= subs.size() ? null : subs.get(i);
+    }
+
+    /** @return the current score for the given submission, e.g., to check what a tool wrote */
+    public synchronized Double score(int assignmentId, int userId) {
+        Submission s = submission(assignmentId, userId);
+        return null == s ? null : s.score;
+    }
+
+    /** Set a grade, as Canvas would for a posted_grade of a number or a percentage */
+    synchronized void grade(Submission s, String postedGrade) {
+        String g = postedGrade.trim();
+        s.score = g.endsWith("%") ? Double.parseDouble(g.substring(0, g.length() - 1)) : Double.parseDouble(g);
+        s.graded_at_string = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+        s.workflow_state = "graded";
+    }
+
+    synchronized void comment(Submission s, String text, int[] fileIds) {
+        SubmissionComment c = new SubmissionComment();
+        c.id = nextId();
+        c.author_id = TEACHER_ID;
+        c.author_name = teacher.name;
+        c.comment = text;
+        List<Attachment> attachments = new ArrayList<>();
+        for (int fid : fileIds) {
+            CanvasFile f = files.get(fid);
+            if (null == f) continue;
+            Attachment a = new Attachment();
+            a.id = f.id;
+            a.display_name = a.filename = f.filename;
+            a.size = f.size;
+            attachments.add(a);
+        }
+        c.attachments = attachments.toArray(new Attachment[0]);
+        SubmissionComment[] comments = Arrays.copyOf(s.submission_comments, s.submission_comments.length + 1);
+        comments[comments.length - 1] = c;
+        s.submission_comments = comments;
+    }
+}